@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.test.PDFFixtureGenerator;
+
+/**
+ * Files used by the benchmarks: The PDFs and images of the unit tests, and
+ * PDFs of any size built by <code>PDFFixtureGenerator</code>.
+ *
+ * @since 7.2
+ */
+public class BenchFixtures {
+
+    public static final long SEED = 20150427;
+
+    public static final int PAGE_TREE_FAN_OUT = 10;
+
+    public static final String PDF_FOR_WATERMARK = "Nuxeo-logo-transp-Gray.pdf";
+
+    public static final String IMAGE_FOR_WATERMARK = "Nuxeo-logo-transp-Gray.png";
+
+    public static final String ONE_PAGE_PDF = "pdf-3-1page.pdf";
+
+    private BenchFixtures() {
+    }
+
+    /**
+     * Copy a file of the unit tests (<code>files/inName</code> in the
+     * classpath) in a temporary file.
+     *
+     * @param inName
+     * @return the temporary file
+     * @throws IOException
+     */
+    public static File copyResource(String inName) throws IOException {
+
+        InputStream in = BenchFixtures.class.getClassLoader().getResourceAsStream(
+                "files/" + inName);
+        if (in == null) {
+            throw new IOException("Resource not found: files/" + inName);
+        }
+
+        File f = File.createTempFile("nuxeo-pdfutils-bench-", "-" + inName);
+        f.deleteOnExit();
+        OutputStream out = new FileOutputStream(f);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            out.close();
+            in.close();
+        }
+
+        return f;
+    }
+
+    public static Blob resourceBlob(String inName) throws IOException {
+
+        FileBlob blob = new FileBlob(copyResource(inName));
+        blob.setFilename(inName);
+        return blob;
+    }
+
+    /**
+     * Build a PDF of <code>inPageCount</code> pages, each one with text and
+     * <code>inImagesPerPage</code> images (different on each page). The same
+     * parameters always give the same PDF.
+     *
+     * @param inPageCount
+     * @param inImagesPerPage
+     * @return a FileBlob
+     * @throws IOException
+     */
+    public static Blob buildPDF(int inPageCount, int inImagesPerPage)
+            throws IOException {
+
+        return new PDFFixtureGenerator(SEED).setPageCount(inPageCount).setImagesPerPage(
+                inImagesPerPage).setSharedImages(false).setPageTreeFanOut(
+                PAGE_TREE_FAN_OUT).generateBlob();
+    }
+
+    /**
+     * Delete the file of a blob returned by a benchmarked method.
+     *
+     * @param inBlob
+     */
+    public static void delete(Blob inBlob) {
+        if (inBlob instanceof FileBlob) {
+            ((FileBlob) inBlob).getFile().delete();
+        }
+    }
+}
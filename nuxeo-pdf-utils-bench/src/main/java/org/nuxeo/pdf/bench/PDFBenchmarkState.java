@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.bench;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFEncodedImage;
+import org.nuxeo.pdf.PDFInfo;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.NXRuntimeTestCase;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Common state of the benchmarks: Starts a minimal Nuxeo runtime (the plug-in
+ * reads its configuration and tracks its temporary files through
+ * <code>Framework</code>) and builds the PDF to process.
+ * <p>
+ * The PDF is generated with <code>pageCount</code> pages, each one with text
+ * and <code>imagesPerPage</code> images: Using or not images gives different
+ * file sizes for the same page count.
+ * <p>
+ * The caches of the plug-in are disabled, so each invocation really does the
+ * work.
+ *
+ * @since 7.2
+ */
+@State(Scope.Benchmark)
+public class PDFBenchmarkState {
+
+    @Param({ "13", "130", "1300" })
+    public int pageCount;
+
+    @Param({ "0", "2" })
+    public int imagesPerPage;
+
+    public Blob pdf;
+
+    protected Harness harness;
+
+    /*
+     * NXRuntimeTestCase is the harness used by the unit tests of Nuxeo to
+     * start the runtime
+     */
+    protected static class Harness extends NXRuntimeTestCase {
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+
+        harness = new Harness();
+        harness.setUp();
+
+        Framework.getProperties().setProperty(
+                PDFInfo.CACHE_PROPERTY_PREFIX + ".maxEntries", "0");
+        Framework.getProperties().setProperty(
+                PDFEncodedImage.CACHE_PROPERTY_PREFIX + ".maxEntries", "0");
+        PDFInfo.resetCache();
+        PDFEncodedImage.resetCache();
+
+        pdf = BenchFixtures.buildPDF(pageCount, imagesPerPage);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+
+        BenchFixtures.delete(pdf);
+        harness.tearDown();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.bench;
+
+import java.util.HashMap;
+
+import org.nuxeo.pdf.PDFInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Get the info of the PDF (the cache is disabled by PDFBenchmarkState).
+ *
+ * @since 7.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PDFInfoBenchmark {
+
+    @Benchmark
+    public HashMap<String, String> run(PDFBenchmarkState inState)
+            throws Exception {
+
+        PDFInfo info = new PDFInfo(inState.pdf);
+        info.run();
+        return info.toHashMap();
+    }
+
+    @Benchmark
+    public HashMap<String, String> runLightweight(PDFBenchmarkState inState)
+            throws Exception {
+
+        PDFInfo info = new PDFInfo(inState.pdf);
+        info.setLightweightMode(true);
+        info.run();
+        return info.toHashMap();
+    }
+}
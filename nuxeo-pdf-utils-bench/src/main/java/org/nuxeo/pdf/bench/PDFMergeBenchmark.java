@@ -0,0 +1,83 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.bench;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFMerge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merge the benchmark PDF with a 1-page PDF and itself, in normal and
+ * streaming mode (with and without prefetching the sources).
+ *
+ * @since 7.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PDFMergeBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MergeState {
+
+        @Param({ "false", "true" })
+        public boolean streamingMode;
+
+        @Param({ "0", "2" })
+        public int prefetchCount;
+
+        public Blob onePage;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            onePage = BenchFixtures.resourceBlob(BenchFixtures.ONE_PAGE_PDF);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            BenchFixtures.delete(onePage);
+        }
+    }
+
+    @Benchmark
+    public long merge(PDFBenchmarkState inState, MergeState inMergeState)
+            throws Exception {
+
+        PDFMerge pdfm = new PDFMerge(inState.pdf);
+        pdfm.addBlob(inMergeState.onePage);
+        pdfm.addBlob(inState.pdf);
+        pdfm.setStreamingMode(inMergeState.streamingMode);
+        pdfm.setPrefetchCount(inMergeState.prefetchCount);
+
+        Blob result = pdfm.merge("merged.pdf");
+        long length = result.getLength();
+        BenchFixtures.delete(result);
+        return length;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.bench;
+
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFPageExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extract the first 10 pages, and split the whole PDF every 5 pages.
+ *
+ * @since 7.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PDFPageExtractorBenchmark {
+
+    @Benchmark
+    public long extract(PDFBenchmarkState inState) throws Exception {
+
+        PDFPageExtractor pe = new PDFPageExtractor(inState.pdf);
+
+        Blob result = pe.extract(1, 10);
+        long length = result.getLength();
+        BenchFixtures.delete(result);
+        return length;
+    }
+
+    @Benchmark
+    public long splitEvery5Pages(PDFBenchmarkState inState) throws Exception {
+
+        PDFPageExtractor pe = new PDFPageExtractor(inState.pdf);
+
+        BlobList result = pe.splitEvery(5, null, null, null);
+        long length = 0;
+        for (Blob b : result) {
+            length += b.getLength();
+            BenchFixtures.delete(b);
+        }
+        return length;
+    }
+}
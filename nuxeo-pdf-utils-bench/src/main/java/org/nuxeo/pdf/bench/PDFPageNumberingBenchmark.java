@@ -0,0 +1,50 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.bench;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFPageNumbering;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Add page numbers to every page.
+ *
+ * @since 7.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PDFPageNumberingBenchmark {
+
+    @Benchmark
+    public long addPageNumbers(PDFBenchmarkState inState) throws Exception {
+
+        PDFPageNumbering pn = new PDFPageNumbering(inState.pdf);
+        Blob result = pn.addPageNumbers(1, 1, null, 0, "#ff0000",
+                PAGE_NUMBER_POSITION.BOTTOM_RIGHT);
+        long length = result.getLength();
+        BenchFixtures.delete(result);
+        return length;
+    }
+}
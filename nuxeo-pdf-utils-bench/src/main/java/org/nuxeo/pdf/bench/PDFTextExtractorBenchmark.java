@@ -0,0 +1,53 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.bench;
+
+import org.nuxeo.pdf.PDFTextExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extract all the text of the PDF.
+ *
+ * @since 7.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PDFTextExtractorBenchmark {
+
+    @Benchmark
+    public String getAllExtractedLines(PDFBenchmarkState inState)
+            throws Exception {
+
+        return new PDFTextExtractor(inState.pdf).getAllExtractedLines();
+    }
+
+    @Benchmark
+    public String getAllExtractedLinesInParallel(PDFBenchmarkState inState)
+            throws Exception {
+
+        PDFTextExtractor extractor = new PDFTextExtractor(inState.pdf);
+        extractor.setParallelism(Runtime.getRuntime().availableProcessors());
+        return extractor.getAllExtractedLines();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.bench;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFWatermarking;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Watermark the PDF with a text, a PDF and an image.
+ *
+ * @since 7.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PDFWatermarkingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class WatermarkState {
+
+        public Blob pdfOverlay;
+
+        public Blob image;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            pdfOverlay = BenchFixtures.resourceBlob(BenchFixtures.PDF_FOR_WATERMARK);
+            image = BenchFixtures.resourceBlob(BenchFixtures.IMAGE_FOR_WATERMARK);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            BenchFixtures.delete(pdfOverlay);
+            BenchFixtures.delete(image);
+        }
+    }
+
+    protected long done(Blob inResult) {
+        long length = inResult.getLength();
+        BenchFixtures.delete(inResult);
+        return length;
+    }
+
+    @Benchmark
+    public long withText(PDFBenchmarkState inState) throws Exception {
+
+        PDFWatermarking pdfw = new PDFWatermarking(inState.pdf);
+        pdfw.setText("CONFIDENTIAL").setTextRotation(45).setXPosition(100).setYPosition(
+                100);
+        return done(pdfw.watermark());
+    }
+
+    @Benchmark
+    public long withPdf(PDFBenchmarkState inState,
+            WatermarkState inWatermarkState) throws Exception {
+
+        PDFWatermarking pdfw = new PDFWatermarking(inState.pdf);
+        return done(pdfw.watermarkWithPdf(inWatermarkState.pdfOverlay));
+    }
+
+    @Benchmark
+    public long withImage(PDFBenchmarkState inState,
+            WatermarkState inWatermarkState) throws Exception {
+
+        PDFWatermarking pdfw = new PDFWatermarking(inState.pdf);
+        return done(pdfw.watermarkWithImage(inWatermarkState.image, 100, 100,
+                0.5f));
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * A small in-memory cache, bounded both by a number of entries and by a total
+ * size, whose entries expire after a time to live.
+ * <p>
+ * The least recently used entries are evicted first. The size of an entry is
+ * given by the caller when it is added (it is an estimation, in bytes, of the
+ * memory used by the value).
+ * <p>
+ * A cache with <code>maxEntries</code> or <code>maxSize</code> <= 0 is
+ * disabled: <code>put()</code> does nothing and <code>get()</code> always
+ * returns null.
+ * <p>
+ * All the methods are synchronized.
+ *
+ * @since 7.2
+ */
+public class PDFCache<K, V> {
+
+    private static Log log = LogFactory.getLog(PDFCache.class);
+
+    protected static class Entry<V> {
+
+        protected V value;
+
+        protected long size;
+
+        protected long expirationTime;
+
+        protected Entry(V inValue, long inSize, long inExpirationTime) {
+            value = inValue;
+            size = inSize;
+            expirationTime = inExpirationTime;
+        }
+    }
+
+    protected int maxEntries;
+
+    protected long maxSize;
+
+    protected long ttlMs;
+
+    protected long currentSize = 0;
+
+    protected long hitCount = 0;
+
+    protected long missCount = 0;
+
+    protected LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>(
+            16, 0.75f, true);
+
+    /**
+     * @param inMaxEntries max. number of entries
+     * @param inMaxSize max. total size of the entries, in bytes
+     * @param inTtlMs time to live of an entry, in milliseconds. 0 means no
+     *            expiration
+     */
+    public PDFCache(int inMaxEntries, long inMaxSize, long inTtlMs) {
+        maxEntries = inMaxEntries;
+        maxSize = inMaxSize;
+        ttlMs = inTtlMs;
+    }
+
+    /**
+     * Build a cache whose limits are read from the configuration:
+     * <code>inPropertyPrefix + ".maxEntries"</code>,
+     * <code>inPropertyPrefix + ".maxSize"</code> (in bytes) and
+     * <code>inPropertyPrefix + ".ttl"</code> (in seconds). Default values are
+     * used for missing or invalid properties.
+     *
+     * @param inPropertyPrefix
+     * @param inDefaultMaxEntries
+     * @param inDefaultMaxSize
+     * @param inDefaultTtlSeconds
+     * @return a new cache
+     */
+    public static <K, V> PDFCache<K, V> fromConfiguration(
+            String inPropertyPrefix, int inDefaultMaxEntries,
+            long inDefaultMaxSize, long inDefaultTtlSeconds) {
+
+        long maxEntries = getLongProperty(inPropertyPrefix + ".maxEntries",
+                inDefaultMaxEntries);
+        long maxSize = getLongProperty(inPropertyPrefix + ".maxSize",
+                inDefaultMaxSize);
+        long ttl = getLongProperty(inPropertyPrefix + ".ttl",
+                inDefaultTtlSeconds);
+
+        return new PDFCache<K, V>((int) Math.min(maxEntries, Integer.MAX_VALUE),
+                maxSize, ttl * 1000);
+    }
+
+    protected static long getLongProperty(String inName, long inDefault) {
+
+        String value = Framework.getProperty(inName);
+        if (value != null && !value.isEmpty()) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value for " + inName + ": " + value
+                        + ", using the default value");
+            }
+        }
+        return inDefault;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0 && maxSize > 0;
+    }
+
+    public synchronized V get(K inKey) {
+
+        if (inKey == null || !isEnabled()) {
+            return null;
+        }
+
+        Entry<V> entry = entries.get(inKey);
+        if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+            remove(inKey);
+            entry = null;
+        }
+
+        if (entry == null) {
+            missCount += 1;
+            return null;
+        }
+        hitCount += 1;
+        return entry.value;
+    }
+
+    /**
+     * Add (or replace) a value. A value bigger than the max. size of the cache
+     * is not added.
+     *
+     * @param inKey
+     * @param inValue
+     * @param inSize estimated size of the value, in bytes
+     */
+    public synchronized void put(K inKey, V inValue, long inSize) {
+
+        if (inKey == null || inValue == null || !isEnabled()
+                || inSize > maxSize) {
+            return;
+        }
+
+        remove(inKey);
+
+        long now = System.currentTimeMillis();
+        entries.put(inKey, new Entry<V>(inValue, inSize, ttlMs > 0 ? now
+                + ttlMs : Long.MAX_VALUE));
+        currentSize += inSize;
+
+        evict(now);
+    }
+
+    public synchronized V remove(K inKey) {
+
+        Entry<V> entry = entries.remove(inKey);
+        if (entry == null) {
+            return null;
+        }
+        currentSize -= entry.size;
+        return entry.value;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentSize = 0;
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getCurrentSize() {
+        return currentSize;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    protected boolean isExpired(Entry<V> inEntry, long inNow) {
+        return inEntry.expirationTime <= inNow;
+    }
+
+    /*
+     * Remove expired entries, then the least recently used ones until the
+     * cache is within its limits. Iteration order of the LinkedHashMap is the
+     * access order, least recently used first.
+     */
+    protected void evict(long inNow) {
+
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<V> entry = it.next().getValue();
+            if (isExpired(entry, inNow)) {
+                it.remove();
+                currentSize -= entry.size;
+            }
+        }
+
+        it = entries.entrySet().iterator();
+        while (it.hasNext()
+                && (entries.size() > maxEntries || currentSize > maxSize)) {
+            Entry<V> entry = it.next().getValue();
+            it.remove();
+            currentSize -= entry.size;
+        }
+    }
+}
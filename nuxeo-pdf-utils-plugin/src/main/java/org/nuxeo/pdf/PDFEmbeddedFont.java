@@ -0,0 +1,846 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * A TrueType font (.ttf, or .otf with TrueType outlines) read from the font
+ * directory (<code>nuxeo.pdfutils.fonts.dir</code> configuration property),
+ * to draw any Unicode text, not only the WinAnsi characters of the standard
+ * fonts.
+ * <p>
+ * The font file is parsed once per JVM (<code>get()</code> keeps the parsed
+ * fonts). Each document using the font gets a <code>Subset</code>: The font
+ * is embedded as a Type0/CIDFontType2 font (Identity-H encoding, glyph ids
+ * used as CIDs), containing only the glyphs drawn in this document. The
+ * subset keeps the glyph ids of the original font and just empties the
+ * unused glyphs, so text can be encoded before the subset is known, and the
+ * subset grows with each string drawn until <code>finish()</code> writes it.
+ * <p>
+ * OpenType fonts with CFF outlines and font collections (.ttc) are not
+ * supported.
+ * <p>
+ * A <code>PDFEmbeddedFont</code> (the parsed font file) is never modified
+ * once created, so it can be used by several threads. A <code>Subset</code>
+ * collects the glyphs drawn in one document and is not thread safe.
+ * <p>
+ * A malformed font file always gives an <code>IOException</code>.
+ *
+ * @since 7.2
+ */
+public class PDFEmbeddedFont {
+
+    public static final String FONTS_DIR_PROPERTY = "nuxeo.pdfutils.fonts.dir";
+
+    public static final String[] FONT_FILE_EXTENSIONS = { ".ttf", ".otf",
+            ".TTF", ".OTF" };
+
+    // The tables needed by a CIDFontType2 font (the cmap is not used, the
+    // glyphs are selected by CIDToGIDMap), others are dropped
+    protected static final String[] EMBEDDED_TABLES = { "cvt ", "fpgm",
+            "glyf", "head", "hhea", "hmtx", "loca", "maxp", "prep" };
+
+    protected static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    protected static final ConcurrentMap<String, PDFEmbeddedFont> fonts = new ConcurrentHashMap<String, PDFEmbeddedFont>();
+
+    protected String name;
+
+    protected byte[] data;
+
+    protected Map<String, int[]> tables = new TreeMap<String, int[]>();
+
+    protected int unitsPerEm;
+
+    protected int[] bbox = new int[4];
+
+    protected int ascent;
+
+    protected int descent;
+
+    protected int numGlyphs;
+
+    protected int[] advanceWidths;
+
+    protected int[] glyphOffsets;
+
+    protected int glyfOffset;
+
+    // Sorted code points and their glyph ids
+    protected int[] cmapCodes;
+
+    protected int[] cmapGlyphs;
+
+    protected PDFEmbeddedFont(String inName, byte[] inData) throws IOException {
+
+        name = inName;
+        data = inData;
+        parse();
+    }
+
+    /**
+     * Return the font read from the file <code>inName</code>.ttf (or .otf)
+     * of the font directory, or null if there is no font directory or no
+     * such file.
+     *
+     * @param inName
+     * @return the font, or null
+     * @throws IOException
+     */
+    public static PDFEmbeddedFont get(String inName) throws IOException {
+
+        File file = findFontFile(inName);
+        if (file == null) {
+            return null;
+        }
+
+        String key = file.getAbsolutePath();
+        PDFEmbeddedFont font = fonts.get(key);
+        if (font == null) {
+            font = new PDFEmbeddedFont(inName, Files.readAllBytes(file.toPath()));
+            PDFEmbeddedFont previous = fonts.putIfAbsent(key, font);
+            if (previous != null) {
+                font = previous;
+            }
+        }
+        return font;
+    }
+
+    /**
+     * Return the font directory, or null if it is not configured.
+     */
+    public static File getFontsDir() {
+
+        String dir = Framework.getProperty(FONTS_DIR_PROPERTY);
+        if (StringUtils.isBlank(dir)) {
+            return null;
+        }
+        File f = new File(dir.trim());
+        return f.isDirectory() ? f : null;
+    }
+
+    protected static File findFontFile(String inName) {
+
+        if (StringUtils.isBlank(inName) || inName.indexOf('/') > -1
+                || inName.indexOf('\\') > -1 || inName.startsWith(".")) {
+            return null;
+        }
+
+        File dir = getFontsDir();
+        if (dir == null) {
+            return null;
+        }
+        for (String ext : FONT_FILE_EXTENSIONS) {
+            File f = new File(dir, inName + ext);
+            if (f.isFile()) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget the parsed fonts (for example after the font files were
+     * changed).
+     */
+    public static void resetCache() {
+        fonts.clear();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Subset newSubset(PDDocument inPdfDoc) {
+        return new Subset(inPdfDoc);
+    }
+
+    /**
+     * Return the glyph id of the character, 0 (the .notdef glyph) if the font
+     * does not have it.
+     *
+     * @param inCodePoint
+     * @return the glyph id
+     */
+    public int getGlyphId(int inCodePoint) {
+
+        int idx = Arrays.binarySearch(cmapCodes, inCodePoint);
+        return idx < 0 ? 0 : cmapGlyphs[idx];
+    }
+
+    /**
+     * Return the width of the glyph, in thousandths of the font size.
+     *
+     * @param inGlyphId
+     * @return the width
+     */
+    public float getWidth(int inGlyphId) {
+        return toPdfUnits(advanceWidths[inGlyphId]);
+    }
+
+    public float getStringWidth(String inText, float inFontSize) {
+
+        float width = 0;
+        for (int i = 0; i < inText.length();) {
+            int cp = inText.codePointAt(i);
+            width += getWidth(getGlyphId(cp));
+            i += Character.charCount(cp);
+        }
+        return width * inFontSize / 1000f;
+    }
+
+    public float getHeight(float inFontSize) {
+        return toPdfUnits(bbox[3] - bbox[1]) * inFontSize / 1000f;
+    }
+
+    protected float toPdfUnits(int inFontUnits) {
+        return inFontUnits * 1000f / unitsPerEm;
+    }
+
+    /*
+     * ------------------------------------------------------------------
+     * Parsing
+     * ------------------------------------------------------------------
+     */
+    protected void parse() throws IOException {
+
+        if (data.length < 12) {
+            throw new IOException("Font " + name + ": File too small");
+        }
+        int version = s32(0);
+        if (version == 0x4F54544F) { // "OTTO"
+            throw new IOException("Font " + name
+                    + ": OpenType fonts with CFF outlines are not supported");
+        }
+        if (version != 0x00010000 && version != 0x74727565) { // "true"
+            throw new IOException("Font " + name
+                    + ": Not a TrueType font file");
+        }
+
+        int numTables = u16(4);
+        for (int i = 0; i < numTables; i++) {
+            int rec = 12 + i * 16;
+            String tag = new String(data, rec, 4, StandardCharsets.ISO_8859_1);
+            int offset = s32(rec + 8);
+            int length = s32(rec + 12);
+            if (offset < 0 || length < 0
+                    || (long) offset + length > data.length) {
+                throw new IOException("Font " + name + ": Invalid table "
+                        + tag);
+            }
+            tables.put(tag, new int[] { offset, length });
+        }
+
+        int head = table("head");
+        if (tables.get("head")[1] < 54) {
+            throw new IOException("Font " + name + ": Invalid head table");
+        }
+        unitsPerEm = u16(head + 18);
+        if (unitsPerEm < 16 || unitsPerEm > 16384) {
+            throw new IOException("Font " + name + ": Invalid unitsPerEm "
+                    + unitsPerEm);
+        }
+        for (int i = 0; i < 4; i++) {
+            bbox[i] = s16(head + 36 + i * 2);
+        }
+        boolean longLoca = s16(head + 50) == 1;
+
+        numGlyphs = u16(table("maxp") + 4);
+
+        int hhea = table("hhea");
+        ascent = s16(hhea + 4);
+        descent = s16(hhea + 6);
+        int numberOfHMetrics = u16(hhea + 34);
+
+        int hmtx = table("hmtx");
+        advanceWidths = new int[numGlyphs];
+        int lastAdvance = 0;
+        for (int i = 0; i < numGlyphs; i++) {
+            if (i < numberOfHMetrics) {
+                lastAdvance = u16(hmtx + i * 4);
+            }
+            advanceWidths[i] = lastAdvance;
+        }
+
+        int loca = table("loca");
+        glyfOffset = table("glyf");
+        glyphOffsets = new int[numGlyphs + 1];
+        for (int i = 0; i <= numGlyphs; i++) {
+            glyphOffsets[i] = longLoca ? s32(loca + i * 4)
+                    : u16(loca + i * 2) * 2;
+        }
+
+        parseCmap(table("cmap"));
+    }
+
+    protected int table(String inTag) throws IOException {
+
+        int[] t = tables.get(inTag);
+        if (t == null) {
+            throw new IOException("Font " + name + ": No " + inTag + " table");
+        }
+        return t[0];
+    }
+
+    protected void parseCmap(int inCmap) throws IOException {
+
+        // Prefer the full Unicode subtable (format 12), then the BMP one
+        int subtable = -1;
+        int numSubtables = u16(inCmap + 2);
+        for (int i = 0; i < numSubtables; i++) {
+            int rec = inCmap + 4 + i * 8;
+            int platform = u16(rec);
+            int encoding = u16(rec + 2);
+            int offset = inCmap + s32(rec + 4);
+            int format = u16(offset);
+            if (format == 12 && (platform == 0 || platform == 3)) {
+                subtable = offset;
+                break;
+            }
+            if (format == 4 && subtable < 0
+                    && (platform == 0 || (platform == 3 && encoding == 1))) {
+                subtable = offset;
+            }
+        }
+        if (subtable < 0) {
+            throw new IOException("Font " + name + ": No Unicode cmap");
+        }
+
+        IntList codes = new IntList();
+        IntList glyphs = new IntList();
+        if (u16(subtable) == 12) {
+            int nGroups = s32(subtable + 12);
+            for (int i = 0; i < nGroups; i++) {
+                int group = subtable + 16 + i * 12;
+                int start = s32(group);
+                int end = s32(group + 4);
+                int glyph = s32(group + 8);
+                if (start < 0 || end < start || end > Character.MAX_CODE_POINT) {
+                    throw new IOException("Font " + name
+                            + ": Invalid cmap group " + i);
+                }
+                for (int c = start; c <= end; c++) {
+                    codes.add(c);
+                    glyphs.add(glyph + c - start);
+                }
+            }
+        } else {
+            int segCount = u16(subtable + 6) / 2;
+            int endCodes = subtable + 14;
+            int startCodes = endCodes + segCount * 2 + 2;
+            int idDeltas = startCodes + segCount * 2;
+            int idRangeOffsets = idDeltas + segCount * 2;
+            for (int s = 0; s < segCount; s++) {
+                int start = u16(startCodes + s * 2);
+                int end = u16(endCodes + s * 2);
+                int delta = s16(idDeltas + s * 2);
+                int rangeOffsetPos = idRangeOffsets + s * 2;
+                int rangeOffset = u16(rangeOffsetPos);
+                for (int c = start; c <= end && c != 0xFFFF; c++) {
+                    int glyph;
+                    if (rangeOffset == 0) {
+                        glyph = (c + delta) & 0xFFFF;
+                    } else {
+                        int pos = rangeOffsetPos + rangeOffset + (c - start)
+                                * 2;
+                        glyph = u16(pos);
+                        if (glyph != 0) {
+                            glyph = (glyph + delta) & 0xFFFF;
+                        }
+                    }
+                    codes.add(c);
+                    glyphs.add(glyph);
+                }
+            }
+        }
+
+        cmapCodes = codes.toArray();
+        cmapGlyphs = glyphs.toArray();
+        for (int i = 0; i < cmapGlyphs.length; i++) {
+            if (cmapGlyphs[i] >= numGlyphs) {
+                cmapGlyphs[i] = 0;
+            }
+        }
+    }
+
+    protected int u16(int inPos) throws IOException {
+        checkPos(inPos, 2);
+        return ((data[inPos] & 0xFF) << 8) | (data[inPos + 1] & 0xFF);
+    }
+
+    protected int s16(int inPos) throws IOException {
+        return (short) u16(inPos);
+    }
+
+    protected int s32(int inPos) throws IOException {
+        checkPos(inPos, 4);
+        return ((data[inPos] & 0xFF) << 24) | ((data[inPos + 1] & 0xFF) << 16)
+                | ((data[inPos + 2] & 0xFF) << 8) | (data[inPos + 3] & 0xFF);
+    }
+
+    protected void checkPos(int inPos, int inLength) throws IOException {
+        if (inPos < 0 || inPos + inLength > data.length) {
+            throw new IOException("Font " + name + ": Invalid offset "
+                    + inPos);
+        }
+    }
+
+    /*
+     * ------------------------------------------------------------------
+     * Subsetting
+     * ------------------------------------------------------------------
+     */
+    /**
+     * Build a font file with the same tables and glyph ids, but where the
+     * glyphs not in <code>inGlyphs</code> (and not used by a composite glyph
+     * in <code>inGlyphs</code>) are empty. Unneeded tables are dropped.
+     *
+     * @param inGlyphs
+     * @return the bytes of the font file
+     * @throws IOException
+     */
+    public byte[] buildSubset(BitSet inGlyphs) throws IOException {
+
+        BitSet glyphs = (BitSet) inGlyphs.clone();
+        glyphs.set(0);
+        addComponents(glyphs);
+
+        // New glyf and loca (long format)
+        ByteArrayOutputStream glyf = new ByteArrayOutputStream();
+        byte[] loca = new byte[(numGlyphs + 1) * 4];
+        for (int g = 0; g < numGlyphs; g++) {
+            putS32(loca, g * 4, glyf.size());
+            if (glyphs.get(g)) {
+                int start = glyphOffsets[g];
+                int length = glyphOffsets[g + 1] - start;
+                if (length > 0) {
+                    checkPos(glyfOffset + start, length);
+                    glyf.write(data, glyfOffset + start, length);
+                    while (glyf.size() % 4 != 0) {
+                        glyf.write(0);
+                    }
+                }
+            }
+        }
+        putS32(loca, numGlyphs * 4, glyf.size());
+
+        Map<String, byte[]> newTables = new TreeMap<String, byte[]>();
+        for (String tag : EMBEDDED_TABLES) {
+            int[] t = tables.get(tag);
+            if (t == null) {
+                continue;
+            }
+            if ("glyf".equals(tag)) {
+                newTables.put(tag, glyf.toByteArray());
+            } else if ("loca".equals(tag)) {
+                newTables.put(tag, loca);
+            } else {
+                newTables.put(tag, Arrays.copyOfRange(data, t[0], t[0] + t[1]));
+            }
+        }
+        byte[] head = newTables.get("head");
+        putS32(head, 8, 0); // checkSumAdjustment
+        head[50] = 0;
+        head[51] = 1; // indexToLocFormat: long
+
+        return writeFontFile(newTables);
+    }
+
+    protected void addComponents(BitSet inGlyphs) throws IOException {
+
+        // Components can be composite glyphs too
+        BitSet toCheck = (BitSet) inGlyphs.clone();
+        while (!toCheck.isEmpty()) {
+            BitSet added = new BitSet();
+            for (int g = toCheck.nextSetBit(0); g >= 0; g = toCheck.nextSetBit(g + 1)) {
+                int start = glyfOffset + glyphOffsets[g];
+                if (glyphOffsets[g + 1] - glyphOffsets[g] <= 0
+                        || s16(start) >= 0) {
+                    continue;
+                }
+                int pos = start + 10;
+                int flags;
+                do {
+                    flags = u16(pos);
+                    int component = u16(pos + 2);
+                    if (component < numGlyphs && !inGlyphs.get(component)) {
+                        inGlyphs.set(component);
+                        added.set(component);
+                    }
+                    pos += 4;
+                    pos += (flags & 0x0001) != 0 ? 4 : 2; // ARG_1_AND_2_ARE_WORDS
+                    if ((flags & 0x0008) != 0) { // WE_HAVE_A_SCALE
+                        pos += 2;
+                    } else if ((flags & 0x0040) != 0) { // X_AND_Y_SCALE
+                        pos += 4;
+                    } else if ((flags & 0x0080) != 0) { // TWO_BY_TWO
+                        pos += 8;
+                    }
+                } while ((flags & 0x0020) != 0); // MORE_COMPONENTS
+            }
+            toCheck = added;
+        }
+    }
+
+    protected static byte[] writeFontFile(Map<String, byte[]> inTables) {
+
+        int numTables = inTables.size();
+        int entrySelector = 0;
+        while ((1 << (entrySelector + 1)) <= numTables) {
+            entrySelector += 1;
+        }
+        int searchRange = (1 << entrySelector) * 16;
+
+        int size = 12 + numTables * 16;
+        for (byte[] t : inTables.values()) {
+            size += (t.length + 3) & ~3;
+        }
+        byte[] out = new byte[size];
+
+        putS32(out, 0, 0x00010000);
+        putU16(out, 4, numTables);
+        putU16(out, 6, searchRange);
+        putU16(out, 8, entrySelector);
+        putU16(out, 10, numTables * 16 - searchRange);
+
+        // The map is sorted by tag, as required
+        int rec = 12;
+        int offset = 12 + numTables * 16;
+        int headOffset = -1;
+        for (Map.Entry<String, byte[]> entry : inTables.entrySet()) {
+            byte[] t = entry.getValue();
+            System.arraycopy(t, 0, out, offset, t.length);
+            byte[] tag = entry.getKey().getBytes(StandardCharsets.ISO_8859_1);
+            System.arraycopy(tag, 0, out, rec, 4);
+            putS32(out, rec + 4, checksum(out, offset, t.length));
+            putS32(out, rec + 8, offset);
+            putS32(out, rec + 12, t.length);
+            if ("head".equals(entry.getKey())) {
+                headOffset = offset;
+            }
+            rec += 16;
+            offset += (t.length + 3) & ~3;
+        }
+
+        if (headOffset > -1) {
+            putS32(out, headOffset + 8,
+                    0xB1B0AFBA - checksum(out, 0, out.length));
+        }
+        return out;
+    }
+
+    protected static int checksum(byte[] inData, int inOffset, int inLength) {
+
+        int sum = 0;
+        int end = inOffset + ((inLength + 3) & ~3);
+        for (int i = inOffset; i < end; i += 4) {
+            sum += ((inData[i] & 0xFF) << 24) | ((inData[i + 1] & 0xFF) << 16)
+                    | ((inData[i + 2] & 0xFF) << 8) | (inData[i + 3] & 0xFF);
+        }
+        return sum;
+    }
+
+    protected static void putU16(byte[] inData, int inPos, int inValue) {
+        inData[inPos] = (byte) (inValue >> 8);
+        inData[inPos + 1] = (byte) inValue;
+    }
+
+    protected static void putS32(byte[] inData, int inPos, int inValue) {
+        inData[inPos] = (byte) (inValue >> 24);
+        inData[inPos + 1] = (byte) (inValue >> 16);
+        inData[inPos + 2] = (byte) (inValue >> 8);
+        inData[inPos + 3] = (byte) inValue;
+    }
+
+    /*
+     * Same as String.format("%04X", inValue) for 0 <= inValue <= 0xFFFF
+     */
+    protected static void appendHex4(StringBuilder inSb, int inValue) {
+        inSb.append(HEX_DIGITS[(inValue >> 12) & 0xF]);
+        inSb.append(HEX_DIGITS[(inValue >> 8) & 0xF]);
+        inSb.append(HEX_DIGITS[(inValue >> 4) & 0xF]);
+        inSb.append(HEX_DIGITS[inValue & 0xF]);
+    }
+
+    protected static class IntList {
+
+        protected int[] values = new int[256];
+
+        protected int size = 0;
+
+        public void add(int inValue) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = inValue;
+        }
+
+        public int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * The font embedded in one document. Not thread safe, as the document.
+     */
+    public class Subset extends PDFTextFont {
+
+        protected PDDocument pdfDoc;
+
+        protected BitSet usedGlyphs = new BitSet();
+
+        protected Map<Integer, Integer> unicodes = new TreeMap<Integer, Integer>();
+
+        protected COSDictionary type0Font;
+
+        protected COSDictionary cidFont;
+
+        protected COSDictionary descriptor;
+
+        protected boolean changed = true;
+
+        protected Subset(PDDocument inPdfDoc) {
+
+            pdfDoc = inPdfDoc;
+
+            float scale = 1000f / unitsPerEm;
+            descriptor = new COSDictionary();
+            descriptor.setItem(COSName.TYPE, COSName.FONT_DESC);
+            descriptor.setInt(COSName.FLAGS, 4); // Symbolic
+            COSArray fontBBox = new COSArray();
+            for (int i = 0; i < 4; i++) {
+                fontBBox.add(COSInteger.get(Math.round(bbox[i] * scale)));
+            }
+            descriptor.setItem(COSName.FONT_BBOX, fontBBox);
+            descriptor.setInt(COSName.ITALIC_ANGLE, 0);
+            descriptor.setInt(COSName.ASCENT, Math.round(ascent * scale));
+            descriptor.setInt(COSName.DESCENT, Math.round(descent * scale));
+            descriptor.setInt(COSName.CAP_HEIGHT, Math.round(ascent * scale));
+            descriptor.setInt(COSName.STEM_V, 80);
+
+            COSDictionary systemInfo = new COSDictionary();
+            systemInfo.setString(COSName.REGISTRY, "Adobe");
+            systemInfo.setString(COSName.ORDERING, "Identity");
+            systemInfo.setInt(COSName.SUPPLEMENT, 0);
+
+            cidFont = new COSDictionary();
+            cidFont.setItem(COSName.TYPE, COSName.FONT);
+            cidFont.setItem(COSName.SUBTYPE, COSName.CID_FONT_TYPE2);
+            cidFont.setItem(COSName.CIDSYSTEMINFO, systemInfo);
+            cidFont.setItem(COSName.FONT_DESC, descriptor);
+            cidFont.setItem(COSName.CID_TO_GID_MAP, COSName.IDENTITY);
+            cidFont.setInt(COSName.DW, Math.round(getWidth(0)));
+
+            COSArray descendants = new COSArray();
+            descendants.add(cidFont);
+
+            type0Font = new COSDictionary();
+            type0Font.setItem(COSName.TYPE, COSName.FONT);
+            type0Font.setItem(COSName.SUBTYPE, COSName.TYPE0);
+            type0Font.setItem(COSName.ENCODING, COSName.IDENTITY_H);
+            type0Font.setItem(COSName.DESCENDANT_FONTS, descendants);
+
+            setBaseFont(name);
+        }
+
+        public PDFEmbeddedFont getFont() {
+            return PDFEmbeddedFont.this;
+        }
+
+        @Override
+        public String getResourcePrefix() {
+            return EMBEDDED_FONT_NAME_PREFIX;
+        }
+
+        @Override
+        public COSBase getFontObject() {
+            return type0Font;
+        }
+
+        @Override
+        public float getStringWidth(String inText, float inFontSize) {
+            return PDFEmbeddedFont.this.getStringWidth(inText, inFontSize);
+        }
+
+        @Override
+        public float getHeight(float inFontSize) {
+            return PDFEmbeddedFont.this.getHeight(inFontSize);
+        }
+
+        /**
+         * Write the glyph ids as a hexadecimal string, and add the glyphs to
+         * the subset.
+         */
+        @Override
+        public void writeText(String inText, OutputStream inOut)
+                throws IOException {
+
+            StringBuilder sb = new StringBuilder(inText.length() * 4 + 2);
+            sb.append('<');
+            for (int i = 0; i < inText.length();) {
+                int cp = inText.codePointAt(i);
+                int glyph = getGlyphId(cp);
+                if (!usedGlyphs.get(glyph)) {
+                    usedGlyphs.set(glyph);
+                    changed = true;
+                }
+                if (glyph != 0 && !unicodes.containsKey(glyph)) {
+                    unicodes.put(glyph, cp);
+                }
+                appendHex4(sb, glyph);
+                i += Character.charCount(cp);
+            }
+            sb.append('>');
+            inOut.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        /**
+         * Write (or write again, if glyphs were added since the last call)
+         * the font file, the widths and the ToUnicode map.
+         */
+        @Override
+        public void finish() throws IOException {
+
+            if (!changed) {
+                return;
+            }
+            changed = false;
+
+            byte[] fontFile = buildSubset(usedGlyphs);
+            COSStream fontStream = createStream(fontFile);
+            fontStream.setInt(COSName.LENGTH1, fontFile.length);
+            descriptor.setItem(COSName.FONT_FILE2, fontStream);
+
+            COSArray widths = new COSArray();
+            for (int g = usedGlyphs.nextSetBit(0); g >= 0; g = usedGlyphs.nextSetBit(g + 1)) {
+                COSArray w = new COSArray();
+                w.add(COSInteger.get(Math.round(getWidth(g))));
+                widths.add(COSInteger.get(g));
+                widths.add(w);
+            }
+            cidFont.setItem(COSName.W, widths);
+
+            type0Font.setItem(COSName.TO_UNICODE,
+                    createStream(buildToUnicode()));
+
+            setBaseFont(buildSubsetTag() + "+" + name);
+        }
+
+        protected void setBaseFont(String inName) {
+
+            COSName baseFont = COSName.getPDFName(inName.replace(' ', '-'));
+            type0Font.setItem(COSName.BASE_FONT, baseFont);
+            cidFont.setItem(COSName.BASE_FONT, baseFont);
+            descriptor.setItem(COSName.FONT_NAME, baseFont);
+        }
+
+        /*
+         * Six uppercase letters, depending on the glyphs, so two different
+         * subsets of the same font in a document have different names
+         */
+        protected String buildSubsetTag() {
+
+            long hash = usedGlyphs.hashCode() & 0xFFFFFFFFL;
+            hash = hash * 31 + name.hashCode();
+            hash &= Long.MAX_VALUE;
+            StringBuilder sb = new StringBuilder(6);
+            for (int i = 0; i < 6; i++) {
+                sb.append((char) ('A' + hash % 26));
+                hash /= 26;
+            }
+            return sb.toString();
+        }
+
+        protected byte[] buildToUnicode() {
+
+            StringBuilder sb = new StringBuilder(512 + unicodes.size() * 20);
+            sb.append("/CIDInit /ProcSet findresource begin\n");
+            sb.append("12 dict begin\nbegincmap\n");
+            sb.append("/CIDSystemInfo << /Registry (Adobe) /Ordering (UCS) /Supplement 0 >> def\n");
+            sb.append("/CMapName /Adobe-Identity-UCS def\n/CMapType 2 def\n");
+            sb.append("1 begincodespacerange\n<0000> <FFFF>\nendcodespacerange\n");
+
+            // 100 entries max. per block
+            int inBlock = 0;
+            StringBuilder block = new StringBuilder();
+            for (Map.Entry<Integer, Integer> entry : unicodes.entrySet()) {
+                block.append('<');
+                appendHex4(block, entry.getKey());
+                block.append("> <");
+                for (char c : Character.toChars(entry.getValue())) {
+                    appendHex4(block, c);
+                }
+                block.append(">\n");
+                inBlock += 1;
+                if (inBlock == 100) {
+                    appendBfChars(sb, inBlock, block);
+                    inBlock = 0;
+                    block.setLength(0);
+                }
+            }
+            if (inBlock > 0) {
+                appendBfChars(sb, inBlock, block);
+            }
+
+            sb.append("endcmap\nCMapName currentdict /CMap defineresource pop\nend\nend\n");
+            return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        protected void appendBfChars(StringBuilder inSb, int inCount,
+                StringBuilder inBlock) {
+            inSb.append(inCount).append(" beginbfchar\n");
+            inSb.append(inBlock);
+            inSb.append("endbfchar\n");
+        }
+
+        protected COSStream createStream(byte[] inData) throws IOException {
+
+            COSStream stream = new COSStream(
+                    pdfDoc.getDocument().getScratchFile());
+            stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+            OutputStream out = stream.createUnfilteredStream();
+            try {
+                out.write(inData);
+            } finally {
+                out.close();
+            }
+            return stream;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDPixelMap;
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * An image already encoded as a PDF image XObject: The compressed bytes of the
+ * stream and the entries of its dictionary (including its soft mask, if any).
+ * It can then be copied in any PDF without decoding and compressing the image
+ * again.
+ * <p>
+ * <code>get()</code> keeps the encoded images in a cache keyed by the digest
+ * of the image blob, configured with the
+ * <code>nuxeo.pdfutils.image.cache.maxEntries</code>,
+ * <code>nuxeo.pdfutils.image.cache.maxSize</code> (bytes) and
+ * <code>nuxeo.pdfutils.image.cache.ttl</code> (seconds) properties. A blob
+ * without a digest is encoded at each call.
+ * <p>
+ * Instances are immutable, they can be used by several threads.
+ *
+ * @since 7.2
+ */
+public class PDFEncodedImage {
+
+    public static final String CACHE_PROPERTY_PREFIX = "nuxeo.pdfutils.image.cache";
+
+    public static final int DEFAULT_CACHE_MAX_ENTRIES = 50;
+
+    public static final long DEFAULT_CACHE_MAX_SIZE = 20 * 1024 * 1024;
+
+    public static final long DEFAULT_CACHE_TTL = 3600;
+
+    protected static PDFCache<String, PDFEncodedImage> imageCache;
+
+    protected byte[] data;
+
+    protected Map<COSName, COSBase> entries = new HashMap<COSName, COSBase>();
+
+    protected Map<COSName, PDFEncodedImage> streamEntries = new HashMap<COSName, PDFEncodedImage>();
+
+    protected int width;
+
+    protected int height;
+
+    protected PDFEncodedImage() {
+
+    }
+
+    /**
+     * Return the encoded image, from the cache if the blob has a digest and
+     * was already encoded.
+     *
+     * @param inImage
+     * @return the encoded image
+     * @throws IOException
+     */
+    public static PDFEncodedImage get(Blob inImage) throws IOException {
+
+        String digest = inImage.getDigest();
+        if (digest == null || digest.isEmpty()) {
+            return encode(inImage);
+        }
+
+        PDFCache<String, PDFEncodedImage> cache = getCache();
+        PDFEncodedImage image = cache.get(digest);
+        if (image == null) {
+            image = encode(inImage);
+            cache.put(digest, image, image.getSize());
+        }
+        return image;
+    }
+
+    /**
+     * Decode the image and encode it as a PDF image XObject, in a scratch
+     * document.
+     *
+     * @param inImage
+     * @return the encoded image
+     * @throws IOException
+     */
+    public static PDFEncodedImage encode(Blob inImage) throws IOException {
+
+        BufferedImage bufferedImage;
+        InputStream in = inImage.getStream();
+        try {
+            bufferedImage = ImageIO.read(in);
+        } finally {
+            in.close();
+        }
+        if (bufferedImage == null) {
+            throw new IOException("Cannot read the image "
+                    + inImage.getFilename());
+        }
+
+        PDDocument scratchDoc = new PDDocument();
+        try {
+            PDPixelMap pixelMap = new PDPixelMap(scratchDoc, bufferedImage);
+            return fromStream(pixelMap.getCOSStream());
+        } finally {
+            PDFUtils.closeSilently(scratchDoc);
+        }
+    }
+
+    protected static PDFEncodedImage fromStream(COSStream inStream)
+            throws IOException {
+
+        PDFEncodedImage image = new PDFEncodedImage();
+
+        image.width = inStream.getInt(COSName.WIDTH);
+        image.height = inStream.getInt(COSName.HEIGHT);
+
+        for (COSName key : inStream.keySet()) {
+            if (COSName.LENGTH.equals(key)) {
+                continue;
+            }
+            COSBase value = inStream.getDictionaryObject(key);
+            if (value instanceof COSStream) {
+                image.streamEntries.put(key, fromStream((COSStream) value));
+            } else {
+                image.entries.put(key, copy(value));
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = inStream.getFilteredStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        image.data = bytes.toByteArray();
+
+        return image;
+    }
+
+    /*
+     * Deep copy of the arrays and dictionaries, so a document never shares
+     * (and never modifies) a value used by another one. Other values (names,
+     * numbers, ...) are not modified when a document is saved.
+     */
+    protected static COSBase copy(COSBase inValue) throws IOException {
+
+        if (inValue instanceof COSObject) {
+            inValue = ((COSObject) inValue).getObject();
+        }
+
+        if (inValue instanceof COSStream) {
+            throw new IOException(
+                    "Streams are only supported as direct entries of the image dictionary");
+        }
+
+        if (inValue instanceof COSArray) {
+            COSArray array = (COSArray) inValue;
+            COSArray result = new COSArray();
+            for (int i = 0; i < array.size(); i++) {
+                result.add(copy(array.get(i)));
+            }
+            return result;
+        }
+
+        if (inValue instanceof COSDictionary) {
+            COSDictionary dict = (COSDictionary) inValue;
+            COSDictionary result = new COSDictionary();
+            for (COSName key : dict.keySet()) {
+                result.setItem(key, copy(dict.getItem(key)));
+            }
+            return result;
+        }
+
+        return inValue;
+    }
+
+    /**
+     * Create the image XObject in <code>inPdfDoc</code>, copying the already
+     * compressed bytes.
+     *
+     * @param inPdfDoc
+     * @return the image XObject stream
+     * @throws IOException
+     */
+    public COSStream createStream(PDDocument inPdfDoc) throws IOException {
+
+        COSStream stream = new COSStream(inPdfDoc.getDocument().getScratchFile());
+
+        for (Map.Entry<COSName, COSBase> entry : entries.entrySet()) {
+            stream.setItem(entry.getKey(), copy(entry.getValue()));
+        }
+        for (Map.Entry<COSName, PDFEncodedImage> entry : streamEntries.entrySet()) {
+            stream.setItem(entry.getKey(),
+                    entry.getValue().createStream(inPdfDoc));
+        }
+
+        OutputStream out = stream.createFilteredStream();
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        return stream;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Approximate size in memory (the bytes of the image and of its soft mask)
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+
+        long size = 256 + data.length;
+        for (PDFEncodedImage image : streamEntries.values()) {
+            size += image.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Return the cache shared by all the callers of <code>get()</code>.
+     */
+    public static synchronized PDFCache<String, PDFEncodedImage> getCache() {
+
+        if (imageCache == null) {
+            imageCache = PDFCache.fromConfiguration(CACHE_PROPERTY_PREFIX,
+                    DEFAULT_CACHE_MAX_ENTRIES, DEFAULT_CACHE_MAX_SIZE,
+                    DEFAULT_CACHE_TTL);
+        }
+        return imageCache;
+    }
+
+    /**
+     * Drop the cache. Next call to <code>getCache()</code> creates a new one,
+     * reading the configuration again.
+     */
+    public static synchronized void resetCache() {
+        imageCache = null;
+    }
+}
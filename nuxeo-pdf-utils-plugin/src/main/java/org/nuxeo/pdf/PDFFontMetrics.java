@@ -0,0 +1,157 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+/**
+ * The metrics of a Type 1 font, computed once: The width of the 256
+ * character codes (in a <code>float[]</code>, in 1/1000 of the font size) and
+ * the height of the bounding box of the font.
+ * <p>
+ * Computing the width of a Latin-1 string (page numbers, most watermarks) is
+ * then a loop over an array, without any allocation. This gives the same
+ * result as <code>PDFont#getStringWidth()</code>, which measures the
+ * ISO-8859-1 bytes of the string. Other strings are measured by the font
+ * itself.
+ * <p>
+ * Only the metrics are shared, not the font: A <code>PDFont</code> wraps a
+ * <code>COSDictionary</code> which is written in the document using it, so
+ * each document gets its own font from <code>newFont()</code>.
+ * <p>
+ * <code>get()</code> keeps one instance per standard font name (there are 14
+ * of them), for the life of the JVM. Instances are immutable and can be used
+ * by several threads.
+ *
+ * @since 7.2
+ */
+public class PDFFontMetrics {
+
+    public static final String DEFAULT_FONT_NAME = "Helvetica";
+
+    protected static final int CODE_COUNT = 256;
+
+    protected static final ConcurrentMap<String, PDFFontMetrics> metricsByName = new ConcurrentHashMap<String, PDFFontMetrics>();
+
+    protected final String fontName;
+
+    protected final float[] codeWidths = new float[CODE_COUNT];
+
+    protected final float boundingBoxHeight;
+
+    protected PDFFontMetrics(String inFontName) throws IOException {
+
+        fontName = inFontName;
+
+        PDFont font = newFont();
+        byte[] code = new byte[1];
+        for (int i = 0; i < CODE_COUNT; i++) {
+            code[0] = (byte) i;
+            codeWidths[i] = font.getFontWidth(code, 0, 1);
+        }
+
+        PDFontDescriptor descriptor = font.getFontDescriptor();
+        boundingBoxHeight = descriptor == null
+                || descriptor.getFontBoundingBox() == null ? 0
+                : descriptor.getFontBoundingBox().getHeight();
+    }
+
+    /**
+     * Return the metrics of the standard Type 1 font named
+     * <code>inFontName</code>. If it is not a standard font, a Type 1 font
+     * with this name is used, and its metrics are not kept (every call
+     * computes them again). If <code>inFontName</code> is null or "", it is
+     * set to <code>DEFAULT_FONT_NAME</code>.
+     *
+     * @param inFontName
+     * @return the metrics
+     * @throws IOException
+     */
+    public static PDFFontMetrics get(String inFontName) throws IOException {
+
+        String name = inFontName == null || inFontName.isEmpty() ? DEFAULT_FONT_NAME
+                : inFontName;
+
+        if (PDType1Font.getStandardFont(name) == null) {
+            return new PDFFontMetrics(name);
+        }
+
+        PDFFontMetrics metrics = metricsByName.get(name);
+        if (metrics == null) {
+            metrics = new PDFFontMetrics(name);
+            PDFFontMetrics previous = metricsByName.putIfAbsent(name, metrics);
+            if (previous != null) {
+                metrics = previous;
+            }
+        }
+        return metrics;
+    }
+
+    public String getFontName() {
+        return fontName;
+    }
+
+    /**
+     * Return a new font object, to be used in one document only.
+     *
+     * @return the font
+     */
+    public PDFont newFont() {
+        return new PDType1Font(fontName);
+    }
+
+    /**
+     * Return the width of <code>inText</code> drawn with a font of
+     * <code>inFontSize</code>.
+     *
+     * @param inText
+     * @param inFontSize
+     * @return the width, in the unit of the font size
+     * @throws IOException
+     */
+    public float getStringWidth(String inText, float inFontSize)
+            throws IOException {
+
+        float width = 0;
+        int max = inText.length();
+        for (int i = 0; i < max; i++) {
+            char c = inText.charAt(i);
+            if (c >= CODE_COUNT) {
+                return newFont().getStringWidth(inText) * inFontSize / 1000f;
+            }
+            width += codeWidths[c];
+        }
+        return width * inFontSize / 1000f;
+    }
+
+    /**
+     * Return the height of the bounding box of the font for a font of
+     * <code>inFontSize</code>.
+     *
+     * @param inFontSize
+     * @return the height, in the unit of the font size
+     */
+    public float getHeight(float inFontSize) {
+        return boundingBoxHeight * inFontSize / 1000f;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.ComponentInstance;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Limits the number of heavy PDF operations running at the same time, so a
+ * burst of operations (bulk actions, ...) does not exhaust the memory of the
+ * server.
+ * <p>
+ * Each operation asks for a weight, its estimated memory in MB: The size of
+ * its input PDFs multiplied by <code>memoryFactor</code> (min. 1MB, max.
+ * <code>maxMemoryMB</code> so a very big PDF can still run, alone). The
+ * operation waits until the total weight of the running operations leaves
+ * room for it. Waiting operations are served in arrival order; after
+ * <code>timeoutSeconds</code>, the operation fails.
+ * <p>
+ * Typical use (all the operations of <code>org.nuxeo.pdf.operations</code> do
+ * this):
+ *
+ * <pre>
+ * PDFGovernor.Permit permit = PDFGovernor.enter(ID, inBlob);
+ * try {
+ *     ...
+ * } finally {
+ *     permit.release();
+ * }
+ * </pre>
+ *
+ * Metrics: <code>nuxeo.pdfutils.governor.wait</code> (timer),
+ * <code>nuxeo.pdfutils.governor.timeouts</code> and
+ * <code>nuxeo.pdfutils.governor.runningMB</code> (counters).
+ * <p>
+ * The configuration is contributed to the <code>governor</code> extension
+ * point (see <code>PDFGovernorDescriptor</code>).
+ *
+ * @since 7.2
+ */
+public class PDFGovernor extends DefaultComponent {
+
+    private static Log log = LogFactory.getLog(PDFGovernor.class);
+
+    public static final String EXTENSION_POINT = "governor";
+
+    protected static final long MB = 1024 * 1024;
+
+    protected PDFGovernorDescriptor config;
+
+    protected Semaphore semaphore;
+
+    /**
+     * Returned by <code>enter()</code>, must be released once the operation
+     * is done. Releasing it several times is harmless.
+     */
+    public static class Permit {
+
+        protected Semaphore semaphore;
+
+        protected int weight;
+
+        protected Permit(Semaphore inSemaphore, int inWeight) {
+            semaphore = inSemaphore;
+            weight = inWeight;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public synchronized void release() {
+            if (semaphore != null) {
+                semaphore.release(weight);
+                semaphore = null;
+                PDFMetrics.getRegistry().counter(metricName("runningMB")).dec(
+                        weight);
+            }
+        }
+    }
+
+    @Override
+    public void activate(ComponentContext inContext) {
+        configure(new PDFGovernorDescriptor());
+    }
+
+    @Override
+    public void registerContribution(Object inContribution,
+            String inExtensionPoint, ComponentInstance inContributor) {
+        if (EXTENSION_POINT.equals(inExtensionPoint)) {
+            configure((PDFGovernorDescriptor) inContribution);
+        }
+    }
+
+    @Override
+    public void unregisterContribution(Object inContribution,
+            String inExtensionPoint, ComponentInstance inContributor) {
+        if (EXTENSION_POINT.equals(inExtensionPoint)) {
+            configure(new PDFGovernorDescriptor());
+        }
+    }
+
+    /*
+     * Permits already given keep a reference to their semaphore, so they are
+     * released to it even if the configuration changed meanwhile.
+     */
+    protected synchronized void configure(PDFGovernorDescriptor inConfig) {
+        config = inConfig;
+        semaphore = new Semaphore(
+                (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                        inConfig.getMaxMemoryMB())), true);
+    }
+
+    public synchronized PDFGovernorDescriptor getConfiguration() {
+        return config;
+    }
+
+    protected static String metricName(String inMetric) {
+        return PDFMetrics.name("governor", inMetric);
+    }
+
+    /**
+     * Return the weight (estimated memory, in MB) of an operation whose
+     * input is <code>inInputBytes</code>.
+     *
+     * @param inInputBytes size of the input, < 0 if unknown
+     * @return the weight
+     */
+    public int getWeight(long inInputBytes) {
+
+        PDFGovernorDescriptor theConfig = getConfiguration();
+        double estimated = Math.max(inInputBytes, 0)
+                * theConfig.getMemoryFactor() / MB;
+        return (int) Math.max(1,
+                Math.min(Math.ceil(estimated), theConfig.getMaxMemoryMB()));
+    }
+
+    /**
+     * Wait for enough room to run the operation, or fail after the timeout.
+     *
+     * @param inOperation used in the error message
+     * @param inInputBytes size of the input, < 0 if unknown
+     * @return the permit to release once done
+     * @throws ClientException on timeout or if the thread is interrupted
+     */
+    public Permit acquire(String inOperation, long inInputBytes)
+            throws ClientException {
+
+        Semaphore theSemaphore;
+        PDFGovernorDescriptor theConfig;
+        synchronized (this) {
+            theSemaphore = semaphore;
+            theConfig = config;
+        }
+        if (!theConfig.isEnabled()) {
+            return new Permit(null, 0);
+        }
+
+        int weight = getWeight(inInputBytes);
+        MetricRegistry registry = PDFMetrics.getRegistry();
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = theSemaphore.tryAcquire(weight,
+                    theConfig.getTimeoutSeconds(), TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException(e);
+        } finally {
+            registry.timer(metricName("wait")).update(
+                    System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        if (!acquired) {
+            registry.counter(metricName("timeouts")).inc();
+            throw new ClientException(inOperation
+                    + ": Too many PDF operations running, timeout after "
+                    + theConfig.getTimeoutSeconds() + "s waiting for "
+                    + weight + "MB");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(inOperation + ": acquired " + weight + "MB");
+        }
+        registry.counter(metricName("runningMB")).inc(weight);
+
+        return new Permit(theSemaphore, weight);
+    }
+
+    /**
+     * Return the size of the blobs (null blobs and blobs of unknown size are
+     * ignored)
+     */
+    public static long getSize(Collection<Blob> inBlobs) {
+
+        long size = 0;
+        for (Blob b : inBlobs) {
+            if (b != null && b.getLength() > 0) {
+                size += b.getLength();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Shortcut: Get the service and acquire a permit for the blobs. When the
+     * service is not deployed, nothing is limited.
+     *
+     * @param inOperation
+     * @param inBlobs
+     * @return the permit to release once done
+     * @throws ClientException
+     */
+    public static Permit enter(String inOperation, Blob... inBlobs)
+            throws ClientException {
+        return enter(inOperation, Arrays.asList(inBlobs));
+    }
+
+    public static Permit enter(String inOperation, Collection<Blob> inBlobs)
+            throws ClientException {
+
+        PDFGovernor governor = Framework.getLocalService(PDFGovernor.class);
+        if (governor == null) {
+            return new Permit(null, 0);
+        }
+        return governor.acquire(inOperation, getSize(inBlobs));
+    }
+}
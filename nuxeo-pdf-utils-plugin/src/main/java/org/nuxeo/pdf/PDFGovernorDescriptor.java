@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Configuration of the <code>PDFGovernor</code>, contributed to its
+ * <code>governor</code> extension point:
+ *
+ * <pre>
+ * &lt;governor enabled="true"&gt;
+ *   &lt;maxMemoryMB&gt;512&lt;/maxMemoryMB&gt;
+ *   &lt;memoryFactor&gt;4&lt;/memoryFactor&gt;
+ *   &lt;timeoutSeconds&gt;300&lt;/timeoutSeconds&gt;
+ * &lt;/governor&gt;
+ * </pre>
+ *
+ * @since 7.2
+ */
+@XObject("governor")
+public class PDFGovernorDescriptor {
+
+    public static final long DEFAULT_MAX_MEMORY_MB = 512;
+
+    public static final double DEFAULT_MEMORY_FACTOR = 4;
+
+    public static final long DEFAULT_TIMEOUT_SECONDS = 300;
+
+    @XNode("@enabled")
+    protected boolean enabled = true;
+
+    @XNode("maxMemoryMB")
+    protected long maxMemoryMB = DEFAULT_MAX_MEMORY_MB;
+
+    @XNode("memoryFactor")
+    protected double memoryFactor = DEFAULT_MEMORY_FACTOR;
+
+    @XNode("timeoutSeconds")
+    protected long timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Total estimated memory (in MB) that the running operations can use
+     */
+    public long getMaxMemoryMB() {
+        return maxMemoryMB;
+    }
+
+    /**
+     * The memory used by an operation is estimated as the size of its input
+     * PDFs multiplied by this factor
+     */
+    public double getMemoryFactor() {
+        return memoryFactor;
+    }
+
+    /**
+     * Max. time an operation waits for its turn before failing
+     */
+    public long getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+}
@@ -21,13 +21,27 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.text.SimpleDateFormat;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.List;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.exceptions.CryptographyException;
+import org.apache.pdfbox.pdfparser.NonSequentialPDFParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
 import org.apache.pdfbox.pdmodel.PDDocumentInformation;
@@ -41,6 +55,8 @@ import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.platform.picture.api.BlobHelper;
+import org.nuxeo.pdf.PDFMetrics.PHASE;
+import org.nuxeo.runtime.api.Framework;
 
 /**
  * The class will parse the info embedded in a PDF, and return them either
@@ -53,11 +69,46 @@ import org.nuxeo.ecm.platform.picture.api.BlobHelper;
  * About page sizes, see http://www.prepressure.com/pdf/basics/page-boxes for
  * details. Here, we get the info from the first page only. The dimensions are
  * in points. Divide by 72 to get it in inches.
+ * <p>
+ * The parsed values are also kept in a cache shared by all the PDFInfo
+ * objects, keyed by the digest of the blob, the XMP flag, the password and
+ * the parsing mode.
+ * So parsing again the same binary (new version, proxy, ...) does not load
+ * the PDF. The cache is configured with the
+ * <code>nuxeo.pdfutils.info.cache.maxEntries</code>,
+ * <code>nuxeo.pdfutils.info.cache.maxSize</code> (bytes) and
+ * <code>nuxeo.pdfutils.info.cache.ttl</code> (seconds) properties. Set
+ * <code>maxEntries</code> to 0 to disable it.
+ * <p>
+ * In lightweight mode (<code>setLightweightMode()</code>, or
+ * <code>nuxeo.pdfutils.info.lightweight=true</code> in the configuration), a
+ * PDF stored in a file is opened with the minimal catalog parsing of the
+ * PDFBox non sequential parser: It reads the cross reference table, the
+ * trailer and the catalog, and then only the objects actually needed: The
+ * info dictionary, the <code>/Count</code> of the page tree root, the nodes on
+ * the path to the first page and its boxes (and the XMP stream if asked).
+ * The other pages and all the content streams are never read. A PDF not
+ * stored in a file is parsed the default way (the non sequential parser would
+ * first copy it to a temporary file).
  *
  * @since 5.9.6
  */
 public class PDFInfo {
 
+    private static Log log = LogFactory.getLog(PDFInfo.class);
+
+    public static final String LIGHTWEIGHT_PROPERTY = "nuxeo.pdfutils.info.lightweight";
+
+    public static final String CACHE_PROPERTY_PREFIX = "nuxeo.pdfutils.info.cache";
+
+    public static final int DEFAULT_CACHE_MAX_ENTRIES = 1000;
+
+    public static final long DEFAULT_CACHE_MAX_SIZE = 10 * 1024 * 1024;
+
+    public static final long DEFAULT_CACHE_TTL = 3600;
+
+    protected static PDFCache<String, PDFInfo> infoCache;
+
     protected Blob pdfBlob;
 
     protected PDDocument pdfDoc;
@@ -106,6 +157,9 @@ public class PDFInfo {
 
     protected boolean alreadyParsed = false;
 
+    protected boolean lightweightMode = Boolean.parseBoolean(Framework.getProperty(
+            LIGHTWEIGHT_PROPERTY, "false"));
+
     // LinkedHashMap just because wanted to keep the order
     // (nothing requested, really)
     protected LinkedHashMap<String, String> cachedMap;
@@ -178,6 +232,30 @@ public class PDFInfo {
         doXMP = inValue;
     }
 
+    /**
+     * If set to true, only the objects needed to get the info are parsed (see
+     * the class documentation). Default value is read from the
+     * <code>nuxeo.pdfutils.info.lightweight</code> configuration property.
+     * <p>
+     * The value cannot be modified if <code>run()</code> already has been
+     * called.
+     *
+     * @param inValue
+     *
+     * @since 7.2
+     */
+    public void setLightweightMode(boolean inValue) {
+        if (alreadyParsed && lightweightMode != inValue) {
+            throw new ClientException(
+                    "Value of 'lightweightMode' cannot be modified after the blob has been already parsed.");
+        }
+        lightweightMode = inValue;
+    }
+
+    public boolean isLightweightMode() {
+        return lightweightMode;
+    }
+
     protected String checkNotNull(String inValue) {
         return inValue == null ? "" : inValue;
     }
@@ -211,79 +289,31 @@ public class PDFInfo {
                 fileSize = pdfFile.length();
             }
 
-            try {
-                pdfDoc = PDDocument.load(pdfBlob.getStream());
-
-                isEncrypted = pdfDoc.isEncrypted();
-                if (isEncrypted) {
-                    pdfDoc.openProtection(new StandardDecryptionMaterial(
-                            password));
-                }
+            String cacheKey = buildCacheKey();
+            PDFInfo cached = cacheKey == null ? null : getCache().get(cacheKey);
+            if (cached != null) {
+                copyParsedValues(cached);
+                alreadyParsed = true;
+                return;
+            }
 
-                numberOfPages = pdfDoc.getNumberOfPages();
-                PDDocumentCatalog docCatalog = pdfDoc.getDocumentCatalog();
-                pageLayout = checkNotNull(docCatalog.getPageLayout());
-                pdfVersion = "" + pdfDoc.getDocument().getVersion();
-
-                PDDocumentInformation docInfo = pdfDoc.getDocumentInformation();
-                author = checkNotNull(docInfo.getAuthor());
-                contentCreator = checkNotNull(docInfo.getCreator());
-                keywords = checkNotNull(docInfo.getKeywords());
-                creationDate = docInfo.getCreationDate();
-                modificationDate = docInfo.getModificationDate();
-                producer = checkNotNull(docInfo.getProducer());
-                subject = checkNotNull(docInfo.getSubject());
-                title = checkNotNull(docInfo.getTitle());
-
-                // Getting dimension is a bit tricky
-                mediaBoxWidthInPoints = -1;
-                mediaBoxHeightInPoints = -1;
-                cropBoxWidthInPoints = -1;
-                cropBoxHeightInPoints = -1;
-                List<PDPage> allPages = docCatalog.getAllPages();
-                boolean gotMediaBox = false;
-                boolean gotCropBox = false;
-                for (PDPage page : allPages) {
-
-                    if (page != null) {
-                        PDRectangle r = page.findMediaBox();
-                        if (r != null) {
-                            mediaBoxWidthInPoints = r.getWidth();
-                            mediaBoxHeightInPoints = r.getHeight();
-                            gotMediaBox = true;
-                        }
-                        r = page.findCropBox();
-                        if (r != null) {
-                            cropBoxWidthInPoints = r.getWidth();
-                            cropBoxHeightInPoints = r.getHeight();
-                            gotCropBox = true;
-                        }
-                    }
-                    if (gotMediaBox && gotCropBox) {
-                        break;
-                    }
+            PDFMetrics metrics = PDFMetrics.start(PDFMetrics.OP_INFO).input(
+                    pdfBlob);
+            try {
+                metrics.phase(PHASE.LOAD);
+                if (lightweightMode && pdfFile != null
+                        && MinimalParser.isAvailable()) {
+                    parseLightweight(pdfFile, metrics);
+                } else {
+                    parseDefault(metrics);
                 }
 
-                if (doXMP) {
-                    xmp = null;
-                    PDMetadata metadata = docCatalog.getMetadata();
-                    if (metadata != null) {
-                        xmp = "";
-                        InputStream xmlInputStream = metadata.createInputStream();
-
-                        InputStreamReader isr = new InputStreamReader(
-                                xmlInputStream);
-                        BufferedReader reader = new BufferedReader(isr);
-                        String line;
-                        do {
-                            line = reader.readLine();
-                            if (line != null) {
-                                xmp += line + "\n";
-                            }
-                        } while (line != null);
-                        reader.close();
-                    }
+                if (cacheKey != null) {
+                    PDFInfo toCache = new PDFInfo((Blob) null);
+                    toCache.copyParsedValues(this);
+                    getCache().put(cacheKey, toCache, toCache.estimateSize());
                 }
+                metrics.succeeded();
 
             } catch (IOException | BadSecurityHandlerException
                     | CryptographyException e) {
@@ -301,10 +331,407 @@ public class PDFInfo {
                     pdfDoc = null;
                 }
                 alreadyParsed = true;
+                metrics.stop();
             }
         }
     }
 
+    protected void parseDefault(PDFMetrics inMetrics) throws IOException,
+            BadSecurityHandlerException, CryptographyException {
+
+        pdfDoc = PDFMemoryPolicy.getDefault().load(pdfBlob);
+
+        isEncrypted = pdfDoc.isEncrypted();
+        if (isEncrypted) {
+            pdfDoc.openProtection(new StandardDecryptionMaterial(password));
+        }
+
+        inMetrics.phase(PHASE.PROCESS);
+        numberOfPages = pdfDoc.getNumberOfPages();
+        inMetrics.pages(numberOfPages);
+        PDDocumentCatalog docCatalog = pdfDoc.getDocumentCatalog();
+        readCatalogAndInfo(docCatalog);
+
+        // Pages are read lazily, usually only the first one is needed
+        readBoxes(new PDFPageTree(pdfDoc));
+
+        if (doXMP) {
+            readXMP(docCatalog.getMetadata());
+        }
+    }
+
+    /*
+     * Nothing is resolved by the minimal parsing but the trailer and the
+     * catalog: Every object used is resolved explicitly before calling the
+     * PDFBox getters.
+     */
+    protected void parseLightweight(File inPdfFile, PDFMetrics inMetrics)
+            throws IOException {
+
+        MinimalParser parser = MinimalParser.open(inPdfFile, password);
+        try {
+            pdfDoc = parser.getPDDocument();
+            parseLightweight(parser, inMetrics);
+        } finally {
+            parser.closeSource();
+        }
+    }
+
+    protected void parseLightweight(MinimalParser inParser,
+            PDFMetrics inMetrics) throws IOException {
+
+        isEncrypted = pdfDoc.isEncrypted();
+
+        inMetrics.phase(PHASE.PROCESS);
+        COSDocument cosDoc = pdfDoc.getDocument();
+        COSDictionary catalog = (COSDictionary) inParser.resolve(cosDoc.getTrailer().getItem(
+                COSName.ROOT));
+        inParser.resolveItems(catalog, COSName.PAGE_LAYOUT);
+        COSBase info = inParser.resolve(cosDoc.getTrailer().getItem(
+                COSName.INFO));
+        if (info instanceof COSDictionary) {
+            inParser.resolveItems((COSDictionary) info,
+                    ((COSDictionary) info).keySet().toArray(new COSName[0]));
+        }
+        readCatalogAndInfo(pdfDoc.getDocumentCatalog());
+
+        numberOfPages = 0;
+        COSDictionary pages = (COSDictionary) inParser.resolve(catalog.getItem(COSName.PAGES));
+        COSBase count = inParser.resolve(pages.getItem(COSName.COUNT));
+        if (count instanceof COSNumber) {
+            numberOfPages = ((COSNumber) count).intValue();
+        }
+        inMetrics.pages(numberOfPages);
+
+        ArrayList<PDPage> firstPageOnly = new ArrayList<PDPage>();
+        COSDictionary firstPage = inParser.findFirstPage(pages, 0);
+        if (firstPage != null) {
+            // The boxes can be inherited from the parent nodes
+            COSDictionary node = firstPage;
+            for (int i = 0; node != null && i < PDFPageTree.MAX_DEPTH; i++) {
+                inParser.resolveItems(node, COSName.MEDIA_BOX,
+                        COSName.CROP_BOX, COSName.PARENT);
+                node = (COSDictionary) node.getDictionaryObject(COSName.PARENT);
+            }
+            firstPageOnly.add(new PDPage(firstPage));
+        } else {
+            log.warn("Cannot find the first page of " + pdfBlob.getFilename());
+        }
+        readBoxes(firstPageOnly);
+
+        if (doXMP) {
+            COSBase metadata = inParser.resolve(catalog.getItem(COSName.METADATA));
+            readXMP(metadata instanceof COSStream ? new PDMetadata(
+                    (COSStream) metadata) : null);
+        }
+    }
+
+    protected void readCatalogAndInfo(PDDocumentCatalog inCatalog)
+            throws IOException {
+
+        pageLayout = checkNotNull(inCatalog.getPageLayout());
+        pdfVersion = "" + pdfDoc.getDocument().getVersion();
+
+        PDDocumentInformation docInfo = pdfDoc.getDocumentInformation();
+        author = checkNotNull(docInfo.getAuthor());
+        contentCreator = checkNotNull(docInfo.getCreator());
+        keywords = checkNotNull(docInfo.getKeywords());
+        creationDate = docInfo.getCreationDate();
+        modificationDate = docInfo.getModificationDate();
+        producer = checkNotNull(docInfo.getProducer());
+        subject = checkNotNull(docInfo.getSubject());
+        title = checkNotNull(docInfo.getTitle());
+    }
+
+    /*
+     * Getting dimension is a bit tricky: Stop at the first page giving both
+     * boxes
+     */
+    protected void readBoxes(Iterable<PDPage> inPages) {
+
+        mediaBoxWidthInPoints = -1;
+        mediaBoxHeightInPoints = -1;
+        cropBoxWidthInPoints = -1;
+        cropBoxHeightInPoints = -1;
+        boolean gotMediaBox = false;
+        boolean gotCropBox = false;
+        for (PDPage page : inPages) {
+
+            if (page != null) {
+                PDRectangle r = page.findMediaBox();
+                if (r != null) {
+                    mediaBoxWidthInPoints = r.getWidth();
+                    mediaBoxHeightInPoints = r.getHeight();
+                    gotMediaBox = true;
+                }
+                r = page.findCropBox();
+                if (r != null) {
+                    cropBoxWidthInPoints = r.getWidth();
+                    cropBoxHeightInPoints = r.getHeight();
+                    gotCropBox = true;
+                }
+            }
+            if (gotMediaBox && gotCropBox) {
+                break;
+            }
+        }
+    }
+
+    protected void readXMP(PDMetadata inMetadata) throws IOException {
+
+        xmp = null;
+        if (inMetadata != null) {
+            xmp = "";
+            InputStream xmlInputStream = inMetadata.createInputStream();
+
+            InputStreamReader isr = new InputStreamReader(xmlInputStream);
+            BufferedReader reader = new BufferedReader(isr);
+            String line;
+            do {
+                line = reader.readLine();
+                if (line != null) {
+                    xmp += line + "\n";
+                }
+            } while (line != null);
+            reader.close();
+        }
+    }
+
+    /**
+     * The PDFBox non sequential parser, with the minimal catalog parsing:
+     * <code>open()</code> reads only the cross reference table, the trailer
+     * and the catalog, and <code>resolve()</code> reads the other objects, one
+     * at a time. <code>parse()</code> is not called, since it reads every page.
+     * The file stays opened until <code>closeSource()</code>.
+     * <p>
+     * PDFBox 1.8 only turns the minimal parsing on with a system property,
+     * read when a parser is created. Setting it would change every parser
+     * created at the same time in the JVM, so the flag is set on this parser
+     * only.
+     *
+     * @since 7.2
+     */
+    protected static class MinimalParser extends NonSequentialPDFParser {
+
+        protected static final Field PARSE_MINIMAL_FIELD = findParseMinimalField();
+
+        protected MinimalParser(File inFile, String inPassword)
+                throws IOException {
+            super(inFile, null, inPassword == null ? "" : inPassword);
+        }
+
+        protected static Field findParseMinimalField() {
+            try {
+                Field field = NonSequentialPDFParser.class.getDeclaredField("parseMinimalCatalog");
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException | SecurityException e) {
+                log.warn("The minimal parsing is not available with this version of PDFBox, "
+                        + "PDFInfo ignores the lightweight mode");
+                return null;
+            }
+        }
+
+        public static boolean isAvailable() {
+            return PARSE_MINIMAL_FIELD != null;
+        }
+
+        public static MinimalParser open(File inFile, String inPassword)
+                throws IOException {
+
+            MinimalParser parser = new MinimalParser(inFile, inPassword);
+            boolean opened = false;
+            try {
+                PARSE_MINIMAL_FIELD.setBoolean(parser, true);
+                parser.initialParse();
+                opened = true;
+            } catch (IllegalAccessException e) {
+                // Cannot happen, the field is accessible
+                throw new IOException(e);
+            } finally {
+                if (!opened) {
+                    parser.closeSource();
+                    try {
+                        parser.getDocument().close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+            return parser;
+        }
+
+        public void closeSource() {
+            try {
+                pdfSource.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+
+        public COSBase resolve(COSBase inValue) throws IOException {
+
+            if (inValue instanceof COSObject) {
+                COSObject obj = (COSObject) inValue;
+                if (obj.getObject() == null) {
+                    parseObjectDynamically(obj, false);
+                }
+                return obj.getObject();
+            }
+            return inValue;
+        }
+
+        /*
+         * Resolve the values of the keys (and the elements of the arrays), so
+         * getDictionaryObject() returns them.
+         */
+        public void resolveItems(COSDictionary inDict, COSName... inKeys)
+                throws IOException {
+
+            for (COSName key : inKeys) {
+                COSBase value = resolve(inDict.getItem(key));
+                if (value instanceof COSArray) {
+                    COSArray array = (COSArray) value;
+                    for (int i = 0; i < array.size(); i++) {
+                        resolve(array.get(i));
+                    }
+                }
+            }
+        }
+
+        /*
+         * The first leaf of the tree: The first kid of each node, skipping
+         * the empty nodes.
+         */
+        public COSDictionary findFirstPage(COSDictionary inNode, int inDepth)
+                throws IOException {
+
+            if (inDepth > PDFPageTree.MAX_DEPTH) {
+                return null;
+            }
+            COSBase kids = resolve(inNode.getItem(COSName.KIDS));
+            if (!(kids instanceof COSArray)) {
+                return null;
+            }
+            for (COSBase item : (COSArray) kids) {
+                COSBase kid = resolve(item);
+                if (!(kid instanceof COSDictionary)) {
+                    continue;
+                }
+                COSDictionary dict = (COSDictionary) kid;
+                if (COSName.PAGE.equals(resolve(dict.getItem(COSName.TYPE)))) {
+                    return dict;
+                }
+                COSDictionary page = findFirstPage(dict, inDepth + 1);
+                if (page != null) {
+                    return page;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Return the cache shared by all PDFInfo objects.
+     *
+     * @since 7.2
+     */
+    public static synchronized PDFCache<String, PDFInfo> getCache() {
+
+        if (infoCache == null) {
+            infoCache = PDFCache.fromConfiguration(CACHE_PROPERTY_PREFIX,
+                    DEFAULT_CACHE_MAX_ENTRIES, DEFAULT_CACHE_MAX_SIZE,
+                    DEFAULT_CACHE_TTL);
+        }
+        return infoCache;
+    }
+
+    /**
+     * Drop the cache. Next call to <code>getCache()</code> creates a new one,
+     * reading the configuration again.
+     *
+     * @since 7.2
+     */
+    public static synchronized void resetCache() {
+        infoCache = null;
+    }
+
+    /*
+     * digest + XMP flag + parsing mode + SHA-256 of the password (a wrong
+     * password must not read the values parsed with the good one). The mode is
+     * part of the key because the two parsings can give different values on
+     * damaged files. Returns null (no caching) if the blob has no digest.
+     */
+    protected String buildCacheKey() {
+
+        String digest = pdfBlob.getDigest();
+        if (digest == null || digest.isEmpty()) {
+            return null;
+        }
+
+        String passwordHash = "";
+        if (password != null) {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                byte[] hash = md.digest(password.getBytes(StandardCharsets.UTF_8));
+                StringBuilder sb = new StringBuilder();
+                for (byte b : hash) {
+                    sb.append(String.format("%02x", b));
+                }
+                passwordHash = sb.toString();
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+
+        return digest + "|" + doXMP + "|" + lightweightMode + "|"
+                + passwordHash;
+    }
+
+    /*
+     * File name and file size are not copied: They depend on the blob, not on
+     * its content.
+     */
+    protected void copyParsedValues(PDFInfo inFrom) {
+
+        numberOfPages = inFrom.numberOfPages;
+        mediaBoxWidthInPoints = inFrom.mediaBoxWidthInPoints;
+        mediaBoxHeightInPoints = inFrom.mediaBoxHeightInPoints;
+        cropBoxWidthInPoints = inFrom.cropBoxWidthInPoints;
+        cropBoxHeightInPoints = inFrom.cropBoxHeightInPoints;
+        isEncrypted = inFrom.isEncrypted;
+        author = inFrom.author;
+        contentCreator = inFrom.contentCreator;
+        keywords = inFrom.keywords;
+        pageLayout = inFrom.pageLayout;
+        pdfVersion = inFrom.pdfVersion;
+        producer = inFrom.producer;
+        subject = inFrom.subject;
+        title = inFrom.title;
+        doXMP = inFrom.doXMP;
+        xmp = inFrom.xmp;
+        creationDate = inFrom.creationDate == null ? null
+                : (Calendar) inFrom.creationDate.clone();
+        modificationDate = inFrom.modificationDate == null ? null
+                : (Calendar) inFrom.modificationDate.clone();
+    }
+
+    /*
+     * Rough estimation of the memory used by the parsed values: 2 bytes per
+     * char + the fixed fields
+     */
+    protected long estimateSize() {
+
+        long size = 256;
+        for (String str : new String[] { author, contentCreator, keywords,
+                pageLayout, pdfVersion, producer, subject, title, xmp }) {
+            if (str != null) {
+                size += 40 + 2 * str.length();
+            }
+        }
+        return size;
+    }
+
     /**
      * Return all and every parsed info in a String <code>HashMap</code>.
      * <p>
@@ -345,43 +772,9 @@ public class PDFInfo {
         if (cachedMap == null) {
             cachedMap = new LinkedHashMap<String, String>();
 
-            SimpleDateFormat dateFormat = new SimpleDateFormat(
-                    "yyyy-MM-dd HH:mm:ss");
-
-            cachedMap.put("File name", fileName);
-            cachedMap.put("File size", "" + fileSize);
-            cachedMap.put("PDF version", pdfVersion);
-            cachedMap.put("Page count", "" + numberOfPages);
-            cachedMap.put("Page size", "" + mediaBoxWidthInPoints + " x "
-                    + mediaBoxHeightInPoints + " points");
-            cachedMap.put("Page width", "" + mediaBoxWidthInPoints);
-            cachedMap.put("Page height", "" + mediaBoxHeightInPoints);
-            cachedMap.put("Page layout", pageLayout);
-            cachedMap.put("Title", title);
-            cachedMap.put("Author", author);
-            cachedMap.put("Subject", subject);
-            cachedMap.put("PDF producer", producer);
-            cachedMap.put("Content creator", contentCreator);
-            if (creationDate != null) {
-                cachedMap.put("Creation date",
-                        dateFormat.format(creationDate.getTime()));
-            } else {
-                cachedMap.put("Creation date", "");
-            }
-            if (modificationDate != null) {
-                cachedMap.put("Modification date",
-                        dateFormat.format(modificationDate.getTime()));
-            } else {
-                cachedMap.put("Modification date", "");
+            for (PDFInfoMapping.FIELD field : PDFInfoMapping.FIELD.values()) {
+                cachedMap.put(field.getLabel(), field.getString(this));
             }
-
-            // "Others"
-            cachedMap.put("Encrypted", "" + isEncrypted);
-            cachedMap.put("Keywords", keywords);
-            cachedMap.put("Media box width", "" + mediaBoxWidthInPoints);
-            cachedMap.put("Media box height", "" + mediaBoxHeightInPoints);
-            cachedMap.put("Crop box width", "" + cropBoxWidthInPoints);
-            cachedMap.put("Crop box height", "" + cropBoxHeightInPoints);
         }
 
         return cachedMap;
@@ -414,14 +807,28 @@ public class PDFInfo {
             HashMap<String, String> inMapping, boolean inSave,
             CoreSession inSession) {
 
-        // Parse if needed
-        run();
+        return toFields(inDoc, PDFInfoMapping.get(inMapping), inSave,
+                inSession);
+    }
 
-        HashMap<String, String> values = toHashMap();
-        for (String inXPath : inMapping.keySet()) {
-            String value = values.get(inMapping.get(inXPath));
-            inDoc.setPropertyValue(inXPath, value);
-        }
+    /**
+     * Same as <code>toFields(DocumentModel, HashMap, boolean, CoreSession)
+     * </code>, with an already compiled mapping: Only the mapped values are
+     * computed, and typed values are set in fields of the same type (see
+     * <code>PDFInfoMapping</code>).
+     *
+     * @param inDoc
+     * @param inMapping
+     * @param inSave
+     * @param inSession
+     * @return the document
+     *
+     * @since 7.2
+     */
+    public DocumentModel toFields(DocumentModel inDoc,
+            PDFInfoMapping inMapping, boolean inSave, CoreSession inSession) {
+
+        inMapping.apply(this, inDoc);
 
         if (inSave) {
             inDoc = inSession.saveDocument(inDoc);
@@ -0,0 +1,249 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Puts the info of the PDFs of several documents in their fields (see
+ * <code>PDFInfo.toFields()</code>), for a large number of documents.
+ * <p>
+ * The documents are handled in batches of <code>getBatchSize()</code>:
+ * <ul>
+ * <li>The PDFs of a batch are parsed in parallel, using at most
+ * <code>getParallelism()</code> threads (each parse takes a permit of the
+ * <code>PDFGovernor</code>). The next batch is parsed while the current one
+ * is saved.</li>
+ * <li>The values are set and the documents saved in the calling thread,
+ * which owns the session</li>
+ * <li>After each batch, the session is saved and, if there is a
+ * transaction, it is committed and a new one is started. So a very long run
+ * does not hold one huge transaction, and the batches already done are kept
+ * if a later one fails.</li>
+ * </ul>
+ * As with <code>PDF.InfoToFields</code>, the fields of a document without
+ * blob or whose blob is not a PDF are cleared. The mapping is compiled once
+ * (see <code>PDFInfoMapping</code>).
+ *
+ * @since 7.2
+ */
+public class PDFInfoBatch {
+
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    protected CoreSession session;
+
+    protected String xpath;
+
+    protected PDFInfoMapping mapping;
+
+    protected boolean save = true;
+
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+
+    protected int parallelism = Math.min(4,
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * <code>inMapping</code> has the xpath of the fields as keys and the
+     * labels of the values (see <code>PDFInfo.toHashMap()</code>) as values.
+     * If <code>inXPath</code> is null or "", it is set to
+     * <code>file:content</code>.
+     *
+     * @param inSession
+     * @param inXPath
+     * @param inMapping
+     */
+    public PDFInfoBatch(CoreSession inSession, String inXPath,
+            Map<String, String> inMapping) {
+
+        session = inSession;
+        xpath = inXPath == null || inXPath.isEmpty() ? "file:content"
+                : inXPath;
+        if (inMapping == null) {
+            inMapping = new HashMap<String, String>();
+        }
+        mapping = PDFInfoMapping.get(inMapping);
+    }
+
+    /**
+     * Parse the PDFs of the documents, set the values and save the documents
+     * (unless <code>setSave(false)</code> was called, in which case nothing
+     * is saved nor committed).
+     *
+     * @param inDocs
+     * @return the documents
+     * @throws ClientException
+     */
+    public DocumentModelList run(DocumentModelList inDocs)
+            throws ClientException {
+
+        DocumentModelList result = new DocumentModelListImpl(inDocs.size());
+        if (inDocs.isEmpty()) {
+            return result;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+                Math.min(parallelism, inDocs.size())));
+        try {
+            List<Future<PDFInfo>> next = submit(executor,
+                    inDocs, 0);
+            for (int start = 0; start < inDocs.size(); start += batchSize) {
+                List<Future<PDFInfo>> current = next;
+                next = submit(executor, inDocs, start + batchSize);
+
+                int end = Math.min(start + batchSize, inDocs.size());
+                for (int i = start; i < end; i++) {
+                    DocumentModel doc = inDocs.get(i);
+                    setValues(doc, getInfo(doc, current.get(i - start)));
+                    if (save) {
+                        doc = session.saveDocument(doc);
+                    }
+                    result.add(doc);
+                }
+
+                if (save) {
+                    session.save();
+                    if (TransactionHelper.isTransactionActive()) {
+                        TransactionHelper.commitOrRollbackTransaction();
+                        TransactionHelper.startTransaction();
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return result;
+    }
+
+    /*
+     * Submit the parsing of the batch starting at inStart. The list has a
+     * null future for documents without a PDF.
+     */
+    protected List<Future<PDFInfo>> submit(
+            ExecutorService inExecutor, DocumentModelList inDocs, int inStart) {
+
+        List<Future<PDFInfo>> futures = new ArrayList<Future<PDFInfo>>();
+        int end = Math.min(inStart + batchSize, inDocs.size());
+        for (int i = inStart; i < end; i++) {
+            // Read the blob here: The document must be used by the thread of
+            // the session only
+            final Blob blob = (Blob) inDocs.get(i).getPropertyValue(xpath);
+            if (blob == null || !"application/pdf".equals(blob.getMimeType())) {
+                futures.add(null);
+                continue;
+            }
+            futures.add(inExecutor.submit(new Callable<PDFInfo>() {
+                @Override
+                public PDFInfo call() throws Exception {
+                    PDFGovernor.Permit permit = PDFGovernor.enter(
+                            PDFMetrics.OP_INFO, blob);
+                    try {
+                        PDFInfo info = new PDFInfo(blob);
+                        info.run();
+                        return info;
+                    } finally {
+                        permit.release();
+                    }
+                }
+            }));
+        }
+        return futures;
+    }
+
+    protected PDFInfo getInfo(DocumentModel inDoc,
+            Future<PDFInfo> inFuture) throws ClientException {
+
+        if (inFuture == null) {
+            return null;
+        }
+        try {
+            return inFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException(e);
+        } catch (ExecutionException e) {
+            throw new ClientException("Cannot get the PDF info of document "
+                    + inDoc.getId(), e.getCause());
+        }
+    }
+
+    /*
+     * Null info: Clear the fields
+     */
+    protected void setValues(DocumentModel inDoc, PDFInfo inInfo) {
+
+        if (inInfo == null) {
+            mapping.clear(inDoc);
+        } else {
+            mapping.apply(inInfo, inDoc);
+        }
+    }
+
+    public boolean isSave() {
+        return save;
+    }
+
+    public void setSave(boolean inValue) {
+        save = inValue;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of documents saved (and committed) together. Values < 1
+     * are realigned to <code>DEFAULT_BATCH_SIZE</code>.
+     *
+     * @param inValue
+     */
+    public void setBatchSize(int inValue) {
+        batchSize = inValue < 1 ? DEFAULT_BATCH_SIZE : inValue;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the max. number of PDFs parsed at the same time. Values < 1 are
+     * realigned to 1.
+     *
+     * @param inValue
+     */
+    public void setParallelism(int inValue) {
+        parallelism = Math.max(1, inValue);
+    }
+}
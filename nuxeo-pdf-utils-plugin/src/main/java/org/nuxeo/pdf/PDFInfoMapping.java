@@ -0,0 +1,370 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.schema.SchemaManager;
+import org.nuxeo.ecm.core.schema.types.Field;
+import org.nuxeo.ecm.core.schema.types.SimpleType;
+import org.nuxeo.ecm.core.schema.types.Type;
+import org.nuxeo.ecm.core.schema.types.primitives.BooleanType;
+import org.nuxeo.ecm.core.schema.types.primitives.DateType;
+import org.nuxeo.ecm.core.schema.types.primitives.DoubleType;
+import org.nuxeo.ecm.core.schema.types.primitives.IntegerType;
+import org.nuxeo.ecm.core.schema.types.primitives.LongType;
+import org.nuxeo.ecm.core.schema.types.primitives.StringType;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * A mapping of PDF info to document fields (see <code>PDFInfo.toFields()</code>
+ * ), resolved once: Each label is resolved to a <code>FIELD</code>, and the
+ * type of each target field is read from the schemas.
+ * <p>
+ * When applied to a document, only the mapped values are computed, and when
+ * the type of the target field matches the value, the typed value is set
+ * (<code>Calendar</code> for the dates, <code>Long</code> for the counts and
+ * sizes, ...). Other targets (string fields, complex or list xpaths, ...)
+ * get the same string as in <code>PDFInfo.toHashMap()</code>.
+ * <p>
+ * Instances are immutable, they can be used by several threads.
+ *
+ * @since 7.2
+ */
+public class PDFInfoMapping {
+
+    protected static final int MAX_CACHED_MAPPINGS = 256;
+
+    protected static final ConcurrentMap<Map<String, String>, PDFInfoMapping> mappings = new ConcurrentHashMap<Map<String, String>, PDFInfoMapping>();
+
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        }
+    };
+
+    public enum KIND {
+        STRING, LONG, DOUBLE, DATE, BOOLEAN
+    };
+
+    /**
+     * The values returned by <code>PDFInfo.toHashMap()</code>, in the same
+     * order.
+     */
+    public enum FIELD {
+        FILE_NAME("File name", KIND.STRING),
+        FILE_SIZE("File size", KIND.LONG),
+        PDF_VERSION("PDF version", KIND.STRING),
+        PAGE_COUNT("Page count", KIND.LONG),
+        PAGE_SIZE("Page size", KIND.STRING),
+        PAGE_WIDTH("Page width", KIND.DOUBLE),
+        PAGE_HEIGHT("Page height", KIND.DOUBLE),
+        PAGE_LAYOUT("Page layout", KIND.STRING),
+        TITLE("Title", KIND.STRING),
+        AUTHOR("Author", KIND.STRING),
+        SUBJECT("Subject", KIND.STRING),
+        PDF_PRODUCER("PDF producer", KIND.STRING),
+        CONTENT_CREATOR("Content creator", KIND.STRING),
+        CREATION_DATE("Creation date", KIND.DATE),
+        MODIFICATION_DATE("Modification date", KIND.DATE),
+        ENCRYPTED("Encrypted", KIND.BOOLEAN),
+        KEYWORDS("Keywords", KIND.STRING),
+        MEDIA_BOX_WIDTH("Media box width", KIND.DOUBLE),
+        MEDIA_BOX_HEIGHT("Media box height", KIND.DOUBLE),
+        CROP_BOX_WIDTH("Crop box width", KIND.DOUBLE),
+        CROP_BOX_HEIGHT("Crop box height", KIND.DOUBLE);
+
+        private final String label;
+
+        private final KIND kind;
+
+        private FIELD(String inLabel, KIND inKind) {
+            label = inLabel;
+            kind = inKind;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public KIND getKind() {
+            return kind;
+        }
+
+        /**
+         * Return the field with this label, or null.
+         */
+        public static FIELD fromLabel(String inLabel) {
+            for (FIELD field : values()) {
+                if (field.label.equals(inLabel)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+
+        /*
+         * The value as stored in PDFInfo (dimensions are floats)
+         */
+        protected Object getRawValue(PDFInfo inInfo) {
+
+            switch (this) {
+            case FILE_NAME:
+                return inInfo.getFileName();
+            case FILE_SIZE:
+                return inInfo.getFileSize();
+            case PDF_VERSION:
+                return inInfo.getPdfVersion();
+            case PAGE_COUNT:
+                return (long) inInfo.getNumberOfPages();
+            case PAGE_SIZE:
+                return "" + inInfo.getMediaBoxWidthInPoints() + " x "
+                        + inInfo.getMediaBoxHeightInPoints() + " points";
+            case PAGE_WIDTH:
+            case MEDIA_BOX_WIDTH:
+                return inInfo.getMediaBoxWidthInPoints();
+            case PAGE_HEIGHT:
+            case MEDIA_BOX_HEIGHT:
+                return inInfo.getMediaBoxHeightInPoints();
+            case PAGE_LAYOUT:
+                return inInfo.getPageLayout();
+            case TITLE:
+                return inInfo.getTitle();
+            case AUTHOR:
+                return inInfo.getAuthor();
+            case SUBJECT:
+                return inInfo.getSubject();
+            case PDF_PRODUCER:
+                return inInfo.getProducer();
+            case CONTENT_CREATOR:
+                return inInfo.getContentCreator();
+            case CREATION_DATE:
+                return inInfo.getCreationDate();
+            case MODIFICATION_DATE:
+                return inInfo.getModificationDate();
+            case ENCRYPTED:
+                return inInfo.isEncrypted();
+            case KEYWORDS:
+                return inInfo.getKeywords();
+            case CROP_BOX_WIDTH:
+                return inInfo.getCropBoxWidthInPoints();
+            case CROP_BOX_HEIGHT:
+                return inInfo.getCropBoxHeightInPoints();
+            default:
+                return null;
+            }
+        }
+
+        /**
+         * Return the value as a String, as in <code>toHashMap()</code>
+         */
+        public String getString(PDFInfo inInfo) {
+
+            Object value = getRawValue(inInfo);
+            if (kind == KIND.DATE) {
+                if (value == null) {
+                    return "";
+                }
+                return DATE_FORMAT.get().format(((Calendar) value).getTime());
+            }
+            return value == null ? null : value.toString();
+        }
+
+        /**
+         * Return the value with the Java type of the kind: String, Long,
+         * Double, Calendar or Boolean.
+         */
+        public Object getTypedValue(PDFInfo inInfo) {
+
+            Object value = getRawValue(inInfo);
+            switch (kind) {
+            case DOUBLE:
+                // Same value as the string of the float would give
+                return Double.valueOf(value.toString());
+            case DATE:
+                if (value == null) {
+                    return null;
+                }
+                // Same value as the string would give: In the default time
+                // zone, to the second
+                Calendar date = Calendar.getInstance();
+                date.setTimeInMillis(((Calendar) value).getTimeInMillis());
+                date.set(Calendar.MILLISECOND, 0);
+                return date;
+            default:
+                return value;
+            }
+        }
+    }
+
+    protected String[] xpaths;
+
+    protected FIELD[] fields;
+
+    // null: Set the string
+    protected KIND[] targetKinds;
+
+    protected PDFInfoMapping(Map<String, String> inMapping) {
+
+        SchemaManager schemaManager = Framework.getLocalService(SchemaManager.class);
+
+        int size = inMapping.size();
+        xpaths = new String[size];
+        fields = new FIELD[size];
+        targetKinds = new KIND[size];
+        int i = 0;
+        for (Map.Entry<String, String> entry : inMapping.entrySet()) {
+            xpaths[i] = entry.getKey();
+            fields[i] = FIELD.fromLabel(entry.getValue());
+            if (fields[i] != null) {
+                KIND target = getTargetKind(schemaManager, xpaths[i]);
+                if (target == fields[i].getKind()) {
+                    targetKinds[i] = target;
+                }
+            }
+            i += 1;
+        }
+    }
+
+    /**
+     * Return the mapping for <code>inMapping</code> (xpath of the fields as
+     * keys, labels of the values as values), compiled only at first call.
+     *
+     * @param inMapping
+     * @return the mapping
+     */
+    public static PDFInfoMapping get(Map<String, String> inMapping) {
+
+        PDFInfoMapping mapping = mappings.get(inMapping);
+        if (mapping == null) {
+            if (mappings.size() >= MAX_CACHED_MAPPINGS) {
+                mappings.clear();
+            }
+            HashMap<String, String> key = new HashMap<String, String>(
+                    inMapping);
+            mapping = new PDFInfoMapping(key);
+            mappings.put(key, mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * Forget the compiled mappings (for example after the schemas were
+     * changed).
+     */
+    public static void resetCache() {
+        mappings.clear();
+    }
+
+    /*
+     * The kind of the values of a field, or null if it is not a simple field
+     * or is unknown
+     */
+    protected static KIND getTargetKind(SchemaManager inSchemaManager,
+            String inXPath) {
+
+        if (inSchemaManager == null) {
+            return null;
+        }
+        Field field = inSchemaManager.getField(inXPath);
+        if (field == null || !field.getType().isSimpleType()) {
+            return null;
+        }
+
+        Type type = ((SimpleType) field.getType()).getPrimitiveType();
+        if (type == StringType.INSTANCE) {
+            return KIND.STRING;
+        }
+        if (type == LongType.INSTANCE || type == IntegerType.INSTANCE) {
+            return KIND.LONG;
+        }
+        if (type == DoubleType.INSTANCE) {
+            return KIND.DOUBLE;
+        }
+        if (type == DateType.INSTANCE) {
+            return KIND.DATE;
+        }
+        if (type == BooleanType.INSTANCE) {
+            return KIND.BOOLEAN;
+        }
+        return null;
+    }
+
+    /**
+     * Set the mapped values of the PDF (parsed if needed) in the fields of the
+     * document. The document is not saved.
+     *
+     * @param inInfo
+     * @param inDoc
+     */
+    public void apply(PDFInfo inInfo, DocumentModel inDoc) {
+
+        inInfo.run();
+
+        for (int i = 0; i < xpaths.length; i++) {
+            FIELD field = fields[i];
+            Object value;
+            if (field == null) {
+                value = null;
+            } else if (targetKinds[i] != null) {
+                value = field.getTypedValue(inInfo);
+            } else {
+                value = field.getString(inInfo);
+            }
+            inDoc.setPropertyValue(xpaths[i], (Serializable) value);
+        }
+    }
+
+    /**
+     * Clear the mapped fields (no PDF)
+     *
+     * @param inDoc
+     */
+    public void clear(DocumentModel inDoc) {
+
+        for (String xpath : xpaths) {
+            inDoc.setPropertyValue(xpath, "");
+        }
+    }
+
+    public int size() {
+        return xpaths.length;
+    }
+
+    public String getXPath(int inIndex) {
+        return xpaths[inIndex];
+    }
+
+    public FIELD getField(int inIndex) {
+        return fields[inIndex];
+    }
+
+    /**
+     * The kind of value set in the field, null if it is set as a String.
+     */
+    public KIND getTargetKind(int inIndex) {
+        return targetKinds[inIndex];
+    }
+}
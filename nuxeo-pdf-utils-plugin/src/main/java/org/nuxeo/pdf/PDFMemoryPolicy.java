@@ -0,0 +1,323 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pdfbox.io.RandomAccessFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.platform.picture.api.BlobHelper;
+import org.nuxeo.runtime.api.Framework;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Decides how a PDF is loaded: Fully in the heap, or against a temporary
+ * scratch file (PDFBox then stores the streams of the document in this file
+ * instead of the heap).
+ * <p>
+ * All the classes of this plug-in load their <code>PDDocument</code> through
+ * <code>PDFMemoryPolicy.getDefault().load(...)</code>. The default policy is
+ * read from the configuration (nuxeo.conf):
+ * <ul>
+ * <li><code>nuxeo.pdfutils.memory.mode</code>: <code>heap</code>,
+ * <code>scratch</code> or <code>hybrid</code>. Default is <code>heap</code>
+ * (which is what PDFBox does by default).</li>
+ * <li><code>nuxeo.pdfutils.memory.heapThreshold</code>: In <code>hybrid</code>
+ * mode, a blob bigger than this size (in bytes) is loaded with a scratch file.
+ * A blob whose size is unknown also is loaded with a scratch file. Default
+ * value is 20MB.</li>
+ * <li><code>nuxeo.pdfutils.memory.directFileAccess</code>: When
+ * <code>true</code>, a blob backed by a file (a <code>FileBlob</code>, a blob
+ * of a local binary store, ...) is parsed directly from this file by the non
+ * sequential parser of PDFBox, instead of copying the whole file through
+ * <code>Blob.getStream()</code>. This is buffered random access to the file
+ * (PDFBox reads the objects at their offsets, through a small buffer and the
+ * OS page cache), not a memory mapping. Default is <code>false</code>: The
+ * two parsers do not handle damaged or incrementally updated files the same
+ * way, so this must be an explicit choice.</li>
+ * </ul>
+ * The scratch file is deleted once the document is closed.
+ * <p>
+ * An encrypted PDF, or a PDF the non sequential parser cannot read, is loaded
+ * again with the sequential parser, so the callers always get a document
+ * they can decrypt with <code>openProtection()</code>. Such a PDF is parsed
+ * twice: The <code>nuxeo.pdfutils.directFileAccess.fallbacks</code> counter
+ * and the <code>nuxeo.pdfutils.directFileAccess.discardedParse</code> timer
+ * (time lost in the first parse) tell what it costs, and each fallback is
+ * logged at the debug level.
+ *
+ * @since 7.2
+ */
+public class PDFMemoryPolicy {
+
+    private static Log log = LogFactory.getLog(PDFMemoryPolicy.class);
+
+    public static final String MODE_PROPERTY = "nuxeo.pdfutils.memory.mode";
+
+    public static final String HEAP_THRESHOLD_PROPERTY = "nuxeo.pdfutils.memory.heapThreshold";
+
+    public static final String DIRECT_FILE_ACCESS_PROPERTY = "nuxeo.pdfutils.memory.directFileAccess";
+
+    public static final long DEFAULT_HEAP_THRESHOLD = 20 * 1024 * 1024;
+
+    public static final String DIRECT_FILE_ACCESS_METRICS = "directFileAccess";
+
+    public enum MODE {
+        HEAP_ONLY, SCRATCH_FILE, HYBRID
+    };
+
+    protected MODE mode;
+
+    protected long heapThreshold;
+
+    protected boolean directFileAccess = false;
+
+    public PDFMemoryPolicy(MODE inMode) {
+        this(inMode, DEFAULT_HEAP_THRESHOLD);
+    }
+
+    /**
+     * If <code>inMode</code> is null, it is set to <code>HEAP_ONLY</code>. If
+     * <code>inHeapThreshold</code> is < 0, it is set to
+     * <code>DEFAULT_HEAP_THRESHOLD</code>.
+     *
+     * @param inMode
+     * @param inHeapThreshold
+     */
+    public PDFMemoryPolicy(MODE inMode, long inHeapThreshold) {
+        mode = inMode == null ? MODE.HEAP_ONLY : inMode;
+        heapThreshold = inHeapThreshold < 0 ? DEFAULT_HEAP_THRESHOLD
+                : inHeapThreshold;
+    }
+
+    /**
+     * Return the policy set in the configuration.
+     *
+     * @return the policy
+     */
+    public static PDFMemoryPolicy getDefault() {
+
+        MODE mode;
+        String value = Framework.getProperty(MODE_PROPERTY, "heap");
+        switch (value.toLowerCase()) {
+        case "scratch":
+            mode = MODE.SCRATCH_FILE;
+            break;
+
+        case "hybrid":
+            mode = MODE.HYBRID;
+            break;
+
+        default:
+            mode = MODE.HEAP_ONLY;
+            break;
+        }
+
+        long threshold = DEFAULT_HEAP_THRESHOLD;
+        value = Framework.getProperty(HEAP_THRESHOLD_PROPERTY);
+        if (value != null && !value.isEmpty()) {
+            try {
+                threshold = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value for " + HEAP_THRESHOLD_PROPERTY + ": "
+                        + value + ", using the default value");
+            }
+        }
+
+        PDFMemoryPolicy policy = new PDFMemoryPolicy(mode, threshold);
+        policy.setDirectFileAccess(Boolean.parseBoolean(Framework.getProperty(
+                DIRECT_FILE_ACCESS_PROPERTY, "false")));
+
+        return policy;
+    }
+
+    public MODE getMode() {
+        return mode;
+    }
+
+    public long getHeapThreshold() {
+        return heapThreshold;
+    }
+
+    public boolean isDirectFileAccess() {
+        return directFileAccess;
+    }
+
+    public void setDirectFileAccess(boolean inValue) {
+        directFileAccess = inValue;
+    }
+
+    /**
+     * Tells if a PDF of <code>inSize</code> bytes should be loaded with a
+     * scratch file. <code>inSize</code> < 0 means "unknown size".
+     *
+     * @param inSize
+     * @return true if a scratch file must be used
+     */
+    public boolean useScratchFile(long inSize) {
+
+        switch (mode) {
+        case SCRATCH_FILE:
+            return true;
+
+        case HYBRID:
+            return inSize < 0 || inSize > heapThreshold;
+
+        default:
+            return false;
+        }
+    }
+
+    public PDDocument load(Blob inBlob) throws IOException {
+
+        if (directFileAccess) {
+            File file = BlobHelper.getFileFromBlob(inBlob);
+            if (file != null) {
+                return load(file);
+            }
+        }
+
+        if (useScratchFile(inBlob.getLength())) {
+            return loadWithScratchFile(inBlob.getStream());
+        }
+        return PDDocument.load(inBlob.getStream());
+    }
+
+    public PDDocument load(File inFile) throws IOException {
+
+        if (directFileAccess) {
+            PDDocument doc = loadFromFile(inFile);
+            if (doc != null) {
+                return doc;
+            }
+        }
+
+        if (useScratchFile(inFile.length())) {
+            InputStream in = new FileInputStream(inFile);
+            try {
+                return loadWithScratchFile(in);
+            } finally {
+                in.close();
+            }
+        }
+        return PDDocument.load(inFile);
+    }
+
+    /*
+     * Parse the file with the non sequential parser. Return null if the PDF
+     * is encrypted (the non sequential parser decrypts it while parsing, the
+     * callers expect to do it) or cannot be parsed this way.
+     */
+    protected PDDocument loadFromFile(File inFile) {
+
+        PDDocument doc = null;
+        File tempFile = null;
+        RandomAccessFile scratch = null;
+        long start = System.nanoTime();
+
+        try {
+            if (useScratchFile(inFile.length())) {
+                tempFile = File.createTempFile("nuxeo-pdfutils-scratch-",
+                        ".tmp");
+                scratch = new RandomAccessFile(tempFile, "rw");
+            }
+            doc = PDDocument.loadNonSeq(inFile, scratch, "");
+            if (doc.isEncrypted()) {
+                doc.close();
+                doc = null;
+                recordFallback(inFile, "encrypted", start, null);
+            }
+        } catch (IOException e) {
+            doc = null;
+            recordFallback(inFile,
+                    "not readable by the non sequential parser", start, e);
+        }
+
+        if (tempFile != null) {
+            if (doc == null) {
+                if (scratch != null) {
+                    try {
+                        scratch.close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+                tempFile.delete();
+            } else if (!tempFile.delete()) {
+                Framework.trackFile(tempFile, doc);
+            }
+        }
+
+        return doc;
+    }
+
+    protected void recordFallback(File inFile, String inReason, long inStart,
+            IOException inError) {
+
+        long duration = System.nanoTime() - inStart;
+        MetricRegistry registry = PDFMetrics.getRegistry();
+        registry.counter(
+                PDFMetrics.name(DIRECT_FILE_ACCESS_METRICS, "fallbacks")).inc();
+        registry.timer(
+                PDFMetrics.name(DIRECT_FILE_ACCESS_METRICS, "discardedParse")).update(
+                duration, TimeUnit.NANOSECONDS);
+
+        if (log.isDebugEnabled()) {
+            log.debug(inFile + " is " + inReason
+                    + ", it is parsed again with the sequential parser ("
+                    + TimeUnit.NANOSECONDS.toMillis(duration)
+                    + " ms lost in the first parse)", inError);
+        }
+    }
+
+    /*
+     * The file is deleted as soon as it is opened, so the OS frees it when the
+     * scratch is closed (closing the PDDocument closes its scratch file). If it
+     * cannot be deleted while opened (Windows), it is deleted when the
+     * PDDocument is garbage collected.
+     */
+    protected PDDocument loadWithScratchFile(InputStream inStream)
+            throws IOException {
+
+        PDDocument doc = null;
+        File tempFile = File.createTempFile("nuxeo-pdfutils-scratch-", ".tmp");
+        RandomAccessFile scratch = new RandomAccessFile(tempFile, "rw");
+
+        try {
+            doc = PDDocument.load(inStream, scratch);
+        } finally {
+            if (doc == null) {
+                scratch.close();
+                tempFile.delete();
+            }
+        }
+
+        if (!tempFile.delete()) {
+            Framework.trackFile(tempFile, doc);
+        }
+
+        return doc;
+    }
+}
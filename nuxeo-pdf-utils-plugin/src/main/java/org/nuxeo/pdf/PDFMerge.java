@@ -18,6 +18,18 @@ package org.nuxeo.pdf;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -26,11 +38,16 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.util.PDFMergerUtility;
 import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
-import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.IterableQueryResult;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.blob.BlobManager;
+import org.nuxeo.ecm.core.blob.BlobManager.BlobInfo;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.pdf.PDFMetrics.PHASE;
 import org.nuxeo.runtime.api.Framework;
 
 /**
@@ -53,6 +70,19 @@ import org.nuxeo.runtime.api.Framework;
  * <p>
  * To let the caller be generic, it's ok to pass a null blob, it is just
  * ignored.
+ * <p>
+ * When merging a lot of PDFs, use <code>setStreamingMode(true)</code>: The
+ * sources are then appended one at a time to the destination and released
+ * right after, instead of keeping all of them in memory until the end (see
+ * <code>streamingMerge()</code>).
+ * <p>
+ * When adding a list of document IDs, only the blob columns are fetched, with
+ * one query per batch of <code>FETCH_BATCH_SIZE</code> IDs, and the blobs are
+ * kept in the order of the IDs. When not streaming, the streams of the
+ * sources are opened in parallel (see <code>setParallelism()</code>), so a
+ * slow binary store is not queried one blob after the other. In streaming
+ * mode, the next sources are loaded in the background while the current one
+ * is appended (see <code>setPrefetchCount()</code>).
  *
  * @since 5.9.6
  */
@@ -60,8 +90,25 @@ public class PDFMerge {
 
     public static final Log log = LogFactory.getLog(PDFMerge.class);
 
+    public static final int FETCH_BATCH_SIZE = 500;
+
+    // Columns of a blob property read by addBlobs(String[], ...)
+    protected static final String[] BLOB_COLUMNS = { "data", "name",
+            "mime-type", "encoding", "digest", "length" };
+
     protected BlobList blobs = new BlobList();
 
+    protected boolean streamingMode = false;
+
+    public static final int DEFAULT_PREFETCH_COUNT = 2;
+
+    protected int parallelism = Math.min(4,
+            Runtime.getRuntime().availableProcessors());
+
+    protected int prefetchCount = DEFAULT_PREFETCH_COUNT;
+
+    protected PDFOutputSink outputSink;
+
     public PDFMerge() {
 
     }
@@ -114,12 +161,186 @@ public class PDFMerge {
         }
     }
 
+    /**
+     * Add the blobs of the documents, in the order of <code>inDocIDs</code>.
+     * <p>
+     * The documents are not loaded: one <code>queryAndFetch</code> per batch
+     * of <code>FETCH_BATCH_SIZE</code> IDs reads only the columns of the blob
+     * at <code>inXPath</code>, and the blobs are then read from the blob
+     * manager. The query returns the rows in no particular order, so they are
+     * re-sorted to match <code>inDocIDs</code>. A document with no blob at
+     * <code>inXPath</code> is ignored, as in <code>addBlob(Blob)</code>.
+     *
+     * @param inDocIDs
+     * @param inXPath
+     * @param inSession
+     * @throws ClientException if a document is not found
+     */
     public void addBlobs(String[] inDocIDs, String inXPath,
             CoreSession inSession) {
+
+        if (inXPath == null || inXPath.isEmpty()) {
+            inXPath = "file:content";
+        }
+
+        Map<String, BlobInfo> infos = new HashMap<String, BlobInfo>();
+        for (int start = 0; start < inDocIDs.length; start += FETCH_BATCH_SIZE) {
+            int end = Math.min(start + FETCH_BATCH_SIZE, inDocIDs.length);
+            IterableQueryResult result = inSession.queryAndFetch(
+                    buildFetchQuery(inXPath, inDocIDs, start, end), NXQL.NXQL);
+            try {
+                for (Map<String, Serializable> row : result) {
+                    infos.put((String) row.get(NXQL.ECM_UUID),
+                            toBlobInfo(row, inXPath));
+                }
+            } finally {
+                result.close();
+            }
+        }
+
+        BlobManager blobManager = Framework.getLocalService(BlobManager.class);
+        String repositoryName = inSession.getRepositoryName();
         for (String id : inDocIDs) {
-            DocumentModel doc = inSession.getDocument(new IdRef(id));
-            addBlob(doc, inXPath);
+            if (!infos.containsKey(id)) {
+                throw new ClientException("Document not found: " + id);
+            }
+            BlobInfo info = infos.get(id);
+            if (info != null) {
+                try {
+                    addBlob(blobManager.readBlob(info, repositoryName));
+                } catch (IOException e) {
+                    throw new ClientException("Cannot read the blob of " + id,
+                            e);
+                }
+            }
+        }
+    }
+
+    protected static String buildFetchQuery(String inXPath, String[] inDocIDs,
+            int inStart, int inEnd) {
+
+        StringBuilder sb = new StringBuilder("SELECT ").append(NXQL.ECM_UUID);
+        for (String column : BLOB_COLUMNS) {
+            sb.append(", ").append(inXPath).append("/").append(column);
+        }
+        sb.append(" FROM Document WHERE ").append(NXQL.ECM_UUID).append(" IN (");
+        for (int i = inStart; i < inEnd; i++) {
+            if (i > inStart) {
+                sb.append(", ");
+            }
+            sb.append(NXQL.escapeString(inDocIDs[i]));
+        }
+        sb.append(")");
+
+        return sb.toString();
+    }
+
+    /*
+     * Returns null when the document has no blob at inXPath
+     */
+    protected static BlobInfo toBlobInfo(Map<String, Serializable> inRow,
+            String inXPath) {
+
+        String key = (String) inRow.get(inXPath + "/data");
+        if (key == null) {
+            return null;
         }
+
+        BlobInfo info = new BlobInfo();
+        info.key = key;
+        info.filename = (String) inRow.get(inXPath + "/name");
+        info.mimeType = (String) inRow.get(inXPath + "/mime-type");
+        info.encoding = (String) inRow.get(inXPath + "/encoding");
+        info.digest = (String) inRow.get(inXPath + "/digest");
+        Serializable length = inRow.get(inXPath + "/length");
+        info.length = length == null ? null : ((Number) length).longValue();
+
+        return info;
+    }
+
+    /**
+     * Return the blobs to merge, in merge order.
+     *
+     * @since 7.2
+     */
+    public BlobList getBlobs() {
+        return blobs;
+    }
+
+    public boolean isStreamingMode() {
+        return streamingMode;
+    }
+
+    /**
+     * When <code>true</code>, <code>merge()</code> appends the PDFs one at a
+     * time, so peak memory is bounded by the biggest PDF instead of the sum of
+     * all PDFs. Default is <code>false</code>.
+     *
+     * @param inValue
+     *
+     * @since 7.2
+     */
+    public void setStreamingMode(boolean inValue) {
+        streamingMode = inValue;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the max. number of threads used to open the streams of the sources
+     * when not in streaming mode. Values < 1 are realigned to 1.
+     *
+     * @param inValue
+     *
+     * @since 7.2
+     */
+    public void setParallelism(int inValue) {
+        parallelism = Math.max(1, inValue);
+    }
+
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    /**
+     * Set the max. number of sources loaded in advance in streaming mode,
+     * while the current one is appended. Each of them is in memory until it
+     * is appended, so peak memory grows with this value. 0 disables the
+     * prefetch (the sources are loaded and appended one after the other).
+     * Default is <code>DEFAULT_PREFETCH_COUNT</code>.
+     *
+     * @param inValue
+     *
+     * @since 7.2
+     */
+    public void setPrefetchCount(int inValue) {
+        prefetchCount = Math.max(0, inValue);
+    }
+
+    /**
+     * Return the sink used by <code>merge()</code> (default:
+     * <code>PDFOutputSink.getDefault()</code>)
+     *
+     * @since 7.2
+     */
+    public PDFOutputSink getOutputSink() {
+        return outputSink == null ? PDFOutputSink.getDefault() : outputSink;
+    }
+
+    /**
+     * Set where <code>merge()</code> saves the result. With a
+     * <code>PDFOutputSink.toStream()</code> sink, it returns null. A sink
+     * other than a temporary file implies the streaming mode, since
+     * <code>PDFMergerUtility#mergeDocuments</code> writes its result itself.
+     *
+     * @param inValue
+     *
+     * @since 7.2
+     */
+    public void setOutputSink(PDFOutputSink inValue) {
+        outputSink = inValue;
     }
 
     /**
@@ -159,46 +380,276 @@ public class PDFMerge {
 
         Blob finalBlob = null;
 
-        switch (blobs.size()) {
-        case 0:
-            finalBlob = null;
-            break;
-
-        case 1:
-            finalBlob = blobs.get(0);
-            break;
+        PDFMetrics metrics = PDFMetrics.start(PDFMetrics.OP_MERGE);
+        try {
+            switch (blobs.size()) {
+            case 0:
+                finalBlob = null;
+                break;
+
+            case 1:
+                finalBlob = blobs.get(0);
+                break;
+
+            default:
+                for (Blob b : blobs) {
+                    metrics.input(b);
+                }
+                PDFOutputSink sink = getOutputSink();
+
+                if (streamingMode
+                        || !(sink instanceof PDFOutputSink.TempFileSink)) {
+                    finalBlob = streamingMerge(sink, inTitle, inSubject,
+                            inAuthor, metrics);
+                } else {
+                    File tempFile = File.createTempFile("mergepdf", ".pdf");
+                    // PDFMergerUtility loads, merges and saves in one call
+                    metrics.phase(PHASE.LOAD);
+                    List<InputStream> streams = openStreams();
+                    try {
+                        metrics.phase(PHASE.PROCESS);
+                        PDFMergerUtility ut = new PDFMergerUtility();
+                        for (InputStream stream : streams) {
+                            ut.addSource(stream);
+                        }
+
+                        ut.setDestinationFileName(tempFile.getAbsolutePath());
+
+                        ut.mergeDocuments();
+                    } finally {
+                        closeSilently(streams);
+                    }
+
+                    if (inTitle != null || inAuthor != null
+                            || inSubject != null) {
+                        metrics.phase(PHASE.LOAD);
+                        PDDocument finalDoc = PDFMemoryPolicy.getDefault().load(
+                                tempFile);
+                        metrics.pages(finalDoc.getNumberOfPages());
+                        PDFUtils.setInfos(finalDoc, inTitle, inSubject,
+                                inAuthor);
+                        metrics.phase(PHASE.SAVE);
+                        finalDoc.save(tempFile);
+                        finalDoc.close();
+                    }
+
+                    finalBlob = new FileBlob(tempFile);
+                    Framework.trackFile(tempFile, finalBlob);
+                }
+
+                if (finalBlob != null) {
+                    if (inFileName != null && !inFileName.isEmpty()) {
+                        finalBlob.setFilename(inFileName);
+                    } else {
+                        finalBlob.setFilename(blobs.get(0).getFilename());
+                    }
+                    finalBlob.setMimeType("application/pdf");
+                }
+                metrics.output(finalBlob);
+                break;
 
-        default:
-            PDFMergerUtility ut = new PDFMergerUtility();
-            for (Blob b : blobs) {
-                ut.addSource(b.getStream());
             }
+            metrics.succeeded();
+        } finally {
+            metrics.stop();
+        }
 
-            File tempFile = File.createTempFile("mergepdf", ".pdf");
-            ut.setDestinationFileName(tempFile.getAbsolutePath());
+        return finalBlob;
+    }
+
+    /**
+     * Appends each source to the first one, one at a time.
+     * <p>
+     * <code>PDFMergerUtility#appendDocument</code> clones the pages of the
+     * source in the destination, so the source can be closed right after
+     * being appended: At any time, only the destination, the current source
+     * and the prefetched sources are loaded. The destination always uses a
+     * scratch file, so the cloned streams don't pile up in the heap either.
+     * The sources are loaded using the default <code>PDFMemoryPolicy</code>.
+     * <p>
+     * The sources are loaded by a background thread, up to
+     * <code>getPrefetchCount()</code> sources ahead of the one being appended,
+     * so fetching and parsing the next sources overlaps with the append of
+     * the current one. The LOAD phase of the metrics then only measures the
+     * wait for a source that is not ready yet.
+     * <p>
+     * The title, subject and author (if any) are set before the single save,
+     * so the result does not need to be loaded again.
+     *
+     * @param inSink
+     * @param inTitle
+     * @param inSubject
+     * @param inAuthor
+     * @param inMetrics
+     * @return the merged PDF, or null if the sink does not create a blob
+     * @throws IOException
+     * @throws COSVisitorException
+     *
+     * @since 7.2
+     */
+    protected Blob streamingMerge(PDFOutputSink inSink, String inTitle,
+            String inSubject, String inAuthor, PDFMetrics inMetrics)
+            throws IOException, COSVisitorException {
+
+        PDFMergerUtility ut = new PDFMergerUtility();
+        final PDFMemoryPolicy policy = PDFMemoryPolicy.getDefault();
+        PDDocument destination = null;
+        ExecutorService loader = null;
+        LinkedList<Future<PDDocument>> pending = new LinkedList<Future<PDDocument>>();
+
+        try {
+            int max = blobs.size();
+            int next = 1;
+            if (prefetchCount > 0) {
+                loader = Executors.newSingleThreadExecutor();
+                for (; next < max && next <= prefetchCount; next++) {
+                    pending.add(loader.submit(newLoadTask(policy,
+                            blobs.get(next))));
+                }
+            }
 
-            ut.mergeDocuments();
+            inMetrics.phase(PHASE.LOAD);
+            destination = policy.loadWithScratchFile(blobs.get(0).getStream());
+
+            for (int i = 1; i < max; i++) {
+                PDDocument source = null;
+                try {
+                    inMetrics.phase(PHASE.LOAD);
+                    if (loader == null) {
+                        source = policy.load(blobs.get(i));
+                    } else {
+                        source = pending.removeFirst().get();
+                        if (next < max) {
+                            pending.add(loader.submit(newLoadTask(policy,
+                                    blobs.get(next))));
+                            next += 1;
+                        }
+                    }
+                    inMetrics.phase(PHASE.PROCESS);
+                    ut.appendDocument(destination, source);
+                } finally {
+                    PDFUtils.closeSilently(source);
+                }
+            }
 
-            if (inTitle != null || inAuthor != null || inSubject != null) {
-                PDDocument finalDoc = PDDocument.load(tempFile);
-                PDFUtils.setInfos(finalDoc, inTitle, inSubject, inAuthor);
-                finalDoc.save(tempFile);
-                finalDoc.close();
+            PDFUtils.setInfos(destination, inTitle, inSubject, inAuthor);
+            inMetrics.pages(destination.getNumberOfPages());
+            inMetrics.phase(PHASE.SAVE);
+            return inSink.save(destination);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
+            throw new ClientException(cause);
+        } finally {
+            PDFUtils.closeSilently(destination);
+            if (loader != null) {
+                // The tasks still queued will never run: Cancel them so their
+                // Future completes. Then close the sources loaded but not
+                // appended (error), waiting only for the load in progress.
+                for (Runnable task : loader.shutdownNow()) {
+                    ((Future<?>) task).cancel(false);
+                }
+                for (Future<PDDocument> future : pending) {
+                    if (future.isCancelled()) {
+                        continue;
+                    }
+                    try {
+                        PDFUtils.closeSilently(future.get());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        // Nothing to close
+                    }
+                }
+            }
+        }
+    }
 
-            finalBlob = new FileBlob(tempFile);
-            Framework.trackFile(tempFile, finalBlob);
+    protected static Callable<PDDocument> newLoadTask(
+            final PDFMemoryPolicy inPolicy, final Blob inBlob) {
 
-            if (inFileName != null && !inFileName.isEmpty()) {
-                finalBlob.setFilename(inFileName);
-            } else {
-                finalBlob.setFilename(blobs.get(0).getFilename());
+        return new Callable<PDDocument>() {
+            @Override
+            public PDDocument call() throws Exception {
+                return inPolicy.load(inBlob);
             }
-            finalBlob.setMimeType("application/pdf");
-            break;
+        };
+    }
 
+    /**
+     * Open the streams of all the blobs, in parallel (using at most
+     * <code>getParallelism()</code> threads). The streams are returned in
+     * merge order. If one fails, the others are closed.
+     *
+     * @return the streams
+     * @throws IOException
+     *
+     * @since 7.2
+     */
+    protected List<InputStream> openStreams() throws IOException {
+
+        List<InputStream> streams = new ArrayList<InputStream>();
+        List<Future<InputStream>> futures = new ArrayList<Future<InputStream>>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+                Math.min(parallelism, blobs.size())));
+        boolean ok = false;
+
+        try {
+            for (final Blob b : blobs) {
+                futures.add(executor.submit(new Callable<InputStream>() {
+                    @Override
+                    public InputStream call() throws Exception {
+                        return b.getStream();
+                    }
+                }));
+            }
+            for (Future<InputStream> future : futures) {
+                streams.add(future.get());
+            }
+            ok = true;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new ClientException(cause);
+        } finally {
+            executor.shutdown();
+            if (!ok) {
+                // Close every stream already or still being opened
+                List<InputStream> opened = new ArrayList<InputStream>();
+                for (Future<InputStream> future : futures) {
+                    try {
+                        opened.add(future.get());
+                    } catch (InterruptedException | ExecutionException e) {
+                        // Nothing to close
+                    }
+                }
+                closeSilently(opened);
+            }
         }
 
-        return finalBlob;
+        return streams;
+    }
+
+    protected static void closeSilently(List<InputStream> inStreams) {
+
+        for (InputStream stream : inStreams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                log.warn("Cannot close a source stream", e);
+            }
+        }
     }
 }
@@ -0,0 +1,259 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.platform.picture.api.BlobHelper;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+/**
+ * Records the metrics of one call to a PDF operation, in the metric registry
+ * of Nuxeo (so they are reported the same way as the other metrics of the
+ * server: JMX, Graphite, ...).
+ * <p>
+ * For an operation <code>op</code>, the metrics are:
+ * <ul>
+ * <li><code>nuxeo.pdfutils.op.load</code>, <code>.process</code>,
+ * <code>.save</code>: Timers of each phase. A phase can be entered several
+ * times in the same call (merging several PDFs loads each of them), the
+ * durations are summed and recorded once at the end of the call</li>
+ * <li><code>nuxeo.pdfutils.op.total</code>: Timer of the whole call</li>
+ * <li><code>nuxeo.pdfutils.op.inputBytes</code>,
+ * <code>.outputBytes</code>, <code>.pages</code>,
+ * <code>.tempFileBytes</code>: Histograms</li>
+ * <li><code>nuxeo.pdfutils.op.errors</code>: Counter of the calls ended
+ * without <code>succeeded()</code></li>
+ * </ul>
+ * Typical use:
+ *
+ * <pre>
+ * PDFMetrics metrics = PDFMetrics.start(PDFMetrics.OP_XXX);
+ * try {
+ *     metrics.phase(PHASE.LOAD);
+ *     ...
+ *     metrics.phase(PHASE.SAVE);
+ *     ...
+ *     metrics.succeeded();
+ * } finally {
+ *     metrics.stop();
+ * }
+ * </pre>
+ *
+ * An instance is used by one thread only.
+ *
+ * @since 7.2
+ */
+public class PDFMetrics {
+
+    // Name of the registry used by the MetricsService of Nuxeo
+    public static final String REGISTRY_NAME = "org.nuxeo.runtime.metrics.MetricsService";
+
+    public static final String PREFIX = "nuxeo.pdfutils";
+
+    public static final String OP_MERGE = "merge";
+
+    public static final String OP_EXTRACT_PAGES = "extractPages";
+
+    public static final String OP_SPLIT = "split";
+
+    public static final String OP_EXTRACT_TEXT = "extractText";
+
+    public static final String OP_WATERMARK_WITH_TEXT = "watermarkWithText";
+
+    public static final String OP_WATERMARK_WITH_PDF = "watermarkWithPdf";
+
+    public static final String OP_WATERMARK_WITH_IMAGE = "watermarkWithImage";
+
+    public static final String OP_ADD_PAGE_NUMBERS = "addPageNumbers";
+
+    public static final String OP_INFO = "info";
+
+    public static final String OP_PIPELINE = "pipeline";
+
+    public enum PHASE {
+        LOAD, PROCESS, SAVE
+    };
+
+    protected String operation;
+
+    protected long startTime;
+
+    protected PHASE currentPhase;
+
+    protected long currentPhaseStart;
+
+    protected long[] phaseDurations = new long[PHASE.values().length];
+
+    protected long inputBytes = -1;
+
+    protected long outputBytes = -1;
+
+    protected long tempFileBytes = -1;
+
+    protected int pages = -1;
+
+    protected boolean succeeded = false;
+
+    protected boolean stopped = false;
+
+    protected PDFMetrics(String inOperation) {
+        operation = inOperation;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Start recording a call to <code>inOperation</code>.
+     *
+     * @param inOperation
+     * @return the new PDFMetrics
+     */
+    public static PDFMetrics start(String inOperation) {
+        return new PDFMetrics(inOperation);
+    }
+
+    public static MetricRegistry getRegistry() {
+        return SharedMetricRegistries.getOrCreate(REGISTRY_NAME);
+    }
+
+    /**
+     * Return the full name of a metric of an operation:
+     * <code>nuxeo.pdfutils.inOperation.inMetric</code>
+     *
+     * @param inOperation
+     * @param inMetric
+     * @return the name
+     */
+    public static String name(String inOperation, String inMetric) {
+        return MetricRegistry.name(PREFIX, inOperation, inMetric);
+    }
+
+    /**
+     * End the current phase (if any) and start <code>inPhase</code>.
+     *
+     * @param inPhase
+     * @return this
+     */
+    public PDFMetrics phase(PHASE inPhase) {
+
+        long now = System.nanoTime();
+        endPhase(now);
+        currentPhase = inPhase;
+        currentPhaseStart = now;
+        return this;
+    }
+
+    protected void endPhase(long inNow) {
+        if (currentPhase != null) {
+            phaseDurations[currentPhase.ordinal()] += inNow - currentPhaseStart;
+            currentPhase = null;
+        }
+    }
+
+    /**
+     * Add the length of <code>inBlob</code> (if known) to the input bytes.
+     *
+     * @param inBlob
+     * @return this
+     */
+    public PDFMetrics input(Blob inBlob) {
+
+        if (inBlob != null && inBlob.getLength() >= 0) {
+            inputBytes = Math.max(inputBytes, 0) + inBlob.getLength();
+        }
+        return this;
+    }
+
+    /**
+     * Add the length of <code>inBlob</code> to the output bytes, and the size
+     * of its file to the temporary files if it is backed by a file
+     * (<code>FileBlob</code>, blob of a local binary store, ...).
+     *
+     * @param inBlob
+     * @return this
+     */
+    public PDFMetrics output(Blob inBlob) {
+
+        if (inBlob != null && inBlob.getLength() >= 0) {
+            outputBytes = Math.max(outputBytes, 0) + inBlob.getLength();
+            File file = BlobHelper.getFileFromBlob(inBlob);
+            if (file != null) {
+                tempFileBytes = Math.max(tempFileBytes, 0) + file.length();
+            }
+        }
+        return this;
+    }
+
+    public PDFMetrics pages(int inCount) {
+        pages = inCount;
+        return this;
+    }
+
+    public PDFMetrics succeeded() {
+        succeeded = true;
+        return this;
+    }
+
+    /**
+     * End the current phase and update the metrics. Calling it again does
+     * nothing.
+     */
+    public void stop() {
+
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+
+        long now = System.nanoTime();
+        endPhase(now);
+
+        MetricRegistry registry = getRegistry();
+        for (PHASE phase : PHASE.values()) {
+            long duration = phaseDurations[phase.ordinal()];
+            if (duration > 0) {
+                registry.timer(name(operation, phase.name().toLowerCase())).update(
+                        duration, TimeUnit.NANOSECONDS);
+            }
+        }
+        registry.timer(name(operation, "total")).update(now - startTime,
+                TimeUnit.NANOSECONDS);
+
+        if (inputBytes >= 0) {
+            registry.histogram(name(operation, "inputBytes")).update(
+                    inputBytes);
+        }
+        if (outputBytes >= 0) {
+            registry.histogram(name(operation, "outputBytes")).update(
+                    outputBytes);
+        }
+        if (tempFileBytes >= 0) {
+            registry.histogram(name(operation, "tempFileBytes")).update(
+                    tempFileBytes);
+        }
+        if (pages >= 0) {
+            registry.histogram(name(operation, "pages")).update(pages);
+        }
+        if (!succeeded) {
+            registry.counter(name(operation, "errors")).inc();
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pdfbox.exceptions.COSVisitorException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.impl.blob.AbstractBlob;
+import org.nuxeo.ecm.core.api.repository.RepositoryManager;
+import org.nuxeo.ecm.core.blob.BlobManager;
+import org.nuxeo.ecm.core.blob.BlobProvider;
+import org.nuxeo.ecm.core.blob.binary.Binary;
+import org.nuxeo.ecm.core.blob.binary.BinaryBlob;
+import org.nuxeo.ecm.core.blob.binary.BinaryManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Where a modified or generated PDF is saved.
+ * <ul>
+ * <li><code>toTempFile()</code>: A temporary file, wrapped in a
+ * <code>FileBlob</code>. This is what the plug-in always did. When the blob is
+ * then stored in a document, Nuxeo copies it again in the binary store.</li>
+ * <li><code>toBinaryStore()</code>: The PDF is streamed directly to the
+ * binary manager of a repository, which computes the digest while storing
+ * it. The returned blob is already in the binary store, so storing it in a
+ * document of this repository does not copy it again.</li>
+ * <li><code>toStream()</code>: The PDF is written to a stream provided by the
+ * caller (an HTTP response, ...). No blob is returned.</li>
+ * </ul>
+ * The classes of this plug-in save their results through
+ * <code>PDFOutputSink.getDefault()</code>, read from the configuration
+ * (nuxeo.conf):
+ * <ul>
+ * <li><code>nuxeo.pdfutils.output.sink</code>: <code>tempFile</code> (default)
+ * or <code>binaryStore</code></li>
+ * <li><code>nuxeo.pdfutils.output.repository</code>: With
+ * <code>binaryStore</code>, the repository whose binary manager is used.
+ * Default is the default repository.</li>
+ * </ul>
+ * If the repository has no binary manager, <code>binaryStore</code> falls
+ * back to a temporary file.
+ *
+ * @since 7.2
+ */
+public abstract class PDFOutputSink {
+
+    private static Log log = LogFactory.getLog(PDFOutputSink.class);
+
+    public static final String SINK_PROPERTY = "nuxeo.pdfutils.output.sink";
+
+    public static final String REPOSITORY_PROPERTY = "nuxeo.pdfutils.output.repository";
+
+    public static final String PDF_MIME_TYPE = "application/pdf";
+
+    protected static final int PIPE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Save the document.
+     *
+     * @param inPdfDoc
+     * @return the saved PDF, or null if the sink does not create a blob
+     * @throws IOException
+     * @throws COSVisitorException
+     */
+    public abstract Blob save(PDDocument inPdfDoc) throws IOException,
+            COSVisitorException;
+
+    /**
+     * Tells if <code>save()</code> returns a blob.
+     */
+    public boolean createsBlob() {
+        return true;
+    }
+
+    /**
+     * Return the sink set in the configuration.
+     *
+     * @return the sink
+     */
+    public static PDFOutputSink getDefault() {
+
+        String value = Framework.getProperty(SINK_PROPERTY, "tempFile");
+        if ("binaryStore".equalsIgnoreCase(value.trim())) {
+            return toBinaryStore(Framework.getProperty(REPOSITORY_PROPERTY));
+        }
+        return toTempFile();
+    }
+
+    public static PDFOutputSink toTempFile() {
+        return new TempFileSink();
+    }
+
+    /**
+     * @param inRepositoryName null or "" for the default repository
+     * @return the sink
+     */
+    public static PDFOutputSink toBinaryStore(String inRepositoryName) {
+        return new BinaryStoreSink(inRepositoryName);
+    }
+
+    /**
+     * The stream is not closed by the sink.
+     *
+     * @param inStream
+     * @return the sink
+     */
+    public static PDFOutputSink toStream(OutputStream inStream) {
+        return new OutputStreamSink(inStream);
+    }
+
+    public static class TempFileSink extends PDFOutputSink {
+
+        @Override
+        public Blob save(PDDocument inPdfDoc) throws IOException,
+                COSVisitorException {
+            return PDFUtils.saveInTempFile(inPdfDoc);
+        }
+    }
+
+    public static class OutputStreamSink extends PDFOutputSink {
+
+        protected OutputStream out;
+
+        public OutputStreamSink(OutputStream inStream) {
+            out = inStream;
+        }
+
+        @Override
+        public Blob save(PDDocument inPdfDoc) throws IOException,
+                COSVisitorException {
+            inPdfDoc.save(out);
+            out.flush();
+            return null;
+        }
+
+        @Override
+        public boolean createsBlob() {
+            return false;
+        }
+    }
+
+    /**
+     * PDFBox writes the PDF in a pipe, and the binary manager reads it in
+     * another thread. So the PDF is written only once on disk, in the binary
+     * store.
+     * <p>
+     * If the writing fails, the pipe is aborted: The binary manager gets an
+     * error instead of the end of the stream, so a truncated PDF is not
+     * stored. If the writing fails because the binary manager failed (and
+     * closed the pipe), the error of the binary manager is reported.
+     */
+    public static class BinaryStoreSink extends PDFOutputSink {
+
+        protected String repositoryName;
+
+        public BinaryStoreSink(String inRepositoryName) {
+            repositoryName = inRepositoryName;
+        }
+
+        protected BinaryManager getBinaryManager() {
+
+            String repo = repositoryName;
+            if (repo == null || repo.isEmpty()) {
+                repo = Framework.getLocalService(RepositoryManager.class).getDefaultRepositoryName();
+            }
+            BlobManager blobManager = Framework.getLocalService(BlobManager.class);
+            BlobProvider provider = blobManager == null ? null
+                    : blobManager.getBlobProvider(repo);
+            return provider == null ? null : provider.getBinaryManager();
+        }
+
+        /*
+         * Called in the reader thread
+         */
+        protected Binary store(BinaryManager inBinaryManager, Blob inBlob)
+                throws IOException {
+            return inBinaryManager.getBinary(inBlob);
+        }
+
+        @Override
+        public Blob save(PDDocument inPdfDoc) throws IOException,
+                COSVisitorException {
+
+            final BinaryManager binaryManager = getBinaryManager();
+            if (binaryManager == null) {
+                log.warn("No binary manager for repository " + repositoryName
+                        + ", saving in a temporary file");
+                return PDFUtils.saveInTempFile(inPdfDoc);
+            }
+
+            final AbortablePipedInputStream in = new AbortablePipedInputStream(
+                    PIPE_BUFFER_SIZE);
+            CountingOutputStream out = new CountingOutputStream(
+                    new PipedOutputStream(in));
+
+            ExecutorService reader = Executors.newSingleThreadExecutor();
+            try {
+                Future<Binary> future = reader.submit(new Callable<Binary>() {
+                    @Override
+                    public Binary call() throws Exception {
+                        try {
+                            return store(binaryManager, new PipeBlob(in));
+                        } finally {
+                            // Unblocks the writer if the binary manager
+                            // failed before reading everything
+                            in.close();
+                        }
+                    }
+                });
+
+                try {
+                    inPdfDoc.save(out);
+                } catch (IOException | COSVisitorException | RuntimeException e) {
+                    in.abort(e);
+                    out.close();
+                    Throwable readerFailure = getReaderFailure(future, in);
+                    if (readerFailure != null) {
+                        IOException failure = new IOException(
+                                "The binary manager failed to store the PDF",
+                                readerFailure);
+                        failure.addSuppressed(e);
+                        throw failure;
+                    }
+                    throw e;
+                }
+                out.close();
+
+                Binary binary = future.get();
+                BinaryBlob result = new BinaryBlob(binary, binary.getDigest(),
+                        null, PDF_MIME_TYPE, null, binary.getDigest(),
+                        out.getByteCount());
+                return result;
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ClientException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new ClientException(cause);
+            } finally {
+                reader.shutdownNow();
+            }
+        }
+    }
+
+    /*
+     * The failure of the binary manager, ignoring the abort of the pipe (the
+     * writer failed first). The binary manager stops as soon as the pipe is
+     * aborted.
+     */
+    protected static Throwable getReaderFailure(Future<Binary> inFuture,
+            AbortablePipedInputStream inPipe) {
+
+        try {
+            inFuture.get();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+                if (t == inPipe.getAbortCause()) {
+                    return null;
+                }
+            }
+            return e.getCause();
+        }
+    }
+
+    /*
+     * Once aborted, reading fails, even if the writer closed the pipe: The
+     * reader never sees the end of the stream.
+     */
+    protected static class AbortablePipedInputStream extends PipedInputStream {
+
+        protected volatile IOException abortCause;
+
+        protected AbortablePipedInputStream(int inPipeSize) {
+            super(inPipeSize);
+        }
+
+        public void abort(Throwable inCause) {
+            abortCause = new IOException("The PDF could not be written",
+                    inCause);
+        }
+
+        public IOException getAbortCause() {
+            return abortCause;
+        }
+
+        protected void checkAborted() throws IOException {
+            if (abortCause != null) {
+                throw abortCause;
+            }
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            checkAborted();
+            int value = super.read();
+            checkAborted();
+            return value;
+        }
+
+        @Override
+        public synchronized int read(byte[] inBuffer, int inOffset,
+                int inLength) throws IOException {
+            checkAborted();
+            int count = super.read(inBuffer, inOffset, inLength);
+            checkAborted();
+            return count;
+        }
+    }
+
+    /*
+     * A blob whose stream is the read end of the pipe. It can be read only
+     * once.
+     */
+    protected static class PipeBlob extends AbstractBlob {
+
+        private static final long serialVersionUID = 1L;
+
+        protected transient InputStream in;
+
+        protected PipeBlob(InputStream inStream) {
+            in = inStream;
+            setMimeType(PDF_MIME_TYPE);
+        }
+
+        @Override
+        public InputStream getStream() throws IOException {
+            return in;
+        }
+    }
+}
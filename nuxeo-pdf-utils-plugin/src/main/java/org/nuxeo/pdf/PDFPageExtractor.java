@@ -17,18 +17,29 @@
 package org.nuxeo.pdf;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.exceptions.COSVisitorException;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.util.PageExtractor;
+import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.pdf.PDFMetrics.PHASE;
 
 /**
  * Extract pages from a PDF
+ * <p>
+ * <code>extract()</code> returns one range of pages. To split a PDF in several
+ * PDFs, use <code>split()</code> or <code>splitEvery()</code>, which parse the
+ * source only once.
  *
  * @since 5.9.5
  */
@@ -98,38 +109,35 @@ public class PDFPageExtractor {
         PDDocument pdfDoc = null;
         PDDocument extracted = null;
 
+        PDFMetrics metrics = PDFMetrics.start(PDFMetrics.OP_EXTRACT_PAGES).input(
+                pdfBlob);
         try {
-            pdfDoc = PDDocument.load(pdfBlob.getStream());
+            metrics.phase(PHASE.LOAD);
+            pdfDoc = PDFMemoryPolicy.getDefault().load(pdfBlob);
 
+            metrics.phase(PHASE.PROCESS);
             PageExtractor pe = new PageExtractor(pdfDoc, inStartPage, inEndPage);
             extracted = pe.extract();
 
             PDFUtils.setInfos(extracted, inTitle, inSubject, inAuthor);
+            metrics.pages(extracted.getNumberOfPages());
 
-            result = PDFUtils.saveInTempFile(extracted);
+            metrics.phase(PHASE.SAVE);
+            result = PDFUtils.save(extracted);
 
             result.setMimeType("application/pdf");
 
             if (inFileName == null || inFileName.isEmpty()) {
-                String originalName = pdfBlob.getFilename();
-                if (originalName == null || originalName.isEmpty()) {
-                    originalName = "extracted";
-                } else {
-                    int pos = originalName.toLowerCase().lastIndexOf(".pdf");
-                    if (pos > 0) {
-                        originalName = originalName.substring(0, pos);
-                    }
-
-                }
-                inFileName = originalName + "-" + inStartPage + "-" + inEndPage
-                        + ".pdf";
+                inFileName = buildFileName(inStartPage, inEndPage);
             }
             result.setFilename(inFileName);
             extracted.close();
+            metrics.output(result).succeeded();
 
         } catch (IOException | COSVisitorException e) {
             throw new ClientException(e);
         } finally {
+            metrics.stop();
             if (pdfDoc != null) {
                 try {
                     pdfDoc.close();
@@ -149,4 +157,214 @@ public class PDFPageExtractor {
         return result;
     }
 
+    /**
+     * Split the PDF in PDFs of <code>inPagesPerFile</code> pages. The last PDF
+     * contains the remaining pages.
+     * <p>
+     * See <code>split()</code>.
+     *
+     * @param inPagesPerFile
+     * @param inTitle
+     * @param inSubject
+     * @param inAuthor
+     * @return the list of PDFs
+     *
+     * @since 7.2
+     */
+    public BlobList splitEvery(int inPagesPerFile, String inTitle,
+            String inSubject, String inAuthor) {
+
+        if (inPagesPerFile < 1) {
+            throw new ClientException("The number of pages per file must be > 0");
+        }
+
+        PDDocument pdfDoc = null;
+        PDFMetrics metrics = PDFMetrics.start(PDFMetrics.OP_SPLIT).input(
+                pdfBlob);
+        try {
+            metrics.phase(PHASE.LOAD);
+            pdfDoc = PDFMemoryPolicy.getDefault().load(pdfBlob);
+
+            List<int[]> ranges = new ArrayList<int[]>();
+            int count = pdfDoc.getNumberOfPages();
+            for (int start = 1; start <= count; start += inPagesPerFile) {
+                ranges.add(new int[] { start,
+                        Math.min(start + inPagesPerFile - 1, count) });
+            }
+
+            return split(pdfDoc, ranges, inTitle, inSubject, inAuthor, metrics);
+
+        } catch (IOException e) {
+            throw new ClientException(e);
+        } finally {
+            PDFUtils.closeSilently(pdfDoc);
+            metrics.stop();
+        }
+    }
+
+    /**
+     * Return one Blob per range of pages, in the same order as
+     * <code>inRanges</code>. Each range is an array of 2 int: The start page
+     * and the end page (inclusive), following the same rules as
+     * <code>extract()</code> (realignment of the pages, file name, title,
+     * subject and author).
+     * <p>
+     * The source PDF is parsed only once, then each range is extracted and
+     * saved one after the other.
+     *
+     * @param inRanges
+     * @param inTitle
+     * @param inSubject
+     * @param inAuthor
+     * @return the list of PDFs
+     *
+     * @since 7.2
+     */
+    public BlobList split(List<int[]> inRanges, String inTitle,
+            String inSubject, String inAuthor) {
+
+        PDDocument pdfDoc = null;
+        PDFMetrics metrics = PDFMetrics.start(PDFMetrics.OP_SPLIT).input(
+                pdfBlob);
+        try {
+            metrics.phase(PHASE.LOAD);
+            pdfDoc = PDFMemoryPolicy.getDefault().load(pdfBlob);
+
+            return split(pdfDoc, inRanges, inTitle, inSubject, inAuthor,
+                    metrics);
+
+        } catch (IOException e) {
+            throw new ClientException(e);
+        } finally {
+            PDFUtils.closeSilently(pdfDoc);
+            metrics.stop();
+        }
+    }
+
+    /*
+     * The extracted PDFs share the resources (fonts, images, ...) and the
+     * content streams of the source. These COS objects are not thread safe
+     * and COSWriter updates the dictionary of the streams it writes (/Length),
+     * so the PDFs are saved one after the other. Each one is closed as soon as
+     * its blob is written, and the source must stay opened until the end.
+     */
+    protected BlobList split(PDDocument inPdfDoc, List<int[]> inRanges,
+            String inTitle, String inSubject, String inAuthor,
+            PDFMetrics inMetrics) throws IOException {
+
+        BlobList result = new BlobList();
+
+        inMetrics.phase(PHASE.PROCESS);
+        @SuppressWarnings("unchecked")
+        List<PDPage> pages = inPdfDoc.getDocumentCatalog().getAllPages();
+        inMetrics.pages(pages.size());
+
+        inMetrics.phase(PHASE.SAVE);
+        for (int[] range : inRanges) {
+            PDDocument extracted = extractRange(inPdfDoc, pages, range[0],
+                    range[1]);
+            try {
+                PDFUtils.setInfos(extracted, inTitle, inSubject, inAuthor);
+                Blob blob = PDFUtils.save(extracted);
+                blob.setFilename(buildFileName(range[0], range[1]));
+                inMetrics.output(blob);
+                result.add(blob);
+            } catch (COSVisitorException e) {
+                throw new ClientException(e);
+            } finally {
+                PDFUtils.closeSilently(extracted);
+            }
+        }
+        inMetrics.succeeded();
+
+        return result;
+    }
+
+    /*
+     * Same as PDFBox PageExtractor, but uses the already loaded list of pages
+     * and gives its own copy of the document information to the extracted PDF
+     * (PageExtractor shares it with the source)
+     */
+    protected PDDocument extractRange(PDDocument inSource, List<PDPage> inPages,
+            int inStartPage, int inEndPage) throws IOException {
+
+        PDDocument extracted = new PDDocument();
+
+        PDDocumentInformation info = inSource.getDocumentInformation();
+        extracted.setDocumentInformation(new PDDocumentInformation(
+                new COSDictionary(info.getDictionary())));
+        extracted.getDocumentCatalog().setViewerPreferences(
+                inSource.getDocumentCatalog().getViewerPreferences());
+
+        int start = Math.max(inStartPage, 1);
+        int end = Math.min(inEndPage, inPages.size());
+        for (int i = start; i <= end; i++) {
+            PDPage page = inPages.get(i - 1);
+            PDPage imported = extracted.importPage(page);
+            imported.setCropBox(page.findCropBox());
+            imported.setMediaBox(page.findMediaBox());
+            imported.setResources(page.findResources());
+            imported.setRotation(page.findRotation());
+        }
+
+        return extracted;
+    }
+
+    /*
+     * mydoc.pdf and pages 10-75 => mydoc-10-75.pdf
+     */
+    protected String buildFileName(int inStartPage, int inEndPage) {
+
+        String originalName = pdfBlob.getFilename();
+        if (originalName == null || originalName.isEmpty()) {
+            originalName = "extracted";
+        } else {
+            int pos = originalName.toLowerCase().lastIndexOf(".pdf");
+            if (pos > 0) {
+                originalName = originalName.substring(0, pos);
+            }
+
+        }
+        return originalName + "-" + inStartPage + "-" + inEndPage + ".pdf";
+    }
+
+    /**
+     * Parse a list of ranges such as "1-5, 6-10, 11". A single page number is
+     * a range of one page.
+     *
+     * @param inRanges
+     * @return the list of ranges, as expected by <code>split()</code>
+     *
+     * @since 7.2
+     */
+    public static List<int[]> parseRanges(String inRanges) {
+
+        List<int[]> ranges = new ArrayList<int[]>();
+        if (inRanges == null) {
+            return ranges;
+        }
+
+        try {
+            for (String range : inRanges.split(",")) {
+                range = range.trim();
+                if (range.isEmpty()) {
+                    continue;
+                }
+                int pos = range.indexOf('-');
+                if (pos < 0) {
+                    int page = Integer.parseInt(range);
+                    ranges.add(new int[] { page, page });
+                } else {
+                    ranges.add(new int[] {
+                            Integer.parseInt(range.substring(0, pos).trim()),
+                            Integer.parseInt(range.substring(pos + 1).trim()) });
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new ClientException("Invalid page ranges: " + inRanges, e);
+        }
+
+        return ranges;
+    }
+
 }
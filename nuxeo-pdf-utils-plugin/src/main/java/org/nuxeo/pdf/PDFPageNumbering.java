@@ -16,21 +16,19 @@
  */
 package org.nuxeo.pdf;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 
 import org.apache.pdfbox.exceptions.COSVisitorException;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.font.PDFont;
-import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.DocumentModel;
-import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
-import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.pdf.PDFMetrics.PHASE;
 
 /**
  * Add page numbers to a PDF, with misc. paramegeres (font, size, color,
@@ -48,6 +46,8 @@ public class PDFPageNumbering {
 
     protected Blob blob;
 
+    protected PDFOutputSink outputSink;
+
     public PDFPageNumbering(Blob inBlob) {
         blob = inBlob;
     }
@@ -104,105 +104,163 @@ public class PDFPageNumbering {
         Blob result = null;
         PDDocument doc = null;
 
+        PDFMetrics metrics = PDFMetrics.start(PDFMetrics.OP_ADD_PAGE_NUMBERS).input(
+                blob);
+        try {
+            metrics.phase(PHASE.LOAD);
+            doc = PDFMemoryPolicy.getDefault().load(blob);
+            metrics.pages(doc.getNumberOfPages());
+
+            metrics.phase(PHASE.PROCESS);
+            addPageNumbers(doc, inStartAtPage, inStartAtNumber, inFontName,
+                    inFontSize, inHex255Color, inPosition);
+
+            metrics.phase(PHASE.SAVE);
+            result = getOutputSink().save(doc);
+            metrics.output(result).succeeded();
+
+        } finally {
+            if (doc != null) {
+                doc.close();
+            }
+            metrics.stop();
+        }
+
+        return result;
+    }
+
+    /**
+     * Add page numbers to an already loaded PDF. The document is not saved,
+     * the caller is in charge of saving and closing it.
+     * <p>
+     * See <code>addPageNumbers(int, int, String, float, String,
+     * PAGE_NUMBER_POSITION)</code> for the default values.
+     *
+     * @param inDoc
+     * @param inStartAtPage
+     * @param inStartAtNumber
+     * @param inFontName
+     * @param inFontSize
+     * @param inHex255Color
+     * @param inPosition
+     * @throws IOException
+     *
+     * @since 7.2
+     */
+    public static void addPageNumbers(PDDocument inDoc, int inStartAtPage,
+            int inStartAtNumber, String inFontName, float inFontSize,
+            String inHex255Color, PAGE_NUMBER_POSITION inPosition)
+            throws IOException {
+
         inStartAtPage = inStartAtPage < 1 ? 1 : inStartAtPage;
         int pageNumber = inStartAtNumber < 1 ? 1 : inStartAtNumber;
         inFontSize = inFontSize <= 0 ? DEFAULT_FONT_SIZE : inFontSize;
 
         int[] rgb = PDFUtils.hex255ToRGB(inHex255Color);
 
-        try {
-            doc = PDDocument.load(blob.getStream());
-            List<?> allPages;
-            PDFont font;
-            int max;
-
-            if (inFontName == null || inFontName.isEmpty()) {
-                font = PDType1Font.HELVETICA;
-            } else {
-                font = PDType1Font.getStandardFont(inFontName);
-                if (font == null) {
-                    font = new PDType1Font(inFontName);
-                }
-            }
+        PDFPageTree pageTree;
+        int max;
+
+        PDFTextFont font = PDFTextFont.get(inDoc, inFontName);
+        float stringHeight = font.getHeight(inFontSize);
+        String setFontCommand = " "
+                + PDFPageStamper.formatNumber(inFontSize) + " Tf\n";
+
+        pageTree = new PDFPageTree(inDoc);
+        max = pageTree.getCount();
+        inStartAtPage = inStartAtPage > max ? 1 : inStartAtPage;
+        Iterator<PDPage> pages = pageTree.iterator(inStartAtPage);
+        while (pages.hasNext()) {
+            String pageNumAsStr = "" + pageNumber;
+            pageNumber += 1;
+
+            PDPage page = pages.next();
+            String fontName = font.addToResources(page);
+            PDPageContentStream footercontentStream = new PDPageContentStream(
+                    inDoc, page, true, true);
+
+            float stringWidth = font.getStringWidth(pageNumAsStr,
+                    inFontSize);
+            PDRectangle pageRect = page.findMediaBox();
+
+            float xMoveAmount, yMoveAmount;
 
-            allPages = doc.getDocumentCatalog().getAllPages();
-            max = allPages.size();
-            inStartAtPage = inStartAtPage > max ? 1 : inStartAtPage;
-            for (int i = inStartAtPage; i <= max; i++) {
-                String pageNumAsStr = "" + pageNumber;
-                pageNumber += 1;
-
-                PDPage page = (PDPage) allPages.get(i - 1);
-                PDPageContentStream footercontentStream = new PDPageContentStream(
-                        doc, page, true, true);
-
-                float stringWidth = font.getStringWidth(pageNumAsStr)
-                        * inFontSize / 1000f;
-                float stringHeight = font.getFontDescriptor().getFontBoundingBox().getHeight()
-                        * inFontSize / 1000;
-                PDRectangle pageRect = page.findMediaBox();
-
-                float xMoveAmount, yMoveAmount;
-
-                if (inPosition == null) {
-                    inPosition = PAGE_NUMBER_POSITION.BOTTOM_RIGHT;
-                }
-                switch (inPosition) {
-                case BOTTOM_LEFT:
-                    xMoveAmount = 10;
-                    yMoveAmount = pageRect.getLowerLeftY() + 10;
-                    break;
-
-                case BOTTOM_CENTER:
-                    xMoveAmount = (pageRect.getUpperRightX() / 2)
-                            - (stringWidth / 2);
-                    yMoveAmount = pageRect.getLowerLeftY() + 10;
-                    break;
-
-                case TOP_LEFT:
-                    xMoveAmount = 10;
-                    yMoveAmount = pageRect.getHeight() - stringHeight - 10;
-                    break;
-
-                case TOP_CENTER:
-                    xMoveAmount = (pageRect.getUpperRightX() / 2)
-                            - (stringWidth / 2);
-                    yMoveAmount = pageRect.getHeight() - stringHeight - 10;
-                    break;
-
-                case TOP_RIGHT:
-                    xMoveAmount = pageRect.getUpperRightX() - 10 - stringWidth;
-                    yMoveAmount = pageRect.getHeight() - stringHeight - 10;
-                    break;
-
-                // Bottom-right is the default
-                default:
-                    xMoveAmount = pageRect.getUpperRightX() - 10 - stringWidth;
-                    yMoveAmount = pageRect.getLowerLeftY() + 10;
-                    break;
-                }
-
-                footercontentStream.beginText();
-                footercontentStream.setFont(font, inFontSize);
-                footercontentStream.moveTextPositionByAmount(xMoveAmount,
-                        yMoveAmount);
-                footercontentStream.setNonStrokingColor(rgb[0], rgb[1], rgb[2]);
-                footercontentStream.drawString(pageNumAsStr);
-                footercontentStream.endText();
-                footercontentStream.close();
+            if (inPosition == null) {
+                inPosition = PAGE_NUMBER_POSITION.BOTTOM_RIGHT;
             }
+            switch (inPosition) {
+            case BOTTOM_LEFT:
+                xMoveAmount = 10;
+                yMoveAmount = pageRect.getLowerLeftY() + 10;
+                break;
 
-            File tempFile = File.createTempFile("pdfutils-", ".pdf");
-            doc.save(tempFile);
-            result = new FileBlob(tempFile);
-            Framework.trackFile(tempFile, result);
+            case BOTTOM_CENTER:
+                xMoveAmount = (pageRect.getUpperRightX() / 2)
+                        - (stringWidth / 2);
+                yMoveAmount = pageRect.getLowerLeftY() + 10;
+                break;
 
-        } finally {
-            if (doc != null) {
-                doc.close();
+            case TOP_LEFT:
+                xMoveAmount = 10;
+                yMoveAmount = pageRect.getHeight() - stringHeight - 10;
+                break;
+
+            case TOP_CENTER:
+                xMoveAmount = (pageRect.getUpperRightX() / 2)
+                        - (stringWidth / 2);
+                yMoveAmount = pageRect.getHeight() - stringHeight - 10;
+                break;
+
+            case TOP_RIGHT:
+                xMoveAmount = pageRect.getUpperRightX() - 10 - stringWidth;
+                yMoveAmount = pageRect.getHeight() - stringHeight - 10;
+                break;
+
+            // Bottom-right is the default
+            default:
+                xMoveAmount = pageRect.getUpperRightX() - 10 - stringWidth;
+                yMoveAmount = pageRect.getLowerLeftY() + 10;
+                break;
             }
+
+            footercontentStream.beginText();
+            footercontentStream.appendRawCommands("/" + fontName
+                    + setFontCommand);
+            footercontentStream.moveTextPositionByAmount(xMoveAmount,
+                    yMoveAmount);
+            footercontentStream.setNonStrokingColor(rgb[0], rgb[1], rgb[2]);
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            font.writeText(pageNumAsStr, text);
+            text.write(" Tj\n".getBytes(StandardCharsets.ISO_8859_1));
+            footercontentStream.appendRawCommands(text.toByteArray());
+            footercontentStream.endText();
+            footercontentStream.close();
         }
 
-        return result;
+        font.finish();
+    }
+
+    /**
+     * Return the sink used by <code>addPageNumbers()</code> (default:
+     * <code>PDFOutputSink.getDefault()</code>)
+     *
+     * @since 7.2
+     */
+    public PDFOutputSink getOutputSink() {
+        return outputSink == null ? PDFOutputSink.getDefault() : outputSink;
+    }
+
+    /**
+     * Set where <code>addPageNumbers()</code> saves the result. With a
+     * <code>PDFOutputSink.toStream()</code> sink, it returns null.
+     *
+     * @param inValue
+     * @return this
+     *
+     * @since 7.2
+     */
+    public PDFPageNumbering setOutputSink(PDFOutputSink inValue) {
+        outputSink = inValue;
+        return this;
     }
 }
@@ -0,0 +1,227 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.awt.geom.AffineTransform;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+
+/**
+ * Draws the same XObject (form or image) on several pages of a document.
+ * <p>
+ * The XObject is added only once to the document. Each page references it in
+ * its resources and gets a small content stream,
+ * <code>q a b c d e f cm /Name Do Q</code>, appended to its content (the
+ * existing content is wrapped in <code>q</code>/<code>Q</code>, so the
+ * graphic state it leaves does not change the placement). Pages drawing the
+ * XObject at the same place share the same content stream.
+ * <p>
+ * The pages are stamped one after the other, by the calling thread: The COS
+ * objects are not thread safe, and what is done for a page (registering the
+ * XObject, formatting a few numbers, linking shared streams) costs less than
+ * handing it to another thread.
+ *
+ * @since 7.2
+ */
+public class PDFPageStamper {
+
+    public static final String XOBJECT_NAME_PREFIX = "NxStamp";
+
+    private static final ThreadLocal<DecimalFormat> NUMBER_FORMAT = new ThreadLocal<DecimalFormat>() {
+        @Override
+        protected DecimalFormat initialValue() {
+            return new DecimalFormat("0.#####", new DecimalFormatSymbols(
+                    Locale.US));
+        }
+    };
+
+    protected PDDocument pdfDoc;
+
+    protected COSStream xobject;
+
+    protected COSStream saveStateStream;
+
+    protected Map<String, COSStream> drawStreams = new HashMap<String, COSStream>();
+
+    public PDFPageStamper(PDDocument inPdfDoc, COSStream inXObject) {
+        pdfDoc = inPdfDoc;
+        xobject = inXObject;
+    }
+
+    /**
+     * Draw the XObject on <code>inPage</code>, using <code>inMatrix</code> as
+     * the current transformation matrix.
+     *
+     * @param inPage
+     * @param inMatrix
+     * @throws IOException
+     */
+    public void stamp(PDPage inPage, AffineTransform inMatrix)
+            throws IOException {
+
+        String name = registerXObject(inPage);
+        appendCommands(inPage, buildDrawCommands(name, inMatrix));
+    }
+
+    /**
+     * Return the command drawing the XObject named <code>inName</code> with
+     * the <code>inMatrix</code> transformation. The graphic state saved before
+     * the original content of the page is restored first.
+     *
+     * @param inName
+     * @param inMatrix
+     * @return the commands
+     */
+    public static String buildDrawCommands(String inName,
+            AffineTransform inMatrix) {
+
+        double[] m = new double[6];
+        inMatrix.getMatrix(m);
+
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("Q q");
+        for (double d : m) {
+            sb.append(' ').append(formatNumber(d));
+        }
+        sb.append(" cm /").append(inName).append(" Do Q\n");
+
+        return sb.toString();
+    }
+
+    /**
+     * Add the XObject to the resources of the page (or to the inherited
+     * resources), unless it already is there, and return its name.
+     * <p>
+     * Only the /XObject dictionary of the resources is read and modified.
+     *
+     * @param inPage
+     * @return the name of the XObject in the resources of the page
+     */
+    public String registerXObject(PDPage inPage) {
+
+        PDResources resources = inPage.findResources();
+        if (resources == null) {
+            resources = new PDResources();
+            inPage.setResources(resources);
+        }
+
+        COSDictionary resDict = resources.getCOSDictionary();
+        COSBase base = resDict.getDictionaryObject(COSName.XOBJECT);
+        COSDictionary xobjects;
+        if (base instanceof COSDictionary) {
+            xobjects = (COSDictionary) base;
+        } else {
+            xobjects = new COSDictionary();
+            resDict.setItem(COSName.XOBJECT, xobjects);
+        }
+
+        // Already registered (resources shared by several pages)
+        for (COSName key : xobjects.keySet()) {
+            if (xobjects.getDictionaryObject(key) == xobject) {
+                return key.getName();
+            }
+        }
+
+        int i = 0;
+        while (xobjects.containsKey(COSName.getPDFName(XOBJECT_NAME_PREFIX + i))) {
+            i += 1;
+        }
+        String name = XOBJECT_NAME_PREFIX + i;
+        xobjects.setItem(name, xobject);
+
+        return name;
+    }
+
+    /**
+     * Wrap the current content of the page in <code>q</code>/<code>Q</code> and
+     * append <code>inCommands</code> (which must start with <code>Q</code>,
+     * see <code>buildDrawCommands()</code>). Streams are shared between pages
+     * with the same commands.
+     *
+     * @param inPage
+     * @param inCommands
+     * @throws IOException
+     */
+    public void appendCommands(PDPage inPage, String inCommands)
+            throws IOException {
+
+        if (saveStateStream == null) {
+            saveStateStream = createStream("q\n");
+        }
+        COSStream drawStream = drawStreams.get(inCommands);
+        if (drawStream == null) {
+            drawStream = createStream(inCommands);
+            drawStreams.put(inCommands, drawStream);
+        }
+
+        COSDictionary pageDict = inPage.getCOSDictionary();
+        COSBase contents = pageDict.getDictionaryObject(COSName.CONTENTS);
+
+        COSArray newContents = new COSArray();
+        newContents.add(saveStateStream);
+        if (contents instanceof COSStream) {
+            newContents.add(pageDict.getItem(COSName.CONTENTS));
+        } else if (contents instanceof COSArray) {
+            COSArray array = (COSArray) contents;
+            for (int i = 0; i < array.size(); i++) {
+                newContents.add(array.get(i));
+            }
+        }
+        newContents.add(drawStream);
+
+        pageDict.setItem(COSName.CONTENTS, newContents);
+    }
+
+    protected COSStream createStream(String inCommands) throws IOException {
+
+        PDStream stream = new PDStream(pdfDoc);
+        OutputStream out = stream.createOutputStream();
+        try {
+            out.write(inCommands.getBytes(StandardCharsets.ISO_8859_1));
+        } finally {
+            out.close();
+        }
+        return stream.getStream();
+    }
+
+    /**
+     * Format a number for a content stream: "." as decimal separator, no
+     * exponent, 5 decimals max.
+     *
+     * @param inValue
+     * @return the formatted number
+     */
+    public static String formatNumber(double inValue) {
+        return NUMBER_FORMAT.get().format(inValue);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * Lazy access to the pages of a document, walking its page tree.
+ * <p>
+ * <code>PDDocumentCatalog#getAllPages()</code> resolves every page dictionary
+ * and builds a list of all the pages before returning. Here, the pages are
+ * created one at a time, while iterating, and a page is found by skipping the
+ * subtrees before it (using their <code>/Count</code>): Getting page 9,000 of
+ * a balanced tree only reads the nodes on the path to this page.
+ * <p>
+ * The tree is read, never modified. Since nothing is cached, a page added or
+ * removed while iterating may or may not be seen.
+ * <p>
+ * Page numbers start at 1.
+ *
+ * @since 7.2
+ */
+public class PDFPageTree implements Iterable<PDPage> {
+
+    // Protection against malformed (circular) trees
+    protected static final int MAX_DEPTH = 256;
+
+    protected COSDictionary root;
+
+    public PDFPageTree(PDDocument inPdfDoc) {
+        root = inPdfDoc.getDocumentCatalog().getPages().getDictionary();
+    }
+
+    /**
+     * Return the number of pages, as declared by the root of the tree (its
+     * <code>/Count</code>). If a node has no <code>/Count</code>, its pages
+     * are counted.
+     *
+     * @return the number of pages
+     */
+    public int getCount() {
+        return countPages(root, 0);
+    }
+
+    /**
+     * Return the page <code>inPageNumber</code>, or null if there is no such
+     * page.
+     *
+     * @param inPageNumber
+     * @return the page
+     */
+    public PDPage getPage(int inPageNumber) {
+
+        if (inPageNumber < 1) {
+            return null;
+        }
+        Iterator<PDPage> it = iterator(inPageNumber);
+        return it.hasNext() ? it.next() : null;
+    }
+
+    @Override
+    public Iterator<PDPage> iterator() {
+        return iterator(1);
+    }
+
+    /**
+     * Iterate over the pages, starting at <code>inStartPage</code>. Values < 1
+     * are realigned to 1.
+     *
+     * @param inStartPage
+     * @return the iterator
+     */
+    public Iterator<PDPage> iterator(int inStartPage) {
+        return new PageIterator(Math.max(1, inStartPage));
+    }
+
+    protected static boolean isPage(COSDictionary inNode) {
+
+        COSBase type = inNode.getDictionaryObject(COSName.TYPE);
+        if (COSName.PAGE.equals(type)) {
+            return true;
+        }
+        // Not typed and no kids: Consider it as a page
+        return !COSName.PAGES.equals(type) && !inNode.containsKey(COSName.KIDS);
+    }
+
+    protected static COSArray getKids(COSDictionary inNode) {
+
+        COSBase kids = inNode.getDictionaryObject(COSName.KIDS);
+        return kids instanceof COSArray ? (COSArray) kids : new COSArray();
+    }
+
+    protected static COSDictionary getKid(COSArray inKids, int inIndex) {
+
+        COSBase kid = inKids.getObject(inIndex);
+        return kid instanceof COSDictionary ? (COSDictionary) kid : null;
+    }
+
+    protected static int countPages(COSDictionary inNode, int inDepth) {
+
+        if (inNode == null) {
+            return 0;
+        }
+        if (isPage(inNode)) {
+            return 1;
+        }
+
+        COSBase count = inNode.getDictionaryObject(COSName.COUNT);
+        if (count instanceof COSNumber) {
+            return Math.max(0, ((COSNumber) count).intValue());
+        }
+
+        int total = 0;
+        if (inDepth < MAX_DEPTH) {
+            COSArray kids = getKids(inNode);
+            for (int i = 0; i < kids.size(); i++) {
+                total += countPages(getKid(kids, i), inDepth + 1);
+            }
+        }
+        return total;
+    }
+
+    /*
+     * A kids array and the index of the next kid to visit in it
+     */
+    protected static class Frame {
+
+        protected COSArray kids;
+
+        protected int index;
+
+        protected Frame(COSArray inKids, int inIndex) {
+            kids = inKids;
+            index = inIndex;
+        }
+    }
+
+    /*
+     * Depth-first walk of the tree. The stack holds the path from the root to
+     * the current page.
+     */
+    protected class PageIterator implements Iterator<PDPage> {
+
+        protected LinkedList<Frame> stack = new LinkedList<Frame>();
+
+        protected COSDictionary nextPage;
+
+        protected PageIterator(int inStartPage) {
+
+            if (root == null) {
+                return;
+            }
+            if (isPage(root)) {
+                nextPage = inStartPage == 1 ? root : null;
+                return;
+            }
+
+            // Go down to the start page, skipping the subtrees before it
+            int skip = inStartPage - 1;
+            COSDictionary node = root;
+            while (stack.size() < MAX_DEPTH) {
+                COSArray kids = getKids(node);
+                COSDictionary next = null;
+                int i = 0;
+                for (; i < kids.size(); i++) {
+                    COSDictionary kid = getKid(kids, i);
+                    int count = countPages(kid, stack.size());
+                    if (skip < count) {
+                        next = kid;
+                        break;
+                    }
+                    skip -= count;
+                }
+                if (next == null) {
+                    // Not enough pages
+                    return;
+                }
+                stack.push(new Frame(kids, i + 1));
+                if (isPage(next)) {
+                    nextPage = next;
+                    return;
+                }
+                node = next;
+            }
+        }
+
+        protected COSDictionary findNext() {
+
+            while (!stack.isEmpty()) {
+                Frame frame = stack.peek();
+                if (frame.index >= frame.kids.size()) {
+                    stack.pop();
+                    continue;
+                }
+                COSDictionary kid = getKid(frame.kids, frame.index++);
+                if (kid == null) {
+                    continue;
+                }
+                if (isPage(kid)) {
+                    return kid;
+                }
+                if (stack.size() < MAX_DEPTH) {
+                    stack.push(new Frame(getKids(kid), 0));
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextPage != null;
+        }
+
+        @Override
+        public PDPage next() {
+
+            if (nextPage == null) {
+                throw new NoSuchElementException();
+            }
+            PDPage page = new PDPage(nextPage);
+            nextPage = findNext();
+            return page;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
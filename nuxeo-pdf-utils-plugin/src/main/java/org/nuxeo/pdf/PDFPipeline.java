@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.exceptions.COSVisitorException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.pdf.PDFMetrics.PHASE;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+
+/**
+ * Applies several modifications to a PDF while loading and saving it only
+ * once.
+ * <p>
+ * Chaining <code>PDFWatermarking</code>, <code>PDFPageNumbering</code>, ...
+ * loads and saves the PDF at each step. Instead, the caller adds stages to the
+ * pipeline, then calls <code>run()</code>: The PDF is loaded, every stage is
+ * applied in the order it was added and the result is saved in a new Blob.
+ * The original blob is not modified.
+ * <p>
+ * Stages are either one of the built-in ones (<code>addTextWatermark()</code>,
+ * <code>addPageNumbers()</code>, <code>setInfos()</code>) or any
+ * <code>PDFPipeline.Stage</code>.
+ * <p>
+ * Methods adding a stage return the PDFPipeline object so they can be chained.
+ *
+ * @since 7.2
+ */
+public class PDFPipeline {
+
+    /**
+     * A modification of an already loaded PDF. It must not save or close the
+     * document.
+     */
+    public interface Stage {
+        void apply(PDDocument inPdfDoc) throws IOException;
+    }
+
+    protected Blob blob;
+
+    protected List<Stage> stages = new ArrayList<Stage>();
+
+    public PDFPipeline(Blob inBlob) {
+
+        blob = inBlob;
+    }
+
+    public PDFPipeline(DocumentModel inDoc, String inXPath) {
+
+        blob = (Blob) inDoc.getPropertyValue(PDFUtils.checkXPath(inXPath));
+    }
+
+    public PDFPipeline addStage(Stage inStage) {
+
+        if (inStage != null) {
+            stages.add(inStage);
+        }
+        return this;
+    }
+
+    /**
+     * Add a text watermark stage, using the text and the properties of
+     * <code>inWatermarking</code>
+     *
+     * @param inWatermarking
+     * @return this PDFPipeline
+     */
+    public PDFPipeline addTextWatermark(final PDFWatermarking inWatermarking) {
+
+        return addStage(new Stage() {
+            @Override
+            public void apply(PDDocument inPdfDoc) throws IOException {
+                inWatermarking.watermark(inPdfDoc);
+            }
+        });
+    }
+
+    /**
+     * Add a page numbering stage. See
+     * <code>PDFPageNumbering#addPageNumbers</code> for the parameters.
+     *
+     * @return this PDFPipeline
+     */
+    public PDFPipeline addPageNumbers(final int inStartAtPage,
+            final int inStartAtNumber, final String inFontName,
+            final float inFontSize, final String inHex255Color,
+            final PAGE_NUMBER_POSITION inPosition) {
+
+        return addStage(new Stage() {
+            @Override
+            public void apply(PDDocument inPdfDoc) throws IOException {
+                PDFPageNumbering.addPageNumbers(inPdfDoc, inStartAtPage,
+                        inStartAtNumber, inFontName, inFontSize,
+                        inHex255Color, inPosition);
+            }
+        });
+    }
+
+    /**
+     * Add a stage setting the title, subject and author. See
+     * <code>PDFUtils#setInfos</code>
+     *
+     * @return this PDFPipeline
+     */
+    public PDFPipeline setInfos(final String inTitle, final String inSubject,
+            final String inAuthor) {
+
+        return addStage(new Stage() {
+            @Override
+            public void apply(PDDocument inPdfDoc) throws IOException {
+                PDFUtils.setInfos(inPdfDoc, inTitle, inSubject, inAuthor);
+            }
+        });
+    }
+
+    public int getStageCount() {
+        return stages.size();
+    }
+
+    /**
+     * Load the PDF, apply all the stages and save the result.
+     *
+     * @return a new Blob, with the same file name as the original one
+     * @throws ClientException
+     */
+    public Blob run() throws ClientException {
+
+        Blob result = null;
+        PDDocument pdfDoc = null;
+
+        PDFMetrics metrics = PDFMetrics.start(PDFMetrics.OP_PIPELINE).input(
+                blob);
+        try {
+            metrics.phase(PHASE.LOAD);
+            pdfDoc = PDFMemoryPolicy.getDefault().load(blob);
+            metrics.pages(pdfDoc.getNumberOfPages());
+
+            metrics.phase(PHASE.PROCESS);
+            for (Stage stage : stages) {
+                stage.apply(pdfDoc);
+            }
+
+            metrics.phase(PHASE.SAVE);
+            result = PDFUtils.save(pdfDoc);
+            result.setFilename(blob.getFilename());
+            metrics.output(result).succeeded();
+
+        } catch (IOException | COSVisitorException e) {
+            throw new ClientException(e);
+        } finally {
+            PDFUtils.closeSilently(pdfDoc);
+            metrics.stop();
+        }
+
+        return result;
+    }
+}
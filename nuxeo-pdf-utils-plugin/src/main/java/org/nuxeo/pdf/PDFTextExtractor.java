@@ -16,18 +16,41 @@
  */
 package org.nuxeo.pdf;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.util.PDFTextStripper;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.picture.api.BlobHelper;
+import org.nuxeo.pdf.PDFMetrics.PHASE;
 
 /**
- * Extract pages from a PDF
+ * Extract text from a PDF
+ * <p>
+ * The text can be extracted at once (<code>getAllExtractedLines()</code>), or
+ * page by page (<code>extractPageByPage()</code>,
+ * <code>writeAllExtractedLines()</code>), which does not keep the whole text in
+ * memory. <code>extractLineOf()</code> and <code>extractLastPartOfLine()</code>
+ * extract the text page by page and stop at the first page containing the
+ * searched string (unless the whole text was already extracted).
+ * <p>
+ * With <code>setParallelism()</code> > 1, <code>getAllExtractedLines()</code>
+ * splits the document in page ranges extracted in parallel, and concatenates
+ * the results in page order. A <code>PDDocument</code> is not thread safe
+ * (even reading it resolves and caches objects), so each range parses the
+ * whole PDF again: With N ranges, the PDF is parsed N + 1 times (once to get
+ * the page count). This pays only for big documents whose text extraction
+ * costs much more than the parsing, so keep the parallelism low.
  *
  * @since 5.9.5
  */
@@ -41,6 +64,97 @@ public class PDFTextExtractor {
 
     private static final String END_OF_LINE = "\n";
 
+    /**
+     * In parallel mode, a range of pages extracted by a single thread has at
+     * least this number of pages
+     *
+     * @since 7.2
+     */
+    public static final int MIN_PAGES_PER_TASK = 8;
+
+    protected int parallelism = 1;
+
+    /**
+     * Receives the text of each page, in order, during
+     * <code>extractPageByPage()</code>.
+     *
+     * @since 7.2
+     */
+    public interface PageTextHandler {
+
+        /**
+         * @param inPageNumber the page number, starting at 1
+         * @param inText the text of the page
+         * @return false to stop the extraction
+         * @throws IOException
+         */
+        boolean handlePage(int inPageNumber, String inText)
+                throws IOException;
+    }
+
+    /*
+     * Thrown from inside the stripper when the handler wants to stop. PDFBox
+     * lets IOExceptions go through.
+     */
+    private static class StopExtractionException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /*
+     * Carries an exception thrown by the handler through PDFBox, so it is not
+     * reported as a PDF error
+     */
+    private static class HandlerException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public HandlerException(IOException inCause) {
+            super(inCause);
+        }
+    }
+
+    /*
+     * Sends the text to the handler at the end of each page, then resets the
+     * buffer
+     */
+    protected static class PageByPageTextStripper extends PDFTextStripper {
+
+        protected StringWriter buffer;
+
+        protected PageTextHandler handler;
+
+        public PageByPageTextStripper(PageTextHandler inHandler)
+                throws IOException {
+            super();
+            handler = inHandler;
+        }
+
+        public void extract(PDDocument inPdfDoc) throws IOException {
+            buffer = new StringWriter();
+            writeText(inPdfDoc, buffer);
+        }
+
+        @Override
+        protected void endPage(PDPage page) throws IOException {
+            super.endPage(page);
+
+            output.flush();
+            String text = buffer.toString();
+            buffer.getBuffer().setLength(0);
+
+            boolean goOn;
+            try {
+                goOn = handler.handlePage(getCurrentPageNo(), text);
+            } catch (IOException e) {
+                throw new HandlerException(e);
+            }
+            if (!goOn) {
+                throw new StopExtractionException();
+            }
+        }
+    }
+
     public PDFTextExtractor(Blob inBlob) {
 
         pdfBlob = inBlob;
@@ -67,34 +181,267 @@ public class PDFTextExtractor {
         PDDocument pdfDoc = null;
         PDFTextStripper stripper = new PDFTextStripper();
 
-        if (extractedAllAsString == null) {
-            try {
-                pdfDoc = PDDocument.load(pdfBlob.getStream());
+        if (extractedAllAsString != null) {
+            return extractedAllAsString;
+        }
+
+        PDFMetrics metrics = PDFMetrics.start(PDFMetrics.OP_EXTRACT_TEXT).input(
+                pdfBlob);
+        try {
+            if (parallelism > 1) {
+                extractedAllAsString = extractAllInParallel(metrics);
+            } else {
+                metrics.phase(PHASE.LOAD);
+                pdfDoc = PDFMemoryPolicy.getDefault().load(pdfBlob);
+                metrics.pages(pdfDoc.getNumberOfPages());
+                metrics.phase(PHASE.PROCESS);
                 extractedAllAsString = stripper.getText(pdfDoc);
+            }
+            metrics.succeeded();
+
+        } catch (IOException e) {
+            throw new ClientException(e);
+        } finally {
+            if (pdfDoc != null) {
+                try {
+                    pdfDoc.close();
+                } catch (IOException e) {
+                    log.error("Error closing the PDDocument", e);
+                }
+            }
+            metrics.stop();
+        }
+        return extractedAllAsString;
+    }
+
+    /*
+     * Each range loads its own PDDocument from the same file. If the blob is
+     * not backed by a file, it is first copied to a temporary one. The first
+     * load gives the page count: If there are not enough pages for 2 ranges
+     * (see MIN_PAGES_PER_TASK), the text is extracted from this document, else
+     * there is at most one range per thread.
+     * The metrics are a wall clock breakdown: LOAD is the copy and the first
+     * load, PROCESS the extraction (which also loads the PDF in each task).
+     */
+    protected String extractAllInParallel(PDFMetrics inMetrics)
+            throws IOException {
+
+        inMetrics.phase(PHASE.LOAD);
+        File pdfFile = BlobHelper.getFileFromBlob(pdfBlob);
+        boolean deleteFile = false;
+        if (pdfFile == null) {
+            pdfFile = File.createTempFile("nuxeo-pdfutils-", ".pdf");
+            deleteFile = true;
+            pdfBlob.transferTo(pdfFile);
+        }
+
+        PDDocument pdfDoc = null;
+        ForkJoinPool pool = null;
+        try {
+            pdfDoc = PDFMemoryPolicy.getDefault().load(pdfFile);
+            int pageCount = pdfDoc.getNumberOfPages();
+            inMetrics.pages(pageCount);
+            inMetrics.phase(PHASE.PROCESS);
+
+            int tasks = Math.min(parallelism,
+                    (pageCount + MIN_PAGES_PER_TASK - 1) / MIN_PAGES_PER_TASK);
+            if (tasks <= 1) {
+                return new PDFTextStripper().getText(pdfDoc);
+            }
+            PDFUtils.closeSilently(pdfDoc);
+            pdfDoc = null;
+
+            int pagesPerTask = (pageCount + tasks - 1) / tasks;
+            pool = new ForkJoinPool(tasks);
+            return pool.invoke(new ExtractTextTask(pdfFile, 1, pageCount,
+                    pagesPerTask));
+
+        } finally {
+            PDFUtils.closeSilently(pdfDoc);
+            if (pool != null) {
+                pool.shutdown();
+            }
+            if (deleteFile) {
+                pdfFile.delete();
+            }
+        }
+    }
+
+    /*
+     * Splits the range in two, on a multiple of pagesPerTask, until it is
+     * small enough, then extracts the text of the pages: There is one leaf
+     * task (one parse) per slice of pagesPerTask pages. Results are joined in
+     * page order.
+     */
+    protected static class ExtractTextTask extends RecursiveTask<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        protected File pdfFile;
+
+        protected int startPage;
+
+        protected int endPage;
+
+        protected int pagesPerTask;
+
+        public ExtractTextTask(File inPdfFile, int inStartPage, int inEndPage,
+                int inPagesPerTask) {
+            pdfFile = inPdfFile;
+            startPage = inStartPage;
+            endPage = inEndPage;
+            pagesPerTask = inPagesPerTask;
+        }
+
+        @Override
+        protected String compute() {
+
+            if (endPage - startPage + 1 <= pagesPerTask) {
+                return extract();
+            }
+
+            int slices = (endPage - startPage + pagesPerTask) / pagesPerTask;
+            int middle = startPage + (slices / 2) * pagesPerTask - 1;
+            ExtractTextTask first = new ExtractTextTask(pdfFile, startPage,
+                    middle, pagesPerTask);
+            ExtractTextTask second = new ExtractTextTask(pdfFile, middle + 1,
+                    endPage, pagesPerTask);
+
+            second.fork();
+            String firstText = first.compute();
+            return firstText + second.join();
+        }
+
+        protected String extract() {
+
+            PDDocument pdfDoc = null;
+            try {
+                pdfDoc = PDFMemoryPolicy.getDefault().load(pdfFile);
+
+                PDFTextStripper stripper = new PDFTextStripper();
+                stripper.setStartPage(startPage);
+                stripper.setEndPage(endPage);
+                return stripper.getText(pdfDoc);
 
             } catch (IOException e) {
                 throw new ClientException(e);
             } finally {
-                if (pdfDoc != null) {
-                    try {
-                        pdfDoc.close();
-                    } catch (IOException e) {
-                        log.error("Error closing the PDDocument", e);
-                    }
-                }
+                PDFUtils.closeSilently(pdfDoc);
+            }
+        }
+    }
+
+    /**
+     * Extract the text page by page and send it to <code>inHandler</code>. The
+     * extraction stops after the last page or as soon as the handler returns
+     * false.
+     * <p>
+     * Errors reading the PDF are thrown as <code>ClientException</code>, like
+     * in the other methods. An <code>IOException</code> thrown by the handler
+     * is thrown unchanged.
+     *
+     * @param inHandler
+     * @return true if all the pages were extracted
+     * @throws IOException the exception thrown by the handler
+     *
+     * @since 7.2
+     */
+    public boolean extractPageByPage(PageTextHandler inHandler)
+            throws IOException {
+
+        PDDocument pdfDoc = null;
 
+        PDFMetrics metrics = PDFMetrics.start(PDFMetrics.OP_EXTRACT_TEXT).input(
+                pdfBlob);
+        try {
+            metrics.phase(PHASE.LOAD);
+            pdfDoc = PDFMemoryPolicy.getDefault().load(pdfBlob);
+            metrics.pages(pdfDoc.getNumberOfPages());
+            metrics.phase(PHASE.PROCESS);
+            new PageByPageTextStripper(inHandler).extract(pdfDoc);
+            metrics.succeeded();
+
+        } catch (StopExtractionException e) {
+            metrics.succeeded();
+            return false;
+        } catch (HandlerException e) {
+            throw (IOException) e.getCause();
+        } catch (IOException e) {
+            throw new ClientException(e);
+        } finally {
+            PDFUtils.closeSilently(pdfDoc);
+            metrics.stop();
+        }
+
+        return true;
+    }
+
+    /**
+     * Write the text of the PDF, page by page, to <code>inWriter</code>
+     * (without keeping the whole text in memory). The writer is not closed.
+     *
+     * @param inWriter
+     * @throws IOException the exception thrown by the writer
+     *
+     * @since 7.2
+     */
+    public void writeAllExtractedLines(final Writer inWriter)
+            throws IOException {
+
+        if (extractedAllAsString != null) {
+            inWriter.write(extractedAllAsString);
+            return;
+        }
+
+        extractPageByPage(new PageTextHandler() {
+            @Override
+            public boolean handlePage(int inPageNumber, String inText)
+                    throws IOException {
+                inWriter.write(inText);
+                return true;
+            }
+        });
+    }
+
+    public String extractLineOf(final String inString) throws IOException {
+
+        if (extractedAllAsString != null) {
+            return extractLineOf(extractedAllAsString, inString);
+        }
+
+        // Search page by page. If the string is not found, we had to extract
+        // everything, so we keep it for next calls.
+        final String[] found = { null };
+        final StringBuilder all = new StringBuilder();
+        boolean completed = extractPageByPage(new PageTextHandler() {
+            @Override
+            public boolean handlePage(int inPageNumber, String inText)
+                    throws IOException {
+                found[0] = extractLineOf(inText, inString);
+                if (found[0] != null) {
+                    return false;
+                }
+                all.append(inText);
+                return true;
             }
+        });
+        if (completed) {
+            extractedAllAsString = all.toString();
         }
-        return extractedAllAsString;
+
+        return found[0];
     }
 
-    public String extractLineOf(String inString) throws IOException {
+    protected static String extractLineOf(String inText, String inString) {
         String extractedLine = null;
-        int lineBegining = getAllExtractedLines().indexOf(inString);
+        int lineBegining = inText.indexOf(inString);
         int lineEnd;
         if (lineBegining != -1) {
-            lineEnd = getAllExtractedLines().indexOf(END_OF_LINE, lineBegining);
-            extractedLine = getAllExtractedLines().substring(lineBegining, lineEnd).trim();
+            lineEnd = inText.indexOf(END_OF_LINE, lineBegining);
+            if (lineEnd == -1) {
+                lineEnd = inText.length();
+            }
+            extractedLine = inText.substring(lineBegining, lineEnd).trim();
         }
 
         return extractedLine;
@@ -109,4 +456,24 @@ public class PDFTextExtractor {
         return extractedLine;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of threads used by <code>getAllExtractedLines()</code>.
+     * Default value is 1 (no parallel extraction). Values < 1 are realigned to
+     * 1. Each thread parses the whole PDF (see the class documentation), and
+     * there is at most one thread per <code>MIN_PAGES_PER_TASK</code> pages.
+     *
+     * @param inValue
+     * @return this PDFTextExtractor
+     *
+     * @since 7.2
+     */
+    public PDFTextExtractor setParallelism(int inValue) {
+        parallelism = Math.max(1, inValue);
+        return this;
+    }
+
 }
@@ -0,0 +1,192 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+/**
+ * A font used to draw text in one document: Either one of the 14 standard
+ * Type 1 fonts, or a TrueType font embedded in the document (see
+ * <code>PDFEmbeddedFont</code>).
+ * <p>
+ * The caller encodes the text with <code>writeText()</code>, uses
+ * <code>getFontObject()</code> (or <code>addToResources()</code>) in the
+ * resources, and calls <code>finish()</code> once all the text is drawn (an
+ * embedded font writes its subset then).
+ *
+ * @since 7.2
+ */
+public abstract class PDFTextFont {
+
+    public static final String FONT_NAME_PREFIX = "NxF";
+
+    /**
+     * Prefix of the resource names of the embedded fonts, so a font file
+     * provided by the user never takes the name of a standard font in the
+     * resources
+     */
+    public static final String EMBEDDED_FONT_NAME_PREFIX = "NxTTF";
+
+    /**
+     * Return the font to use in <code>inPdfDoc</code>: An embedded font if
+     * there is a font file named <code>inFontName</code> in the font
+     * directory, else a standard Type 1 font (see
+     * <code>PDFFontMetrics.get()</code>).
+     *
+     * @param inPdfDoc
+     * @param inFontName
+     * @return the font
+     * @throws IOException
+     */
+    public static PDFTextFont get(PDDocument inPdfDoc, String inFontName)
+            throws IOException {
+
+        PDFEmbeddedFont embedded = PDFEmbeddedFont.get(inFontName);
+        if (embedded != null) {
+            return embedded.newSubset(inPdfDoc);
+        }
+        return new StandardFont(PDFFontMetrics.get(inFontName));
+    }
+
+    /**
+     * The prefix of the name of the font in the resources.
+     */
+    public String getResourcePrefix() {
+        return FONT_NAME_PREFIX;
+    }
+
+    /**
+     * The font dictionary to put in the resources.
+     */
+    public abstract COSBase getFontObject();
+
+    public abstract float getStringWidth(String inText, float inFontSize)
+            throws IOException;
+
+    public abstract float getHeight(float inFontSize);
+
+    /**
+     * Write <code>inText</code> as the string operand of a <code>Tj</code>
+     * operator.
+     *
+     * @param inText
+     * @param inOut
+     * @throws IOException
+     */
+    public abstract void writeText(String inText, OutputStream inOut)
+            throws IOException;
+
+    /**
+     * Called once the text is drawn.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+
+    }
+
+    /**
+     * Add the font to the resources of the page (or to the inherited
+     * resources), unless it already is there, and return its name.
+     *
+     * @param inPage
+     * @return the name of the font in the resources of the page
+     */
+    public String addToResources(PDPage inPage) {
+
+        PDResources resources = inPage.findResources();
+        if (resources == null) {
+            resources = new PDResources();
+            inPage.setResources(resources);
+        }
+
+        COSDictionary resDict = resources.getCOSDictionary();
+        COSBase base = resDict.getDictionaryObject(COSName.FONT);
+        COSDictionary fonts;
+        if (base instanceof COSDictionary) {
+            fonts = (COSDictionary) base;
+        } else {
+            fonts = new COSDictionary();
+            resDict.setItem(COSName.FONT, fonts);
+        }
+
+        COSBase fontObject = getFontObject();
+        for (COSName key : fonts.keySet()) {
+            if (fonts.getDictionaryObject(key) == fontObject) {
+                return key.getName();
+            }
+        }
+
+        String prefix = getResourcePrefix();
+        int i = 0;
+        while (fonts.containsKey(COSName.getPDFName(prefix + i))) {
+            i += 1;
+        }
+        String name = prefix + i;
+        fonts.setItem(name, fontObject);
+
+        return name;
+    }
+
+    public static class StandardFont extends PDFTextFont {
+
+        protected PDFFontMetrics metrics;
+
+        protected PDFont font;
+
+        public StandardFont(PDFFontMetrics inMetrics) {
+            metrics = inMetrics;
+            font = inMetrics.newFont();
+        }
+
+        public PDFont getFont() {
+            return font;
+        }
+
+        @Override
+        public COSBase getFontObject() {
+            return font.getCOSObject();
+        }
+
+        @Override
+        public float getStringWidth(String inText, float inFontSize)
+                throws IOException {
+            return metrics.getStringWidth(inText, inFontSize);
+        }
+
+        @Override
+        public float getHeight(float inFontSize) {
+            return metrics.getHeight(inFontSize);
+        }
+
+        @Override
+        public void writeText(String inText, OutputStream inOut)
+                throws IOException {
+            new COSString(inText).writePDF(inOut);
+        }
+    }
+}
@@ -83,6 +83,23 @@ public class PDFUtils {
         return result;
     }
 
+    /**
+     * Save the document using the default <code>PDFOutputSink</code> (a
+     * temporary file, unless the configuration tells to stream it directly to
+     * the binary store).
+     *
+     * @param inPdfDoc
+     * @return the saved PDF
+     * @throws IOException
+     * @throws COSVisitorException
+     *
+     * @since 7.2
+     */
+    public static Blob save(PDDocument inPdfDoc) throws IOException,
+            COSVisitorException {
+        return PDFOutputSink.getDefault().save(inPdfDoc);
+    }
+
     /**
      * Convenience method: If a parameter is null or "", it is not modified
      *
@@ -17,31 +17,32 @@
 
 package org.nuxeo.pdf;
 
-import java.awt.image.BufferedImage;
+import java.awt.geom.AffineTransform;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import javax.imageio.ImageIO;
 
+import org.apache.fontbox.util.BoundingBox;
 import org.apache.pdfbox.Overlay;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.exceptions.COSVisitorException;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.font.PDFont;
-import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.common.PDStream;
 import org.apache.pdfbox.pdmodel.graphics.PDExtendedGraphicsState;
-import org.apache.pdfbox.pdmodel.graphics.xobject.PDPixelMap;
-import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectImage;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectForm;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.PDFMetrics.PHASE;
 import org.nuxeo.pdf.PDFUtils;
 import org.nuxeo.runtime.api.Framework;
 
@@ -91,6 +92,16 @@ public class PDFWatermarking {
 
     protected boolean invertY = DEFAULT_INVERT_Y;
 
+    /**
+     * Constructor to use when the watermark is applied to an already loaded
+     * <code>PDDocument</code> (see <code>watermark(PDDocument)</code>)
+     *
+     * @since 7.2
+     */
+    public PDFWatermarking() {
+
+    }
+
     /**
      * Constructor
      *
@@ -133,7 +144,6 @@ public class PDFWatermarking {
 
         Blob result = null;
         PDDocument pdfDoc = null;
-        PDPageContentStream contentStream = null;
 
         if (text == null || text.isEmpty()) {
             try {
@@ -155,179 +165,242 @@ public class PDFWatermarking {
             }
         }
 
-        // Set up the graphic state to handle transparency
-        // Define a new extended graphic state
-        PDExtendedGraphicsState extendedGraphicsState = new PDExtendedGraphicsState();
-        // Set the transparency/opacity
-        extendedGraphicsState.setNonStrokingAlphaConstant(alphaColor);
-
+        PDFMetrics metrics = PDFMetrics.start(
+                PDFMetrics.OP_WATERMARK_WITH_TEXT).input(blob);
         try {
 
-            pdfDoc = PDDocument.load(blob.getStream());
-            PDFont font = PDType1Font.getStandardFont(fontFamily);
-            int[] rgb = PDFUtils.hex255ToRGB(hex255Color);
-
-            List<?> allPages = pdfDoc.getDocumentCatalog().getAllPages();
-            int max = allPages.size();
-            for (int i = 0; i < max; i++) {
-                contentStream = null;
-
-                PDPage page = (PDPage) allPages.get(i);
-                PDRectangle pageSize = page.findMediaBox();
-
-                PDResources resources = page.findResources();
-                // Get the defined graphic states.
-                HashMap<String, PDExtendedGraphicsState> graphicsStateDictionary = (HashMap<String, PDExtendedGraphicsState>) resources.getGraphicsStates();
-                if (graphicsStateDictionary != null) {
-                    graphicsStateDictionary.put("TransparentState",
-                            extendedGraphicsState);
-                    resources.setGraphicsStates(graphicsStateDictionary);
-                } else {
-                    Map<String, PDExtendedGraphicsState> m = new HashMap<>();
-                    m.put("TransparentState", extendedGraphicsState);
-                    resources.setGraphicsStates(m);
-                }
-
-                if (invertY) {
-                    yPosition = pageSize.getHeight() - yPosition;
-                }
-
-                float stringWidth = font.getStringWidth(text) * fontSize
-                        / 1000f;
-
-                int pageRot = page.findRotation();
-                boolean pageRotated = pageRot == 90 || pageRot == 270;
-                boolean textRotated = textRotation != 0 && textRotation != 360;
-
-                int totalRot = pageRot - textRotation;
-
-                float pageWidth = pageRotated ? pageSize.getHeight()
-                        : pageSize.getWidth();
-                float pageHeight = pageRotated ? pageSize.getWidth()
-                        : pageSize.getHeight();
-
-                double centeredXPosition = pageRotated ? pageHeight / 2f
-                        : (pageWidth - stringWidth) / 2f;
-                double centeredYPosition = pageRotated ? (pageWidth - stringWidth) / 2f
-                        : pageHeight / 2f;
-
-                contentStream = new PDPageContentStream(pdfDoc, page, true,
-                        true, true);
-                contentStream.beginText();
-
-                contentStream.setFont(font, fontSize);
-                contentStream.appendRawCommands("/TransparentState gs\n");
-                contentStream.setNonStrokingColor(rgb[0], rgb[1], rgb[2]);
-
-                if (pageRotated) {
-                    contentStream.setTextRotation(Math.toRadians(totalRot),
-                            centeredXPosition, centeredYPosition);
-                } else if (textRotated) {
-                    contentStream.setTextRotation(Math.toRadians(textRotation),
-                            xPosition, yPosition);
-                } else {
-                    contentStream.setTextTranslation(xPosition, yPosition);
-                }
-
-                contentStream.drawString(text);
-
-                contentStream.endText();
-                contentStream.close();
-                contentStream = null;
-            }
-
-            result = PDFUtils.saveInTempFile(pdfDoc);
+            metrics.phase(PHASE.LOAD);
+            pdfDoc = PDFMemoryPolicy.getDefault().load(blob);
+            metrics.pages(pdfDoc.getNumberOfPages());
+            metrics.phase(PHASE.PROCESS);
+            watermark(pdfDoc);
+            metrics.phase(PHASE.SAVE);
+            result = PDFUtils.save(pdfDoc);
+            metrics.output(result).succeeded();
 
         } catch (IOException | COSVisitorException e) {
             throw new ClientException(e);
         } finally {
-            if (contentStream != null) {
-                try {
-                    contentStream.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
-            }
             PDFUtils.closeSilently(pdfDoc);
+            metrics.stop();
         }
         return result;
     }
 
+    /**
+     * Adds the watermark to every page of an already loaded PDF. The document
+     * is not saved, the caller is in charge of saving and closing it.
+     * <p>
+     * If <code>text</code> is empty or null, the document is not modified.
+     * <p>
+     * The text is drawn only once, in a form XObject (with its own font and
+     * transparency), and each page just references it with a
+     * <code>q ... cm /Name Do Q</code> content stream. Pages with the same
+     * placement share the same content stream.
+     *
+     * @param inPdfDoc
+     * @throws IOException
+     *
+     * @since 7.2
+     */
+    public void watermark(PDDocument inPdfDoc) throws IOException {
+
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+
+        PDFTextFont font = PDFTextFont.get(inPdfDoc, fontFamily);
+        float stringWidth = font.getStringWidth(text, fontSize);
+
+        COSStream form = buildTextForm(inPdfDoc, font, stringWidth);
+        PDFPageStamper stamper = new PDFPageStamper(inPdfDoc, form);
+
+        for (PDPage page : new PDFPageTree(inPdfDoc)) {
+            stamper.stamp(page, textMatrix(page, stringWidth));
+        }
+
+        font.finish();
+    }
+
+    /*
+     * The text is drawn at (0, 0) of the form. The bounding box is large
+     * enough for the descent and the ascent of the font.
+     */
+    protected COSStream buildTextForm(PDDocument inPdfDoc, PDFTextFont inFont,
+            float inStringWidth) throws IOException {
+
+        int[] rgb = PDFUtils.hex255ToRGB(hex255Color);
+
+        // Set up the graphic state to handle transparency
+        PDExtendedGraphicsState extendedGraphicsState = new PDExtendedGraphicsState();
+        extendedGraphicsState.setNonStrokingAlphaConstant(alphaColor);
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        String fontName = inFont.getResourcePrefix() + "0";
+        StringBuilder sb = new StringBuilder();
+        sb.append("/TransparentState gs\n");
+        sb.append("BT\n");
+        sb.append('/').append(fontName).append(' ').append(
+                PDFPageStamper.formatNumber(fontSize)).append(" Tf\n");
+        sb.append(PDFPageStamper.formatNumber(rgb[0] / 255f)).append(' ');
+        sb.append(PDFPageStamper.formatNumber(rgb[1] / 255f)).append(' ');
+        sb.append(PDFPageStamper.formatNumber(rgb[2] / 255f)).append(" rg\n");
+        content.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        inFont.writeText(text, content);
+        content.write(" Tj\nET\n".getBytes(StandardCharsets.ISO_8859_1));
+
+        PDStream formStream = new PDStream(inPdfDoc);
+        OutputStream out = formStream.createOutputStream();
+        try {
+            out.write(content.toByteArray());
+        } finally {
+            out.close();
+        }
+
+        PDXObjectForm form = new PDXObjectForm(formStream);
+        form.setBBox(new PDRectangle(new BoundingBox(-fontSize, -fontSize,
+                inStringWidth + fontSize, 2 * fontSize)));
+
+        COSDictionary fonts = new COSDictionary();
+        fonts.setItem(fontName, inFont.getFontObject());
+        COSDictionary graphicsStates = new COSDictionary();
+        graphicsStates.setItem("TransparentState", extendedGraphicsState);
+        COSDictionary resources = new COSDictionary();
+        resources.setItem(COSName.FONT, fonts);
+        resources.setItem(COSName.EXT_G_STATE, graphicsStates);
+        form.setResources(new PDResources(resources));
+
+        return form.getCOSStream();
+    }
+
+    /*
+     * Same placement as the text matrix used when the text was drawn directly
+     * on each page
+     */
+    protected AffineTransform textMatrix(PDPage inPage, float inStringWidth) {
+
+        PDRectangle pageSize = inPage.findMediaBox();
+
+        float y = yPosition;
+        if (invertY) {
+            y = pageSize.getHeight() - yPosition;
+        }
+
+        int pageRot = inPage.findRotation();
+        boolean pageRotated = pageRot == 90 || pageRot == 270;
+        boolean textRotated = textRotation != 0 && textRotation != 360;
+
+        int totalRot = pageRot - textRotation;
+
+        float pageWidth = pageRotated ? pageSize.getHeight()
+                : pageSize.getWidth();
+        float pageHeight = pageRotated ? pageSize.getWidth()
+                : pageSize.getHeight();
+
+        double centeredXPosition = pageRotated ? pageHeight / 2f
+                : (pageWidth - inStringWidth) / 2f;
+        double centeredYPosition = pageRotated ? (pageWidth - inStringWidth) / 2f
+                : pageHeight / 2f;
+
+        AffineTransform at;
+        if (pageRotated) {
+            at = AffineTransform.getTranslateInstance(centeredXPosition,
+                    centeredYPosition);
+            at.rotate(Math.toRadians(totalRot));
+        } else if (textRotated) {
+            at = AffineTransform.getTranslateInstance(xPosition, y);
+            at.rotate(Math.toRadians(textRotation));
+        } else {
+            at = AffineTransform.getTranslateInstance(xPosition, y);
+        }
+
+        return at;
+    }
+
     public Blob watermarkWithPdf(Blob inBlob) throws ClientException {
 
         Blob result = null;
         PDDocument pdfDoc = null;
         PDDocument pdfOverlayDoc = null;
 
+        PDFMetrics metrics = PDFMetrics.start(
+                PDFMetrics.OP_WATERMARK_WITH_PDF).input(blob).input(inBlob);
         try {
-            pdfDoc = PDDocument.load(blob.getStream());
-            pdfOverlayDoc = PDDocument.load(inBlob.getStream());
+            metrics.phase(PHASE.LOAD);
+            pdfDoc = PDFMemoryPolicy.getDefault().load(blob);
+            pdfOverlayDoc = PDFMemoryPolicy.getDefault().load(inBlob);
+            metrics.pages(pdfDoc.getNumberOfPages());
 
+            metrics.phase(PHASE.PROCESS);
             Overlay overlay = new Overlay();
             overlay.overlay(pdfOverlayDoc, pdfDoc);
 
-            result = PDFUtils.saveInTempFile(pdfDoc);
+            metrics.phase(PHASE.SAVE);
+            result = PDFUtils.save(pdfDoc);
+            metrics.output(result).succeeded();
 
         } catch (IOException | COSVisitorException e) {
             throw new ClientException(e);
         } finally {
             PDFUtils.closeSilently(pdfDoc, pdfOverlayDoc);
+            metrics.stop();
         }
 
         return result;
     }
 
+    /**
+     * Draw the image on every page, at (<code>x</code>, <code>y</code>), its
+     * dimensions multiplied by <code>scale</code>.
+     * <p>
+     * The image is encoded once and added once to the PDF (see
+     * <code>PDFEncodedImage</code>, which also caches the encoded image when
+     * the blob has a digest), then referenced by each page.
+     *
+     * @param inBlob the image
+     * @param x
+     * @param y
+     * @param scale
+     * @return a new Blob with the image on each page
+     * @throws ClientException
+     */
     public Blob watermarkWithImage(Blob inBlob, int x, int y, float scale)
             throws ClientException {
 
         Blob result = null;
         PDDocument pdfDoc = null;
-        PDPageContentStream contentStream = null;
 
         scale = (scale <= 0f) ? 1.0f : scale;
 
+        PDFMetrics metrics = PDFMetrics.start(
+                PDFMetrics.OP_WATERMARK_WITH_IMAGE).input(blob);
         try {
 
-            BufferedImage tmp_image = ImageIO.read(inBlob.getStream());
-
-            pdfDoc = PDDocument.load(blob.getStream());
-            PDXObjectImage ximage = new PDPixelMap(pdfDoc, tmp_image);
-
-            List<?> allPages = pdfDoc.getDocumentCatalog().getAllPages();
-            int max = allPages.size();
-            for (int i = 0; i < max; i++) {
-                PDPage page = (PDPage) allPages.get(i);
-
-                contentStream = new PDPageContentStream(pdfDoc, page, true,
-                        true);
-                contentStream.endMarkedContentSequence();
-                contentStream.drawXObject(ximage, x, y, ximage.getWidth()
-                        * scale, ximage.getHeight() * scale);
-                /*
-                 * AffineTransform at = new AffineTransform(ximage.getWidth() *
-                 * scale, 200, 200, ximage.getHeight() * scale, x, y);
-                 * at.rotate(Math.toRadians(90));
-                 * contentStream.drawXObject(ximage, at);
-                 */
-
-                contentStream.close();
-                contentStream = null;
+            metrics.phase(PHASE.LOAD);
+            PDFEncodedImage image = PDFEncodedImage.get(inBlob);
+
+            pdfDoc = PDFMemoryPolicy.getDefault().load(blob);
+            metrics.pages(pdfDoc.getNumberOfPages());
+
+            metrics.phase(PHASE.PROCESS);
+            PDFPageStamper stamper = new PDFPageStamper(pdfDoc,
+                    image.createStream(pdfDoc));
+            AffineTransform at = new AffineTransform(image.getWidth() * scale,
+                    0, 0, image.getHeight() * scale, x, y);
+
+            for (PDPage page : new PDFPageTree(pdfDoc)) {
+                stamper.stamp(page, at);
             }
 
-            result = PDFUtils.saveInTempFile(pdfDoc);
+            metrics.phase(PHASE.SAVE);
+            result = PDFUtils.save(pdfDoc);
+            metrics.output(result).succeeded();
 
         } catch (IOException | COSVisitorException e) {
             throw new ClientException(e);
         } finally {
-            if (contentStream != null) {
-                try {
-                    contentStream.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
-            }
-
             PDFUtils.closeSilently(pdfDoc);
+            metrics.stop();
         }
 
         return result;
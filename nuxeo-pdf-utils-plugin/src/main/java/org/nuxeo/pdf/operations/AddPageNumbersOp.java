@@ -26,6 +26,7 @@ import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
 import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.automation.core.collectors.BlobCollector;
 import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFGovernor;
 import org.nuxeo.pdf.PDFPageNumbering;
 import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
 
@@ -61,8 +62,35 @@ public class AddPageNumbersOp {
     @OperationMethod(collector = BlobCollector.class)
     public Blob run(Blob inBlob) throws IOException, COSVisitorException {
 
+        PAGE_NUMBER_POSITION pos = toPosition(position);
+
+        PDFGovernor.Permit permit = PDFGovernor.enter(ID, inBlob);
+        try {
+            PDFPageNumbering pn = new PDFPageNumbering(inBlob);
+            Blob result = pn.addPageNumbers((int) startAtPage,
+                    (int) startAtNumber, fontName, fontSize, hex255Color, pos);
+            result.setFilename(inBlob.getFilename());
+
+            return result;
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Converts the label of the <code>position</code> parameter ("Bottom
+     * right", "Top center", ...) to its PAGE_NUMBER_POSITION. Default is
+     * BOTTOM_RIGHT.
+     *
+     * @param inLabel
+     * @return the position
+     *
+     * @since 7.2
+     */
+    public static PAGE_NUMBER_POSITION toPosition(String inLabel) {
+
         PAGE_NUMBER_POSITION pos;
-        switch (position.toLowerCase()) {
+        switch (inLabel == null ? "" : inLabel.toLowerCase()) {
         case "bottom center":
             pos = PAGE_NUMBER_POSITION.BOTTOM_CENTER;
             break;
@@ -88,11 +116,6 @@ public class AddPageNumbersOp {
             break;
         }
 
-        PDFPageNumbering pn = new PDFPageNumbering(inBlob);
-        Blob result = pn.addPageNumbers((int) startAtPage, (int) startAtNumber,
-                fontName, fontSize, hex255Color, pos);
-        result.setFilename(inBlob.getFilename());
-
-        return result;
+        return pos;
     }
 }
@@ -25,7 +25,9 @@ import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.pdf.PDFGovernor;
 import org.nuxeo.pdf.PDFPageExtractor;
+import org.nuxeo.pdf.PDFUtils;
 
 /**
  * Extract pages <code>startPage</code> to <code>endPage</code> (inclusive) from
@@ -65,22 +67,31 @@ public class ExtractPDFPagesOp {
     @OperationMethod
     public Blob run(Blob inBlob) {
 
-        PDFPageExtractor pe = new PDFPageExtractor(inBlob);
+        PDFGovernor.Permit permit = PDFGovernor.enter(ID, inBlob);
+        try {
+            PDFPageExtractor pe = new PDFPageExtractor(inBlob);
+            Blob result = pe.extract((int) startPage, (int) endPage, fileName,
+                    pdfTitle, pdfSubject, pdfAuthor);
 
-        Blob result = pe.extract((int) startPage, (int) endPage, fileName,
-                pdfTitle, pdfSubject, pdfAuthor);
-
-        return result;
+            return result;
+        } finally {
+            permit.release();
+        }
     }
 
     @OperationMethod
     public Blob run(DocumentModel inDoc) {
 
-        PDFPageExtractor pe = new PDFPageExtractor(inDoc, xpath);
-
-        Blob result = pe.extract((int) startPage, (int) endPage, fileName,
-                pdfTitle, pdfSubject, pdfAuthor);
-
-        return result;
+        PDFGovernor.Permit permit = PDFGovernor.enter(ID,
+                (Blob) inDoc.getPropertyValue(PDFUtils.checkXPath(xpath)));
+        try {
+            PDFPageExtractor pe = new PDFPageExtractor(inDoc, xpath);
+            Blob result = pe.extract((int) startPage, (int) endPage, fileName,
+                    pdfTitle, pdfSubject, pdfAuthor);
+
+            return result;
+        } finally {
+            permit.release();
+        }
     }
 }
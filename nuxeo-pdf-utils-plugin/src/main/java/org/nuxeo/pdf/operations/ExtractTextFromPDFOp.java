@@ -13,9 +13,12 @@ import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
 import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.automation.core.collectors.DocumentModelCollector;
 import org.nuxeo.ecm.automation.core.util.DocumentHelper;
+import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.pdf.PDFGovernor;
 import org.nuxeo.pdf.PDFTextExtractor;
+import org.nuxeo.pdf.PDFUtils;
 
 /**
  * @author fvadon
@@ -47,10 +50,16 @@ public class ExtractTextFromPDFOp {
     public DocumentModel run(DocumentModel input) throws IOException {
         PDFTextExtractor PDFextractor = new PDFTextExtractor(input, pdfxpath);
         String extractedText = null;
-        if (removepatternfromresult) {
-            extractedText = PDFextractor.extractLastPartOfLine(patterntofind);
-        } else {
-            extractedText = PDFextractor.extractLineOf(patterntofind);
+        PDFGovernor.Permit permit = PDFGovernor.enter(ID,
+                (Blob) input.getPropertyValue(PDFUtils.checkXPath(pdfxpath)));
+        try {
+            if (removepatternfromresult) {
+                extractedText = PDFextractor.extractLastPartOfLine(patterntofind);
+            } else {
+                extractedText = PDFextractor.extractLineOf(patterntofind);
+            }
+        } finally {
+            permit.release();
         }
 
         if (extractedText != null) {
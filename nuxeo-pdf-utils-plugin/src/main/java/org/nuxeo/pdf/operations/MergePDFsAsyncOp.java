@@ -0,0 +1,127 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.operations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.pdf.work.PDFMergeWork;
+import org.nuxeo.pdf.work.PDFWork;
+
+/**
+ * Asynchronous version of <code>PDF.MergeWithDocs</code>: Schedules the merge
+ * of the PDFs of the input document(s) (read in <code>xpath</code>) in the
+ * <code>pdfUtils</code> queue of the WorkManager, and returns the input
+ * unchanged. The work starts after the commit of the current transaction.
+ * <p>
+ * The merged PDF is added to the <code>targetXPath</code> field (default
+ * <code>files:files</code>, so no source PDF is overwritten) of the
+ * <code>targetDocId</code> document (default: the first input document). The
+ * id of the work is put in the <code>workIdVarName</code> Context variable
+ * (if used), so the caller can follow its status.
+ *
+ * @since 7.2
+ */
+@Operation(id = MergePDFsAsyncOp.ID, category = Constants.CAT_CONVERSION, label = "PDF: Merge with Document(s), Async.", description = "Schedules the merge of the PDFs of the input document(s) (read in <code>xpath</code>) and returns the input unchanged. The merged PDF is added to the <code>targetXPath</code> field (default files:files, so no source PDF is overwritten) of the <code>targetDocId</code> document (default: the first input document). The id of the work is put in the <code>workIdVarName</code> Context variable (if used).")
+public class MergePDFsAsyncOp {
+
+    public static final String ID = "PDF.MergeWithDocsAsync";
+
+    @Context
+    protected CoreSession session;
+
+    @Context
+    protected OperationContext ctx;
+
+    @Param(name = "xpath", required = false, values = { "file:content" })
+    protected String xpath = "file:content";
+
+    @Param(name = "targetDocId", required = false)
+    protected String targetDocId = "";
+
+    @Param(name = "targetXPath", required = false, values = { "files:files" })
+    protected String targetXPath = PDFWork.FILES_XPATH;
+
+    @Param(name = "fileName", required = false)
+    protected String fileName = "";
+
+    @Param(name = "pdfTitle", required = false)
+    protected String pdfTitle = "";
+
+    @Param(name = "pdfSubject", required = false)
+    protected String pdfSubject = "";
+
+    @Param(name = "pdfAuthor", required = false)
+    protected String pdfAuthor = "";
+
+    @Param(name = "workIdVarName", required = false)
+    protected String workIdVarName = "";
+
+    @OperationMethod
+    public DocumentModel run(DocumentModel inDoc) {
+
+        List<String> ids = new ArrayList<String>();
+        ids.add(inDoc.getId());
+        schedule(ids);
+
+        return inDoc;
+    }
+
+    @OperationMethod
+    public DocumentModelList run(DocumentModelList inDocs) {
+
+        List<String> ids = new ArrayList<String>();
+        for (DocumentModel doc : inDocs) {
+            ids.add(doc.getId());
+        }
+        schedule(ids);
+
+        return inDocs;
+    }
+
+    protected void schedule(List<String> inIds) {
+
+        if (inIds.isEmpty()) {
+            throw new ClientException("No document to merge");
+        }
+
+        String target = targetDocId == null || targetDocId.isEmpty() ? inIds.get(0)
+                : targetDocId;
+        PDFWork.checkTarget(session.getDocument(new IdRef(target)),
+                targetXPath, false);
+        PDFMergeWork work = new PDFMergeWork(session.getRepositoryName(),
+                inIds, xpath, target, targetXPath);
+        work.setInfos(pdfTitle, pdfSubject, pdfAuthor);
+        work.setFileName(fileName);
+
+        String workId = work.schedule();
+        if (workIdVarName != null && !workIdVarName.isEmpty()) {
+            ctx.put(workIdVarName, workId);
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.pdf.PDFGovernor;
 import org.nuxeo.pdf.PDFMerge;
 
 /**
@@ -62,6 +63,12 @@ public class MergePDFsWithBlobsInputOp {
     @Param(name = "pdfAuthor", required = false)
     protected String pdfAuthor = "";
 
+    @Param(name = "streamingMerge", required = false, values = { "false" })
+    protected boolean streamingMerge = false;
+
+    @Param(name = "prefetchCount", required = false, values = { "2" })
+    protected long prefetchCount = PDFMerge.DEFAULT_PREFETCH_COUNT;
+
     @OperationMethod
     public Blob run(Blob inBlob) throws ClientException {
 
@@ -104,10 +111,16 @@ public class MergePDFsWithBlobsInputOp {
         }
 
         // Merge
+        inMergeTool.setStreamingMode(streamingMerge);
+        inMergeTool.setPrefetchCount((int) prefetchCount);
+        PDFGovernor.Permit permit = PDFGovernor.enter(ID,
+                inMergeTool.getBlobs());
         try {
             return inMergeTool.merge(fileName, pdfTitle, pdfSubject, pdfAuthor);
         } catch (COSVisitorException | IOException e) {
             throw new ClientException(e);
+        } finally {
+            permit.release();
         }
     }
 }
@@ -33,6 +33,7 @@ import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.pdf.PDFGovernor;
 import org.nuxeo.pdf.PDFMerge;
 
 /**
@@ -97,6 +98,12 @@ public class MergePDFsWithDocsInputOp {
     @Param(name = "pdfAuthor", required = false)
     protected String pdfAuthor = "";
 
+    @Param(name = "streamingMerge", required = false, values = { "false" })
+    protected boolean streamingMerge = false;
+
+    @Param(name = "prefetchCount", required = false, values = { "2" })
+    protected long prefetchCount = PDFMerge.DEFAULT_PREFETCH_COUNT;
+
     @OperationMethod
     public Blob run(DocumentModel inDoc) throws ClientException {
 
@@ -145,10 +152,16 @@ public class MergePDFsWithDocsInputOp {
         }
 
         // Merge
+        inMergeTool.setStreamingMode(streamingMerge);
+        inMergeTool.setPrefetchCount((int) prefetchCount);
+        PDFGovernor.Permit permit = PDFGovernor.enter(ID,
+                inMergeTool.getBlobs());
         try {
             return inMergeTool.merge(fileName, pdfTitle, pdfSubject, pdfAuthor);
         } catch (COSVisitorException | IOException e) {
             throw new ClientException(e);
+        } finally {
+            permit.release();
         }
     }
 }
@@ -28,7 +28,10 @@ import org.nuxeo.ecm.automation.core.util.Properties;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.pdf.PDFGovernor;
 import org.nuxeo.pdf.PDFInfo;
+import org.nuxeo.pdf.PDFInfoBatch;
 
 /**
  * If there is no blob of if the blob is not a pdf document, we empty the
@@ -38,8 +41,12 @@ import org.nuxeo.pdf.PDFInfo;
  * will likely lead to PDFBox errors.
  *
  * For values to use in the properties parameter, see PDFInfo#toHashMap
+ *
+ * With a list of documents, the PDFs are parsed in parallel and the documents
+ * are saved (and the transaction committed) by batches of
+ * <code>batchSize</code>, see PDFInfoBatch
  */
-@Operation(id = PDFInfoToFieldsOp.ID, category = Constants.CAT_DOCUMENT, label = "PDF: Info to Fields", description = "Extact the info of the PDF stored in <code>xpath</code> and put them in the fields referenced by <code>properties</code>. <code>properties</code> is <code>key=value</code> list (one key-value pair/line, where <code>key</code> is the xpath of the destination field and <code>value</code> is the exact label( case sensitive) as returned by the PageExtractor (see this operation documentation). If there is no blob or is the blob is not a PDF, all the values referenced in <code>properties</code> are cleared (set to empty string, 0, ...)")
+@Operation(id = PDFInfoToFieldsOp.ID, category = Constants.CAT_DOCUMENT, label = "PDF: Info to Fields", description = "Extact the info of the PDF stored in <code>xpath</code> and put them in the fields referenced by <code>properties</code>. <code>properties</code> is <code>key=value</code> list (one key-value pair/line, where <code>key</code> is the xpath of the destination field and <code>value</code> is the exact label( case sensitive) as returned by the PageExtractor (see this operation documentation). If there is no blob or is the blob is not a PDF, all the values referenced in <code>properties</code> are cleared (set to empty string, 0, ...). With a list of documents, the PDFs are parsed in parallel (<code>parallelism</code> threads max., 0 for the default) and, if <code>save</code> is true, the documents are saved and the transaction committed every <code>batchSize</code> documents (0 for the default, 50)")
 public class PDFInfoToFieldsOp {
 
     public static final String ID = "PDF.InfoToFields";
@@ -62,6 +69,12 @@ public class PDFInfoToFieldsOp {
     @Param(name = "save", required = false, values = { "true" })
     protected boolean save = true;
 
+    @Param(name = "batchSize", required = false)
+    protected int batchSize = 0;
+
+    @Param(name = "parallelism", required = false)
+    protected int parallelism = 0;
+
     @OperationMethod(collector = DocumentModelCollector.class)
     public DocumentModel run(DocumentModel inDoc) throws IOException {
 
@@ -77,10 +90,28 @@ public class PDFInfoToFieldsOp {
                 session.saveDocument(inDoc);
             }
         } else {
-            PDFInfo info = new PDFInfo(inDoc);
-            inDoc = info.toFields(inDoc, properties, save, session);
+            PDFGovernor.Permit permit = PDFGovernor.enter(ID, theBlob);
+            try {
+                PDFInfo info = new PDFInfo(inDoc);
+                inDoc = info.toFields(inDoc, properties, save, session);
+            } finally {
+                permit.release();
+            }
         }
 
         return inDoc;
     }
+
+    @OperationMethod
+    public DocumentModelList run(DocumentModelList inDocs) {
+
+        PDFInfoBatch batch = new PDFInfoBatch(session, xpath, properties);
+        batch.setSave(save);
+        batch.setBatchSize(batchSize);
+        if (parallelism > 0) {
+            batch.setParallelism(parallelism);
+        }
+
+        return batch.run(inDocs);
+    }
 }
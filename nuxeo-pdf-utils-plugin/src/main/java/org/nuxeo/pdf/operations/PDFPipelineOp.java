@@ -0,0 +1,135 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.operations;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.automation.core.collectors.BlobCollector;
+import org.nuxeo.ecm.automation.core.util.Properties;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.pdf.PDFGovernor;
+import org.nuxeo.pdf.PDFPipeline;
+import org.nuxeo.pdf.PDFWatermarking;
+
+/**
+ * Applies, in the order given by <code>stages</code>, a text watermark, page
+ * numbers and/or the title-subject-author to the input PDF. The PDF is loaded
+ * and saved only once, whatever the number of stages.
+ * <p>
+ * <code>stages</code> is a comma separated list of
+ * <code>WatermarkWithText</code>, <code>AddPageNumbers</code> and
+ * <code>SetInfos</code>. Each stage uses the same parameters as its single
+ * operation (<code>PDF.WatermarkWithText</code>,
+ * <code>PDF.AddPageNumbers</code>).
+ */
+@Operation(id = PDFPipelineOp.ID, category = Constants.CAT_CONVERSION, label = "PDF: Pipeline", description = "Applies, in the order given by <code>stages</code>, a text watermark, page numbers and/or the title-subject-author to the input PDF. The PDF is loaded and saved only once. <code>stages</code> is a comma separated list of <code>WatermarkWithText</code>, <code>AddPageNumbers</code> and <code>SetInfos</code>. Each stage uses the same parameters as its single operation (<code>PDF.WatermarkWithText</code>, <code>PDF.AddPageNumbers</code>). Returns a <i>new</i> blob.")
+public class PDFPipelineOp {
+
+    public static final String ID = "PDF.Pipeline";
+
+    public static final String STAGE_WATERMARK_WITH_TEXT = "WatermarkWithText";
+
+    public static final String STAGE_ADD_PAGE_NUMBERS = "AddPageNumbers";
+
+    public static final String STAGE_SET_INFOS = "SetInfos";
+
+    @Param(name = "stages", required = true, values = { "WatermarkWithText,AddPageNumbers,SetInfos" })
+    protected String stages = "";
+
+    @Param(name = "watermark", required = false)
+    protected String watermark = "";
+
+    @Param(name = "watermarkProperties", required = false)
+    protected Properties watermarkProperties;
+
+    @Param(name = "startAtPage", required = false, values = { "1" })
+    protected long startAtPage = 1;
+
+    @Param(name = "startAtNumber", required = false, values = { "1" })
+    protected long startAtNumber = 1;
+
+    @Param(name = "position", required = false, widget = Constants.W_OPTION, values = {
+            "Bottom right", "Bottom center", "Bottom left", "Top right",
+            "Top center", "Top left" })
+    String position = "Bottom right";
+
+    @Param(name = "fontName", required = false, values = { "Helvetica" })
+    protected String fontName = "Helvetica";
+
+    @Param(name = "fontSize", required = false, values = { "16" })
+    protected long fontSize = 16;
+
+    @Param(name = "hex255Color", required = false, values = { "0xffffff" })
+    protected String hex255Color = "0xffffff";
+
+    @Param(name = "pdfTitle", required = false)
+    protected String pdfTitle = "";
+
+    @Param(name = "pdfSubject", required = false)
+    protected String pdfSubject = "";
+
+    @Param(name = "pdfAuthor", required = false)
+    protected String pdfAuthor = "";
+
+    @OperationMethod(collector = BlobCollector.class)
+    public Blob run(Blob inBlob) throws ClientException {
+
+        PDFPipeline pipeline = new PDFPipeline(inBlob);
+
+        for (String stage : stages.split(",")) {
+            stage = stage.trim();
+            if (stage.isEmpty()) {
+                continue;
+            }
+
+            switch (stage) {
+            case STAGE_WATERMARK_WITH_TEXT:
+                PDFWatermarking pdfw = new PDFWatermarking();
+                pdfw.setText(watermark);
+                if (watermarkProperties != null) {
+                    pdfw.setProperties(watermarkProperties);
+                }
+                pipeline.addTextWatermark(pdfw);
+                break;
+
+            case STAGE_ADD_PAGE_NUMBERS:
+                pipeline.addPageNumbers((int) startAtPage,
+                        (int) startAtNumber, fontName, fontSize, hex255Color,
+                        AddPageNumbersOp.toPosition(position));
+                break;
+
+            case STAGE_SET_INFOS:
+                pipeline.setInfos(pdfTitle, pdfSubject, pdfAuthor);
+                break;
+
+            default:
+                throw new ClientException("Unknown stage: " + stage);
+            }
+        }
+
+        PDFGovernor.Permit permit = PDFGovernor.enter(ID, inBlob);
+        try {
+            return pipeline.run();
+        } finally {
+            permit.release();
+        }
+    }
+}
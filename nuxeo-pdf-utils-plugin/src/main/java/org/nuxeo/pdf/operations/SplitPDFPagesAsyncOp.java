@@ -0,0 +1,132 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.operations;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.automation.core.collectors.DocumentModelCollector;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.pdf.PDFPageExtractor;
+import org.nuxeo.pdf.work.PDFSplitWork;
+import org.nuxeo.pdf.work.PDFWork;
+
+/**
+ * Asynchronous version of <code>PDF.SplitPages</code>: Schedules the split of
+ * the PDF of the input document (read in <code>xpath</code>) in the
+ * <code>pdfUtils</code> queue of the WorkManager, and returns the input
+ * unchanged. The work starts after the commit of the current transaction.
+ * <p>
+ * The PDFs are added to the <code>targetXPath</code> field (default
+ * <code>files:files</code>) of the <code>targetDocId</code> document (default:
+ * the input document), which must be a list field. The id of the work is put
+ * in the <code>workIdVarName</code> Context variable (if used).
+ * <p>
+ * The parameters and the target field are checked before scheduling, so a
+ * bad value fails the operation instead of the work.
+ *
+ * @since 7.2
+ */
+@Operation(id = SplitPDFPagesAsyncOp.ID, category = Constants.CAT_CONVERSION, label = "PDF: Split Pages, Async.", description = "Schedules the split of the PDF of the input document (read in <code>xpath</code>) and returns the input unchanged. Either <code>ranges</code> (1-5,6-10,11) or <code>pagesPerFile</code> must be used. The PDFs are added to the <code>targetXPath</code> field (default files:files) of the <code>targetDocId</code> document (default: the input document), which must be a list field. The id of the work is put in the <code>workIdVarName</code> Context variable (if used).")
+public class SplitPDFPagesAsyncOp {
+
+    public static final String ID = "PDF.SplitPagesAsync";
+
+    @Context
+    protected CoreSession session;
+
+    @Context
+    protected OperationContext ctx;
+
+    @Param(name = "ranges", required = false)
+    protected String ranges = "";
+
+    @Param(name = "pagesPerFile", required = false)
+    protected long pagesPerFile = 0;
+
+    @Param(name = "pdfTitle", required = false)
+    protected String pdfTitle = "";
+
+    @Param(name = "pdfSubject", required = false)
+    protected String pdfSubject = "";
+
+    @Param(name = "pdfAuthor", required = false)
+    protected String pdfAuthor = "";
+
+    @Param(name = "xpath", required = false, values = { "file:content" })
+    protected String xpath = "file:content";
+
+    @Param(name = "targetDocId", required = false)
+    protected String targetDocId = "";
+
+    @Param(name = "targetXPath", required = false, values = { "files:files" })
+    protected String targetXPath = "files:files";
+
+    @Param(name = "workIdVarName", required = false)
+    protected String workIdVarName = "";
+
+    @OperationMethod(collector = DocumentModelCollector.class)
+    public DocumentModel run(DocumentModel inDoc) {
+
+        checkParameters();
+        String target = targetDocId == null || targetDocId.isEmpty() ? inDoc.getId()
+                : targetDocId;
+        PDFWork.checkTarget(session.getDocument(new IdRef(target)),
+                targetXPath, true);
+        PDFSplitWork work = new PDFSplitWork(session.getRepositoryName(),
+                Collections.singletonList(inDoc.getId()), xpath, target,
+                targetXPath);
+        work.setRanges(ranges);
+        work.setPagesPerFile((int) pagesPerFile);
+        work.setInfos(pdfTitle, pdfSubject, pdfAuthor);
+
+        String workId = work.schedule();
+        if (workIdVarName != null && !workIdVarName.isEmpty()) {
+            ctx.put(workIdVarName, workId);
+        }
+
+        return inDoc;
+    }
+
+    protected void checkParameters() {
+
+        if (ranges != null && !ranges.isEmpty()) {
+            List<int[]> parsed = PDFPageExtractor.parseRanges(ranges);
+            if (parsed.isEmpty()) {
+                throw new ClientException("Invalid page ranges: " + ranges);
+            }
+            for (int[] range : parsed) {
+                if (range[0] < 1 || range[1] < range[0]) {
+                    throw new ClientException("Invalid page range: "
+                            + range[0] + "-" + range[1]);
+                }
+            }
+        } else if (pagesPerFile <= 0) {
+            throw new ClientException(
+                    "Either ranges or pagesPerFile must be used");
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.operations;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.pdf.PDFGovernor;
+import org.nuxeo.pdf.PDFPageExtractor;
+import org.nuxeo.pdf.PDFUtils;
+
+/**
+ * Split the input PDF in several PDFs, parsing it only once. Either
+ * <code>ranges</code> ("1-5,6-10,11") or <code>pagesPerFile</code> must be
+ * used. If a Document is used as input, the blob is read from
+ * <code>xpath</code>. <code>title</code>, <code>subject</code> and
+ * <code>author</code> are optional and apply to every resulting PDF.
+ */
+@Operation(id = SplitPDFPagesOp.ID, category = Constants.CAT_CONVERSION, label = "PDF: Split Pages", description = "Split the input PDF in several PDFs, parsing it only once. Either <code>ranges</code> (1-5,6-10,11) or <code>pagesPerFile</code> must be used. If a Document is used as input, the blob is read from <code>xpath</code>. <code>title</code>, <code>subject</code> and <code>author</code> are optional and apply to every resulting PDF. Returns the list of PDFs, in the order of the ranges.")
+public class SplitPDFPagesOp {
+
+    public static final String ID = "PDF.SplitPages";
+
+    @Param(name = "ranges", required = false)
+    protected String ranges = "";
+
+    @Param(name = "pagesPerFile", required = false)
+    protected long pagesPerFile = 0;
+
+    @Param(name = "pdfTitle", required = false)
+    protected String pdfTitle = "";
+
+    @Param(name = "pdfSubject", required = false)
+    protected String pdfSubject = "";
+
+    @Param(name = "pdfAuthor", required = false)
+    protected String pdfAuthor = "";
+
+    @Param(name = "xpath", required = false, values = { "file:content" })
+    protected String xpath = "";
+
+    @OperationMethod
+    public BlobList run(Blob inBlob) {
+
+        return split(new PDFPageExtractor(inBlob), inBlob);
+    }
+
+    @OperationMethod
+    public BlobList run(DocumentModel inDoc) {
+
+        return split(new PDFPageExtractor(inDoc, xpath),
+                (Blob) inDoc.getPropertyValue(PDFUtils.checkXPath(xpath)));
+    }
+
+    protected BlobList split(PDFPageExtractor inExtractor, Blob inBlob) {
+
+        PDFGovernor.Permit permit = PDFGovernor.enter(ID, inBlob);
+        try {
+            return split(inExtractor);
+        } finally {
+            permit.release();
+        }
+    }
+
+    protected BlobList split(PDFPageExtractor inExtractor) {
+
+        if (ranges != null && !ranges.isEmpty()) {
+            return inExtractor.split(PDFPageExtractor.parseRanges(ranges),
+                    pdfTitle, pdfSubject, pdfAuthor);
+        }
+
+        if (pagesPerFile > 0) {
+            return inExtractor.splitEvery((int) pagesPerFile, pdfTitle,
+                    pdfSubject, pdfAuthor);
+        }
+
+        throw new ClientException(
+                "Either ranges or pagesPerFile must be used");
+    }
+}
@@ -27,6 +27,7 @@ import org.nuxeo.ecm.automation.core.collectors.BlobCollector;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.pdf.PDFGovernor;
 import org.nuxeo.pdf.PDFUtils;
 import org.nuxeo.pdf.PDFWatermarking;
 
@@ -85,9 +86,14 @@ public class WatermarkWithImageOp {
 
         }
 
-        PDFWatermarking pdfw = new PDFWatermarking(inBlob);
-        result = pdfw.watermarkWithImage(blobImage, (int) x, (int) y,
-                scale.floatValue());
+        PDFGovernor.Permit permit = PDFGovernor.enter(ID, inBlob);
+        try {
+            PDFWatermarking pdfw = new PDFWatermarking(inBlob);
+            result = pdfw.watermarkWithImage(blobImage, (int) x, (int) y,
+                    scale.floatValue());
+        } finally {
+            permit.release();
+        }
 
         return result;
     }
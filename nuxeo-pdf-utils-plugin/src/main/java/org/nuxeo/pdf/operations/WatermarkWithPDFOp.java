@@ -27,6 +27,7 @@ import org.nuxeo.ecm.automation.core.collectors.BlobCollector;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.pdf.PDFGovernor;
 import org.nuxeo.pdf.PDFUtils;
 import org.nuxeo.pdf.PDFWatermarking;
 
@@ -66,8 +67,13 @@ public class WatermarkWithPDFOp {
             blobPdf = r.getBlob();
         }
 
-        PDFWatermarking pdfw = new PDFWatermarking(inBlob);
-        result = pdfw.watermarkWithPdf(blobPdf);
+        PDFGovernor.Permit permit = PDFGovernor.enter(ID, inBlob, blobPdf);
+        try {
+            PDFWatermarking pdfw = new PDFWatermarking(inBlob);
+            result = pdfw.watermarkWithPdf(blobPdf);
+        } finally {
+            permit.release();
+        }
 
         return result;
     }
@@ -0,0 +1,103 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.operations;
+
+import java.util.Collections;
+
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.automation.core.collectors.DocumentModelCollector;
+import org.nuxeo.ecm.automation.core.util.Properties;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.pdf.work.PDFWatermarkWork;
+import org.nuxeo.pdf.work.PDFWork;
+
+/**
+ * Asynchronous version of <code>PDF.WatermarkWithText</code>: Schedules the
+ * watermarking of the PDF of the input document (read in <code>xpath</code>)
+ * in the <code>pdfUtils</code> queue of the WorkManager, and returns the
+ * input unchanged. The work starts after the commit of the current
+ * transaction. <code>watermark</code> and <code>properties</code> are the same
+ * as in <code>PDF.WatermarkWithText</code>.
+ * <p>
+ * The watermarked PDF is stored in the <code>targetXPath</code> field
+ * (default: <code>xpath</code>, so it replaces the original) of the
+ * <code>targetDocId</code> document (default: the input document). The id of
+ * the work is put in the <code>workIdVarName</code> Context variable (if
+ * used).
+ *
+ * @since 7.2
+ */
+@Operation(id = WatermarkWithTextAsyncOp.ID, category = Constants.CAT_CONVERSION, label = "PDF: Watermark with Text, Async.", description = "Schedules the watermarking of the PDF of the input document (read in <code>xpath</code>) and returns the input unchanged. <code>watermark</code> and <code>properties</code> are the same as in PDF: Watermark with Text. The result is stored in the <code>targetXPath</code> field (default: <code>xpath</code>) of the <code>targetDocId</code> document (default: the input document). The id of the work is put in the <code>workIdVarName</code> Context variable (if used).")
+public class WatermarkWithTextAsyncOp {
+
+    public static final String ID = "PDF.WatermarkWithTextAsync";
+
+    @Context
+    protected CoreSession session;
+
+    @Context
+    protected OperationContext ctx;
+
+    @Param(name = "watermark", required = true)
+    protected String watermark = "";
+
+    @Param(name = "properties", required = false)
+    protected Properties properties;
+
+    @Param(name = "xpath", required = false, values = { "file:content" })
+    protected String xpath = "file:content";
+
+    @Param(name = "targetDocId", required = false)
+    protected String targetDocId = "";
+
+    @Param(name = "targetXPath", required = false)
+    protected String targetXPath = "";
+
+    @Param(name = "workIdVarName", required = false)
+    protected String workIdVarName = "";
+
+    @OperationMethod(collector = DocumentModelCollector.class)
+    public DocumentModel run(DocumentModel inDoc) {
+
+        String target = targetDocId == null || targetDocId.isEmpty() ? inDoc.getId()
+                : targetDocId;
+        String targetField = targetXPath == null || targetXPath.isEmpty() ? xpath
+                : targetXPath;
+        PDFWork.checkTarget(session.getDocument(new IdRef(target)),
+                targetField, false);
+        PDFWatermarkWork work = new PDFWatermarkWork(
+                session.getRepositoryName(),
+                Collections.singletonList(inDoc.getId()), xpath, target,
+                targetField);
+        work.setText(watermark);
+        work.setProperties(properties);
+
+        String workId = work.schedule();
+        if (workIdVarName != null && !workIdVarName.isEmpty()) {
+            ctx.put(workIdVarName, workId);
+        }
+
+        return inDoc;
+    }
+}
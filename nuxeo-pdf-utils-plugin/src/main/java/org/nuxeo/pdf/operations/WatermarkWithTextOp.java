@@ -24,6 +24,7 @@ import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.automation.core.collectors.BlobCollector;
 import org.nuxeo.ecm.automation.core.util.Properties;
 import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFGovernor;
 import org.nuxeo.pdf.PDFWatermarking;
 
 /**
@@ -57,9 +58,14 @@ public class WatermarkWithTextOp {
 
         Blob result = null;
 
-        PDFWatermarking pdfw = new PDFWatermarking(inBlob);
-        pdfw.setText(watermark).setProperties(properties);
-        result = pdfw.watermark();
+        PDFGovernor.Permit permit = PDFGovernor.enter(ID, inBlob);
+        try {
+            PDFWatermarking pdfw = new PDFWatermarking(inBlob);
+            pdfw.setText(watermark).setProperties(properties);
+            result = pdfw.watermark();
+        } finally {
+            permit.release();
+        }
 
         return result;
     }
@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.work;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pdfbox.exceptions.COSVisitorException;
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.pdf.PDFMerge;
+
+/**
+ * Merges the PDFs of the documents (in streaming mode, see
+ * <code>PDFMerge</code>) and stores the result in the target document.
+ *
+ * @since 7.2
+ */
+public class PDFMergeWork extends PDFWork {
+
+    private static final long serialVersionUID = 1L;
+
+    protected String pdfTitle;
+
+    protected String pdfSubject;
+
+    protected String pdfAuthor;
+
+    public PDFMergeWork(String inRepositoryName, List<String> inDocIds,
+            String inXPath, String inTargetDocId, String inTargetXPath) {
+        super(inRepositoryName, inDocIds, inXPath, inTargetDocId,
+                inTargetXPath);
+    }
+
+    public void setInfos(String inTitle, String inSubject, String inAuthor) {
+        pdfTitle = inTitle;
+        pdfSubject = inSubject;
+        pdfAuthor = inAuthor;
+    }
+
+    @Override
+    public String getTitle() {
+        return "PDF Merge of " + docIds.size() + " documents";
+    }
+
+    @Override
+    protected Object process(BlobList inBlobs) {
+
+        PDFMerge pdfm = new PDFMerge(inBlobs);
+        pdfm.setStreamingMode(true);
+        try {
+            return pdfm.merge(fileName, pdfTitle, pdfSubject, pdfAuthor);
+        } catch (COSVisitorException | IOException e) {
+            throw new ClientException(e);
+        }
+    }
+}
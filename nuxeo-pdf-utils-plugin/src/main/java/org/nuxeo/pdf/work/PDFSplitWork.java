@@ -0,0 +1,89 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.work;
+
+import java.util.List;
+
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.pdf.PDFPageExtractor;
+
+/**
+ * Splits the PDF of a document (either by <code>ranges</code> or every
+ * <code>pagesPerFile</code> pages, see <code>PDFPageExtractor</code>) and
+ * stores the resulting PDFs in the target document (default target field is
+ * <code>files:files</code>).
+ *
+ * @since 7.2
+ */
+public class PDFSplitWork extends PDFWork {
+
+    private static final long serialVersionUID = 1L;
+
+    protected String ranges;
+
+    protected int pagesPerFile;
+
+    protected String pdfTitle;
+
+    protected String pdfSubject;
+
+    protected String pdfAuthor;
+
+    public PDFSplitWork(String inRepositoryName, List<String> inDocIds,
+            String inXPath, String inTargetDocId, String inTargetXPath) {
+        super(inRepositoryName, inDocIds, inXPath, inTargetDocId,
+                inTargetXPath);
+    }
+
+    public void setRanges(String inValue) {
+        ranges = inValue;
+    }
+
+    public void setPagesPerFile(int inValue) {
+        pagesPerFile = inValue;
+    }
+
+    public void setInfos(String inTitle, String inSubject, String inAuthor) {
+        pdfTitle = inTitle;
+        pdfSubject = inSubject;
+        pdfAuthor = inAuthor;
+    }
+
+    @Override
+    public String getTitle() {
+        return "PDF Split";
+    }
+
+    @Override
+    protected Object process(BlobList inBlobs) {
+
+        if (inBlobs.isEmpty()) {
+            return null;
+        }
+
+        PDFPageExtractor pe = new PDFPageExtractor(inBlobs.get(0));
+        if (ranges != null && !ranges.isEmpty()) {
+            return pe.split(PDFPageExtractor.parseRanges(ranges), pdfTitle,
+                    pdfSubject, pdfAuthor);
+        }
+        if (pagesPerFile > 0) {
+            return pe.splitEvery(pagesPerFile, pdfTitle, pdfSubject, pdfAuthor);
+        }
+        throw new ClientException("Either ranges or pagesPerFile must be used");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.work;
+
+import java.util.HashMap;
+import java.util.List;
+
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFWatermarking;
+
+/**
+ * Adds a text watermark to the PDF of a document and stores the result in
+ * the target document (by default, the result replaces the original PDF).
+ *
+ * @since 7.2
+ */
+public class PDFWatermarkWork extends PDFWork {
+
+    private static final long serialVersionUID = 1L;
+
+    protected String text;
+
+    protected HashMap<String, String> properties;
+
+    public PDFWatermarkWork(String inRepositoryName, List<String> inDocIds,
+            String inXPath, String inTargetDocId, String inTargetXPath) {
+        super(inRepositoryName, inDocIds, inXPath, inTargetDocId,
+                inTargetXPath);
+    }
+
+    public void setText(String inValue) {
+        text = inValue;
+    }
+
+    public void setProperties(HashMap<String, String> inValue) {
+        properties = inValue == null ? null : new HashMap<String, String>(
+                inValue);
+    }
+
+    @Override
+    public String getTitle() {
+        return "PDF Watermark";
+    }
+
+    @Override
+    protected Object process(BlobList inBlobs) {
+
+        if (inBlobs.isEmpty()) {
+            return null;
+        }
+
+        Blob original = inBlobs.get(0);
+        PDFWatermarking pdfw = new PDFWatermarking(original);
+        pdfw.setText(text);
+        if (properties != null) {
+            pdfw.setProperties(properties);
+        }
+        Blob result = pdfw.watermark();
+        result.setFilename(original.getFilename());
+        return result;
+    }
+}
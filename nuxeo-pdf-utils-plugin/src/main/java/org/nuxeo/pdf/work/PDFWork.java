@@ -0,0 +1,275 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.work;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.model.Property;
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.pdf.PDFGovernor;
+import org.nuxeo.pdf.PDFUtils;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Base class of the asynchronous PDF works. They run in the
+ * <code>pdfUtils</code> queue of the <code>WorkManager</code>.
+ * <p>
+ * A work reads the PDFs of its documents (<code>xpath</code>), processes them
+ * (<code>process()</code>, implemented by the subclasses) and stores the
+ * result in the <code>targetXPath</code> field of the target document. Only
+ * the reading and the saving run in a transaction, so processing big PDFs
+ * does not hit the transaction timeout. The work goes through the
+ * <code>PDFGovernor</code>, like the synchronous operations.
+ * <p>
+ * A result stored in <code>files:files</code> is added to the existing files
+ * (with their file name). Else, it replaces the value of the field. A list of
+ * PDFs can only be stored in a list field (see <code>checkTarget()</code>,
+ * called by the operations before scheduling).
+ * <p>
+ * The status of the work is <code>Reading</code>, <code>Processing</code>,
+ * <code>Saving</code>, then <code>Done</code>. The progress is updated after
+ * each document read and each phase. When the processing returns no PDF (no
+ * source document has a blob, for example), nothing is saved and the status
+ * is <code>STATUS_NO_RESULT</code>.
+ *
+ * @since 7.2
+ */
+public abstract class PDFWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(PDFWork.class);
+
+    public static final String CATEGORY = "pdfUtils";
+
+    public static final String FILES_XPATH = "files:files";
+
+    public static final String STATUS_NO_RESULT = "Failed: No PDF to save";
+
+    protected String xpath;
+
+    protected String targetDocId;
+
+    protected String targetXPath;
+
+    protected String fileName;
+
+    /**
+     * @param inRepositoryName
+     * @param inDocIds the documents whose PDF are processed, in this order
+     * @param inXPath the field of the PDF in these documents
+     * @param inTargetDocId the document receiving the result
+     * @param inTargetXPath the field receiving the result
+     */
+    public PDFWork(String inRepositoryName, List<String> inDocIds,
+            String inXPath, String inTargetDocId, String inTargetXPath) {
+        super();
+        setDocuments(inRepositoryName, new ArrayList<String>(inDocIds));
+        xpath = PDFUtils.checkXPath(inXPath);
+        targetDocId = inTargetDocId;
+        targetXPath = PDFUtils.checkXPath(inTargetXPath);
+    }
+
+    /**
+     * Process the PDFs. Called outside of any transaction.
+     *
+     * @param inBlobs the PDFs, in the order of the documents. Documents
+     *            without a blob are skipped.
+     * @return the result, either a <code>Blob</code> or a <code>BlobList</code>
+     *         (<code>null</code> when there is nothing to save)
+     */
+    protected abstract Object process(BlobList inBlobs);
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    public String getTargetDocId() {
+        return targetDocId;
+    }
+
+    public String getTargetXPath() {
+        return targetXPath;
+    }
+
+    public void setFileName(String inValue) {
+        fileName = inValue;
+    }
+
+    /**
+     * Check the <code>inTargetXPath</code> field of the target document can
+     * receive the result, before scheduling the work (so it does not fail
+     * after all the processing).
+     *
+     * @param inTarget
+     * @param inTargetXPath
+     * @param inListResult true if the work returns a list of PDFs
+     * @throws ClientException if the field does not exist, or if
+     *             <code>inListResult</code> is true and it is not a list
+     */
+    public static void checkTarget(DocumentModel inTarget,
+            String inTargetXPath, boolean inListResult) {
+
+        Property prop = inTarget.getProperty(PDFUtils.checkXPath(inTargetXPath));
+        if (inListResult && !prop.isList()) {
+            throw new ClientException("The PDFs cannot be stored in "
+                    + inTargetXPath + ", which is not a list field (use "
+                    + FILES_XPATH + ")");
+        }
+    }
+
+    /**
+     * Schedule the work in the <code>pdfUtils</code> queue, after the commit
+     * of the current transaction (so the work sees the documents created or
+     * modified by the caller).
+     *
+     * @return the id of the work
+     */
+    public String schedule() {
+
+        WorkManager wm = Framework.getLocalService(WorkManager.class);
+        if (wm == null) {
+            throw new ClientException("The WorkManager is not available");
+        }
+        wm.schedule(this, true);
+        return getId();
+    }
+
+    @Override
+    public void work() {
+
+        // Reading + processing + saving
+        long total = docIds.size() + 2;
+
+        setStatus("Reading");
+        BlobList blobs = new BlobList();
+        TransactionHelper.startTransaction();
+        try {
+            initSession();
+            long count = 0;
+            for (String id : docIds) {
+                DocumentModel doc = session.getDocument(new IdRef(id));
+                Blob blob = (Blob) doc.getPropertyValue(xpath);
+                if (blob != null) {
+                    blobs.add(blob);
+                }
+                setProgress(new Progress(++count, total));
+            }
+        } finally {
+            closeSession();
+            TransactionHelper.commitOrRollbackTransaction();
+        }
+
+        setStatus("Processing");
+        Object result;
+        PDFGovernor.Permit permit = PDFGovernor.enter(getTitle(), blobs);
+        try {
+            result = process(blobs);
+        } finally {
+            permit.release();
+        }
+        setProgress(new Progress(total - 1, total));
+
+        if (isEmpty(result)) {
+            log.warn(getTitle() + ": No PDF to save in " + targetDocId);
+            setProgress(new Progress(total, total));
+            setStatus(STATUS_NO_RESULT);
+            return;
+        }
+
+        setStatus("Saving");
+        TransactionHelper.startTransaction();
+        try {
+            initSession();
+            DocumentModel target = session.getDocument(new IdRef(targetDocId));
+            saveResult(target, result);
+            session.saveDocument(target);
+        } catch (RuntimeException e) {
+            TransactionHelper.setTransactionRollbackOnly();
+            throw e;
+        } finally {
+            closeSession();
+            TransactionHelper.commitOrRollbackTransaction();
+        }
+
+        setProgress(new Progress(total, total));
+        setStatus("Done");
+    }
+
+    protected static boolean isEmpty(Object inResult) {
+        return inResult == null
+                || (inResult instanceof BlobList && ((BlobList) inResult).isEmpty());
+    }
+
+    protected void saveResult(DocumentModel inTarget, Object inResult) {
+
+        List<Blob> resultBlobs = new ArrayList<Blob>();
+        if (inResult instanceof Blob) {
+            resultBlobs.add((Blob) inResult);
+        } else if (inResult instanceof BlobList) {
+            resultBlobs.addAll((BlobList) inResult);
+        } else if (inResult != null) {
+            throw new ClientException("Unexpected result: "
+                    + inResult.getClass());
+        }
+
+        if (FILES_XPATH.equals(targetXPath)) {
+            @SuppressWarnings("unchecked")
+            List<Map<String, Serializable>> files = (List<Map<String, Serializable>>) inTarget.getPropertyValue(FILES_XPATH);
+            ArrayList<Map<String, Serializable>> newFiles = new ArrayList<Map<String, Serializable>>();
+            if (files != null) {
+                newFiles.addAll(files);
+            }
+            for (Blob b : resultBlobs) {
+                HashMap<String, Serializable> file = new HashMap<String, Serializable>();
+                file.put("file", (Serializable) b);
+                file.put("filename", b.getFilename());
+                newFiles.add(file);
+            }
+            inTarget.setPropertyValue(FILES_XPATH, newFiles);
+        } else if (inTarget.getProperty(targetXPath).isList()) {
+            inTarget.setPropertyValue(targetXPath, new ArrayList<Blob>(
+                    resultBlobs));
+        } else if (resultBlobs.size() == 1) {
+            inTarget.setPropertyValue(targetXPath,
+                    (Serializable) resultBlobs.get(0));
+        } else {
+            throw new ClientException(resultBlobs.size()
+                    + " PDFs cannot be stored in " + targetXPath
+                    + ", which is not a list field");
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.PDFEmbeddedFont;
+import org.nuxeo.pdf.PDFPageNumbering;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+import org.nuxeo.pdf.PDFTextFont;
+import org.nuxeo.pdf.PDFWatermarking;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/*
+ * The tests use files/fonts/DejaVuSans.ttf, a small subset of DejaVu Sans
+ * (basic Latin and Cyrillic, free license, see files/fonts/LICENSE.txt).
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class, CoreFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class PDFEmbeddedFontTest {
+
+    private static final String THE_PDF = "files/13-pages-no-page-numbers.pdf";
+
+    private static final String FONTS_DIR = "files/fonts";
+
+    private static final String FONT_NAME = "DejaVuSans";
+
+    // Cyrillic and a numero sign: Not in WinAnsiEncoding
+    private static final String TEXT = "\u0416\u0443\u0440\u043d\u0430\u043b \u2116 7";
+
+    protected TestUtils utils;
+
+    protected FileBlob pdfFileBlob;
+
+    protected File fontFile;
+
+    @Before
+    public void setup() {
+
+        utils = new TestUtils();
+        pdfFileBlob = new FileBlob(
+                FileUtils.getResourceFileFromContext(THE_PDF));
+
+        File fontsDir = FileUtils.getResourceFileFromContext(FONTS_DIR);
+        fontFile = new File(fontsDir, FONT_NAME + ".ttf");
+        assertTrue(fontFile.isFile());
+
+        Framework.getProperties().setProperty(
+                PDFEmbeddedFont.FONTS_DIR_PROPERTY, fontsDir.getAbsolutePath());
+        PDFEmbeddedFont.resetCache();
+    }
+
+    @After
+    public void cleanup() {
+
+        Framework.getProperties().remove(PDFEmbeddedFont.FONTS_DIR_PROPERTY);
+        PDFEmbeddedFont.resetCache();
+        if (utils != null) {
+            utils.cleanup();
+        }
+    }
+
+    protected PDDocument load(Blob inBlob) throws Exception {
+
+        PDDocument doc = PDDocument.load(inBlob.getStream());
+        utils.track(doc);
+        return doc;
+    }
+
+    @Test
+    public void testFont() throws Exception {
+
+        PDFEmbeddedFont font = PDFEmbeddedFont.get(FONT_NAME);
+        assertNotNull(font);
+        assertSame(font, PDFEmbeddedFont.get(FONT_NAME));
+
+        int glyph = font.getGlyphId(0x0416);
+        assertTrue(glyph > 0);
+        assertEquals(0, font.getGlyphId(0x10FFFD));
+        assertTrue(font.getWidth(glyph) > 0);
+        assertEquals(2 * font.getStringWidth("\u0416", 12f),
+                font.getStringWidth("\u0416\u0416", 12f), 0.001);
+
+        assertNull(PDFEmbeddedFont.get("NoSuchFont"));
+        assertNull(PDFEmbeddedFont.get("../" + FONT_NAME));
+    }
+
+    @Test
+    public void testStandardFontIfNotInTheFontsDir() throws Exception {
+
+        PDDocument doc = new PDDocument();
+        utils.track(doc);
+
+        assertTrue(PDFTextFont.get(doc, "Helvetica") instanceof PDFTextFont.StandardFont);
+        assertTrue(PDFTextFont.get(doc, null) instanceof PDFTextFont.StandardFont);
+        assertTrue(PDFTextFont.get(doc, FONT_NAME) instanceof PDFEmbeddedFont.Subset);
+    }
+
+    @Test
+    public void testWatermarkWithUnicodeText() throws Exception {
+
+        PDFWatermarking pdfw = new PDFWatermarking(pdfFileBlob);
+        pdfw.setText(TEXT).setFontFamily(FONT_NAME);
+        Blob result = pdfw.watermark();
+
+        PDDocument doc = load(result);
+        assertTrue(utils.extractText(doc, 1, 1).indexOf(TEXT) > -1);
+        assertTrue(utils.extractText(doc, 13, 13).indexOf(TEXT) > -1);
+
+        checkEmbeddedSubset(doc);
+    }
+
+    @Test
+    public void testPageNumbersWithEmbeddedFont() throws Exception {
+
+        PDDocument doc = load(pdfFileBlob);
+        PDFPageNumbering.addPageNumbers(doc, 1, 1, FONT_NAME, 0, null,
+                PAGE_NUMBER_POSITION.BOTTOM_RIGHT);
+
+        assertTrue(utils.extractText(doc, 12, 12).indexOf("12") > -1);
+        checkEmbeddedSubset(doc);
+
+        PDPage page = (PDPage) doc.getDocumentCatalog().getAllPages().get(11);
+        COSDictionary fonts = (COSDictionary) page.findResources().getCOSDictionary().getDictionaryObject(
+                COSName.FONT);
+        boolean found = false;
+        for (COSName key : fonts.keySet()) {
+            found |= key.getName().startsWith(
+                    PDFTextFont.EMBEDDED_FONT_NAME_PREFIX);
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testMalformedFontFiles() throws Exception {
+
+        File dir = Files.createTempDirectory("pdfutils-fonts-").toFile();
+        byte[] font = Files.readAllBytes(fontFile.toPath());
+        byte[] cff = new byte[64];
+        System.arraycopy("OTTO".getBytes(StandardCharsets.ISO_8859_1), 0, cff,
+                0, 4);
+        writeFontFile(dir, "Empty.ttf", new byte[0]);
+        writeFontFile(dir, "Truncated.ttf", Arrays.copyOf(font, 200));
+        writeFontFile(dir, "Cff.otf", cff);
+        utils.track(dir);
+
+        Framework.getProperties().setProperty(
+                PDFEmbeddedFont.FONTS_DIR_PROPERTY, dir.getAbsolutePath());
+        for (String name : new String[] { "Empty", "Truncated", "Cff" }) {
+            try {
+                PDFEmbeddedFont.get(name);
+                fail(name + " must not be parsed");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    protected void writeFontFile(File inDir, String inName, byte[] inData)
+            throws IOException {
+
+        File f = new File(inDir, inName);
+        Files.write(f.toPath(), inData);
+        utils.track(f);
+    }
+
+    /*
+     * One subset, much smaller than the font file. It has its own resource
+     * names.
+     */
+    protected void checkEmbeddedSubset(PDDocument inDoc) throws Exception {
+
+        Set<COSDictionary> cidFonts = Collections.newSetFromMap(new IdentityHashMap<COSDictionary, Boolean>());
+        Set<COSBase> visited = Collections.newSetFromMap(new IdentityHashMap<COSBase, Boolean>());
+        for (COSObject obj : inDoc.getDocument().getObjects()) {
+            findCIDFonts(obj.getObject(), visited, cidFonts);
+        }
+        assertEquals(1, cidFonts.size());
+
+        COSDictionary cidFont = cidFonts.iterator().next();
+        assertTrue(cidFont.getNameAsString(COSName.BASE_FONT).matches(
+                "[A-Z]{6}\\+" + FONT_NAME));
+
+        COSDictionary descriptor = (COSDictionary) cidFont.getDictionaryObject(COSName.FONT_DESC);
+        COSStream fontFile = (COSStream) descriptor.getDictionaryObject(COSName.FONT_FILE2);
+        assertNotNull(fontFile);
+        long length = fontFile.getInt(COSName.LENGTH1);
+        assertTrue(length > 0);
+        assertTrue(length < fontFile.length() / 4);
+    }
+
+    // The font dictionaries can be direct objects
+    protected void findCIDFonts(COSBase inBase, Set<COSBase> inVisited,
+            Set<COSDictionary> inCIDFonts) {
+
+        if (inBase instanceof COSObject) {
+            inBase = ((COSObject) inBase).getObject();
+        }
+        if (inBase == null || !inVisited.add(inBase)) {
+            return;
+        }
+
+        if (inBase instanceof COSArray) {
+            COSArray array = (COSArray) inBase;
+            for (int i = 0; i < array.size(); i++) {
+                findCIDFonts(array.get(i), inVisited, inCIDFonts);
+            }
+        } else if (inBase instanceof COSDictionary) {
+            COSDictionary dict = (COSDictionary) inBase;
+            if (COSName.CID_FONT_TYPE2.equals(dict.getDictionaryObject(COSName.SUBTYPE))) {
+                inCIDFonts.add(dict);
+            }
+            for (COSName key : dict.keySet()) {
+                if (!COSName.PARENT.equals(key)) {
+                    findCIDFonts(dict.getItem(key), inVisited, inCIDFonts);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDJpeg;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectImage;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.PDFUtils;
+
+/**
+ * Generates PDFs of any size for load and scaling tests (and for the
+ * benchmarks).
+ * <p>
+ * Everything is derived from the seed: The same settings and the same seed
+ * always give the same bytes (the trailer /ID is also derived from the seed,
+ * and no date is set).
+ * <p>
+ * Each page has <code>linesPerPage</code> lines of random words, the first one
+ * being "Page N" (so tests can check the order of the pages), written with
+ * one of the <code>fontCount</code> first standard fonts (the font changes at
+ * each page). <code>imagesPerPage</code> random JPEG images are drawn on each
+ * page, either always the same (<code>sharedImages</code>, default) or new
+ * ones for each page.
+ * <p>
+ * The page tree is flat (all the pages are kids of the root) unless
+ * <code>pageTreeFanOut</code> is set: Pages are then grouped in a balanced
+ * tree of intermediate /Pages nodes, as most PDF producers do.
+ * <p>
+ * PDFBox 1.8 can read, but not write, object streams and cross-reference
+ * streams: The generated PDFs always use a classic xref table.
+ *
+ * @since 7.2
+ */
+public class PDFFixtureGenerator {
+
+    protected static final PDFont[] FONTS = { PDType1Font.HELVETICA,
+            PDType1Font.TIMES_ROMAN, PDType1Font.COURIER,
+            PDType1Font.HELVETICA_BOLD, PDType1Font.TIMES_BOLD,
+            PDType1Font.COURIER_BOLD, PDType1Font.HELVETICA_OBLIQUE,
+            PDType1Font.TIMES_ITALIC, PDType1Font.COURIER_OBLIQUE,
+            PDType1Font.HELVETICA_BOLD_OBLIQUE, PDType1Font.TIMES_BOLD_ITALIC,
+            PDType1Font.COURIER_BOLD_OBLIQUE };
+
+    protected static final String[] WORDS = { "nuxeo", "document", "content",
+            "platform", "workflow", "version", "folder", "schema", "blob",
+            "automation", "chain", "operation", "lorem", "ipsum", "dolor",
+            "sit", "amet", "page", "number", "watermark" };
+
+    protected long seed = 0;
+
+    protected int pageCount = 10;
+
+    protected int linesPerPage = 20;
+
+    protected int fontCount = 1;
+
+    protected int imagesPerPage = 0;
+
+    protected boolean sharedImages = true;
+
+    protected int imageWidth = 200;
+
+    protected int imageHeight = 150;
+
+    protected int pageTreeFanOut = 0;
+
+    protected String ownerPassword;
+
+    protected String userPassword;
+
+    public PDFFixtureGenerator() {
+
+    }
+
+    public PDFFixtureGenerator(long inSeed) {
+        seed = inSeed;
+    }
+
+    /**
+     * Build the document. The caller must close it.
+     *
+     * @return the document
+     * @throws IOException
+     */
+    public PDDocument generate() throws IOException {
+
+        Random random = new Random(seed);
+        PDDocument doc = new PDDocument();
+        try {
+            PDDocumentInformation info = doc.getDocumentInformation();
+            info.setTitle("Fixture " + seed + " - " + pageCount + " pages");
+            info.setProducer(getClass().getName());
+
+            List<PDXObjectImage> images = new ArrayList<PDXObjectImage>();
+            if (sharedImages) {
+                for (int i = 0; i < imagesPerPage; i++) {
+                    images.add(createImage(doc, random));
+                }
+            }
+
+            for (int i = 1; i <= pageCount; i++) {
+                if (!sharedImages) {
+                    images.clear();
+                    for (int j = 0; j < imagesPerPage; j++) {
+                        images.add(createImage(doc, random));
+                    }
+                }
+                addPage(doc, i, random, images);
+            }
+
+            if (pageTreeFanOut > 1) {
+                balancePageTree(doc);
+            }
+
+            byte[] id = new byte[16];
+            random.nextBytes(id);
+            COSArray idArray = new COSArray();
+            idArray.add(new COSString(id));
+            idArray.add(new COSString(id));
+            doc.getDocument().getTrailer().setItem(COSName.ID, idArray);
+
+            if (isEncrypted()) {
+                StandardProtectionPolicy policy = new StandardProtectionPolicy(
+                        ownerPassword == null ? "" : ownerPassword,
+                        userPassword == null ? "" : userPassword,
+                        new AccessPermission());
+                policy.setEncryptionKeyLength(128);
+                try {
+                    doc.protect(policy);
+                } catch (Exception e) {
+                    throw new IOException("Cannot encrypt the PDF", e);
+                }
+            }
+
+            return doc;
+
+        } catch (IOException | RuntimeException e) {
+            PDFUtils.closeSilently(doc);
+            throw e;
+        }
+    }
+
+    /**
+     * Build the document and save it in a temporary file. The caller must
+     * delete it.
+     *
+     * @return the file
+     * @throws IOException
+     */
+    public File generateFile() throws IOException {
+
+        PDDocument doc = generate();
+        try {
+            File f = File.createTempFile("nuxeo-pdfutils-fixture-", ".pdf");
+            f.deleteOnExit();
+            doc.save(f);
+            return f;
+        } catch (Exception e) {
+            throw new IOException("Cannot save the PDF", e);
+        } finally {
+            PDFUtils.closeSilently(doc);
+        }
+    }
+
+    /**
+     * Build the document and return it as a blob, whose file must be deleted
+     * by the caller.
+     *
+     * @return a FileBlob
+     * @throws IOException
+     */
+    public FileBlob generateBlob() throws IOException {
+
+        FileBlob blob = new FileBlob(generateFile());
+        blob.setFilename("fixture-" + seed + "-" + pageCount + ".pdf");
+        blob.setMimeType("application/pdf");
+        return blob;
+    }
+
+    protected void addPage(PDDocument inDoc, int inPageNumber, Random inRandom,
+            List<PDXObjectImage> inImages) throws IOException {
+
+        PDPage page = new PDPage(PDPage.PAGE_SIZE_A4);
+        inDoc.addPage(page);
+
+        float width = page.getMediaBox().getWidth();
+        float height = page.getMediaBox().getHeight();
+
+        PDPageContentStream contentStream = new PDPageContentStream(inDoc,
+                page);
+        try {
+            int x = 0;
+            for (PDXObjectImage image : inImages) {
+                float y = inRandom.nextInt((int) (height - imageHeight));
+                contentStream.drawXObject(image, x, y, imageWidth, imageHeight);
+                x = (x + imageWidth) % (int) (width - imageWidth);
+            }
+
+            PDFont font = FONTS[(inPageNumber - 1)
+                    % Math.max(1, Math.min(fontCount, FONTS.length))];
+            contentStream.beginText();
+            contentStream.setFont(font, 10);
+            contentStream.moveTextPositionByAmount(40, height - 40);
+            contentStream.drawString("Page " + inPageNumber);
+            for (int i = 1; i < linesPerPage; i++) {
+                contentStream.moveTextPositionByAmount(0, -14);
+                contentStream.drawString(randomLine(inRandom));
+            }
+            contentStream.endText();
+        } finally {
+            contentStream.close();
+        }
+    }
+
+    protected String randomLine(Random inRandom) {
+
+        StringBuilder sb = new StringBuilder();
+        int count = 5 + inRandom.nextInt(8);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[inRandom.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    protected PDXObjectImage createImage(PDDocument inDoc, Random inRandom)
+            throws IOException {
+
+        BufferedImage image = new BufferedImage(imageWidth, imageHeight,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(new Color(inRandom.nextInt(0x1000000)));
+            g.fillRect(0, 0, imageWidth, imageHeight);
+            for (int i = 0; i < 20; i++) {
+                g.setColor(new Color(inRandom.nextInt(0x1000000)));
+                int x = inRandom.nextInt(imageWidth);
+                int y = inRandom.nextInt(imageHeight);
+                int w = 1 + inRandom.nextInt(imageWidth / 2);
+                int h = 1 + inRandom.nextInt(imageHeight / 2);
+                if (inRandom.nextBoolean()) {
+                    g.fillRect(x, y, w, h);
+                } else {
+                    g.fillOval(x, y, w, h);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+
+        return new PDJpeg(inDoc, image);
+    }
+
+    /*
+     * Replace the flat list of kids of the root by a balanced tree: Groups of
+     * pageTreeFanOut kids are moved to a new intermediate node, level after
+     * level, until the root has no more than pageTreeFanOut kids.
+     */
+    protected void balancePageTree(PDDocument inDoc) {
+
+        COSDictionary root = inDoc.getDocumentCatalog().getPages().getDictionary();
+        COSArray kids = (COSArray) root.getDictionaryObject(COSName.KIDS);
+
+        List<COSDictionary> level = new ArrayList<COSDictionary>();
+        for (int i = 0; i < kids.size(); i++) {
+            level.add((COSDictionary) kids.getObject(i));
+        }
+
+        while (level.size() > pageTreeFanOut) {
+            List<COSDictionary> nextLevel = new ArrayList<COSDictionary>();
+            for (int start = 0; start < level.size(); start += pageTreeFanOut) {
+                int end = Math.min(start + pageTreeFanOut, level.size());
+                COSDictionary node = new COSDictionary();
+                node.setItem(COSName.TYPE, COSName.PAGES);
+                COSArray nodeKids = new COSArray();
+                int count = 0;
+                for (COSDictionary kid : level.subList(start, end)) {
+                    kid.setItem(COSName.PARENT, node);
+                    nodeKids.add(kid);
+                    count += countPages(kid);
+                }
+                node.setItem(COSName.KIDS, nodeKids);
+                node.setItem(COSName.COUNT, COSInteger.get(count));
+                nextLevel.add(node);
+            }
+            level = nextLevel;
+        }
+
+        COSArray rootKids = new COSArray();
+        for (COSDictionary kid : level) {
+            kid.setItem(COSName.PARENT, root);
+            rootKids.add(kid);
+        }
+        root.setItem(COSName.KIDS, rootKids);
+        root.setItem(COSName.COUNT, COSInteger.get(pageCount));
+    }
+
+    protected int countPages(COSDictionary inNode) {
+
+        if (COSName.PAGES.equals(inNode.getDictionaryObject(COSName.TYPE))) {
+            return inNode.getInt(COSName.COUNT);
+        }
+        return 1;
+    }
+
+    public boolean isEncrypted() {
+        return (ownerPassword != null && !ownerPassword.isEmpty())
+                || (userPassword != null && !userPassword.isEmpty());
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public PDFFixtureGenerator setSeed(long inValue) {
+        seed = inValue;
+        return this;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public PDFFixtureGenerator setPageCount(int inValue) {
+        pageCount = inValue;
+        return this;
+    }
+
+    public int getLinesPerPage() {
+        return linesPerPage;
+    }
+
+    public PDFFixtureGenerator setLinesPerPage(int inValue) {
+        linesPerPage = Math.max(1, inValue);
+        return this;
+    }
+
+    public int getFontCount() {
+        return fontCount;
+    }
+
+    /**
+     * Number of different fonts used in the document (max. 12, the standard
+     * fonts without Symbol and ZapfDingbats)
+     *
+     * @param inValue
+     * @return this
+     */
+    public PDFFixtureGenerator setFontCount(int inValue) {
+        fontCount = inValue;
+        return this;
+    }
+
+    public int getImagesPerPage() {
+        return imagesPerPage;
+    }
+
+    public PDFFixtureGenerator setImagesPerPage(int inValue) {
+        imagesPerPage = inValue;
+        return this;
+    }
+
+    public boolean isSharedImages() {
+        return sharedImages;
+    }
+
+    /**
+     * When <code>true</code> (default), all the pages draw the same images.
+     * Else, each page has its own images and the size of the PDF grows with
+     * the number of pages.
+     *
+     * @param inValue
+     * @return this
+     */
+    public PDFFixtureGenerator setSharedImages(boolean inValue) {
+        sharedImages = inValue;
+        return this;
+    }
+
+    public PDFFixtureGenerator setImageSize(int inWidth, int inHeight) {
+        imageWidth = inWidth;
+        imageHeight = inHeight;
+        return this;
+    }
+
+    public int getPageTreeFanOut() {
+        return pageTreeFanOut;
+    }
+
+    /**
+     * Max. number of kids of a node of the page tree. 0 (default) builds a
+     * flat tree.
+     *
+     * @param inValue
+     * @return this
+     */
+    public PDFFixtureGenerator setPageTreeFanOut(int inValue) {
+        pageTreeFanOut = inValue;
+        return this;
+    }
+
+    /**
+     * Encrypt the PDF (128 bits RC4) when at least one password is not empty.
+     *
+     * @param inOwnerPassword
+     * @param inUserPassword
+     * @return this
+     */
+    public PDFFixtureGenerator setPasswords(String inOwnerPassword,
+            String inUserPassword) {
+        ownerPassword = inOwnerPassword;
+        userPassword = inUserPassword;
+        return this;
+    }
+}
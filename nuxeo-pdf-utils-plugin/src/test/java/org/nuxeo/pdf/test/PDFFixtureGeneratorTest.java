@@ -0,0 +1,195 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.PDFPageNumbering;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class, CoreFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class PDFFixtureGeneratorTest {
+
+    protected TestUtils utils;
+
+    @Before
+    public void setup() {
+
+        utils = new TestUtils();
+    }
+
+    @After
+    public void cleanup() {
+
+        utils.cleanup();
+    }
+
+    protected File generate(PDFFixtureGenerator inGenerator) throws Exception {
+
+        File f = inGenerator.generateFile();
+        utils.track(f);
+        return f;
+    }
+
+    protected PDDocument load(File inFile) throws Exception {
+
+        PDDocument doc = PDDocument.load(inFile);
+        utils.track(doc);
+        return doc;
+    }
+
+    @Test
+    public void testSameSeedGivesSamePdf() throws Exception {
+
+        File f1 = generate(new PDFFixtureGenerator(42).setPageCount(20).setImagesPerPage(
+                1));
+        File f2 = generate(new PDFFixtureGenerator(42).setPageCount(20).setImagesPerPage(
+                1));
+        File f3 = generate(new PDFFixtureGenerator(43).setPageCount(20).setImagesPerPage(
+                1));
+
+        byte[] bytes1 = Files.readAllBytes(f1.toPath());
+        assertTrue(Arrays.equals(bytes1, Files.readAllBytes(f2.toPath())));
+        assertFalse(Arrays.equals(bytes1, Files.readAllBytes(f3.toPath())));
+    }
+
+    @Test
+    public void testBalancedPageTree() throws Exception {
+
+        File f = generate(new PDFFixtureGenerator(1).setPageCount(50).setPageTreeFanOut(
+                4));
+
+        PDDocument doc = load(f);
+        assertEquals(50, doc.getNumberOfPages());
+        assertEquals(50, doc.getDocumentCatalog().getAllPages().size());
+        // 50 pages, 4 per node => 13 nodes, then 4, then 1 => the root has 1
+        // kid
+        assertEquals(1, doc.getDocumentCatalog().getPages().getKids().size());
+
+        String text = utils.extractText(doc, 37, 37);
+        assertTrue(text.indexOf("Page 37") > -1);
+    }
+
+    @Test
+    public void testImagesAndFonts() throws Exception {
+
+        File f = generate(new PDFFixtureGenerator(2).setPageCount(6).setImagesPerPage(
+                2).setSharedImages(false).setFontCount(3));
+
+        PDDocument doc = load(f);
+        int imageCount = 0;
+        for (COSObject obj : doc.getDocument().getObjects()) {
+            COSBase base = obj.getObject();
+            if (base instanceof COSStream
+                    && COSName.IMAGE.equals(((COSStream) base).getDictionaryObject(COSName.SUBTYPE))) {
+                imageCount += 1;
+            }
+        }
+        assertEquals(12, imageCount);
+
+        HashSet<String> fontNames = new HashSet<String>();
+        @SuppressWarnings("unchecked")
+        List<PDPage> pages = doc.getDocumentCatalog().getAllPages();
+        for (PDPage page : pages) {
+            for (PDFont font : page.findResources().getFonts().values()) {
+                fontNames.add(font.getBaseFont());
+            }
+        }
+        assertEquals(3, fontNames.size());
+    }
+
+    @Test
+    public void testEncrypted() throws Exception {
+
+        File f = generate(new PDFFixtureGenerator(3).setPageCount(5).setPasswords(
+                "owner", "user"));
+
+        PDDocument doc = PDDocument.loadNonSeq(f, null, "user");
+        utils.track(doc);
+        assertTrue(doc.isEncrypted());
+        assertEquals(5, doc.getNumberOfPages());
+        assertTrue(utils.extractText(doc, 2, 2).indexOf("Page 2") > -1);
+    }
+
+    /*
+     * Not a benchmark (see nuxeo-pdf-utils-bench), just a guard against
+     * something going O(n^2) on the pages: 10 times more pages must not take
+     * 100 times longer (the limit is large, to not fail on a slow or busy
+     * machine).
+     */
+    @Test
+    public void testPageNumberingScales() throws Exception {
+
+        PDFFixtureGenerator generator = new PDFFixtureGenerator(4).setLinesPerPage(
+                1).setPageTreeFanOut(10);
+
+        FileBlob small = generator.setPageCount(100).generateBlob();
+        utils.track(small.getFile());
+        FileBlob big = generator.setPageCount(1000).generateBlob();
+        utils.track(big.getFile());
+
+        // Warm up
+        addPageNumbers(small);
+
+        long smallDuration = Math.max(addPageNumbers(small), 100);
+        long bigDuration = addPageNumbers(big);
+
+        assertTrue("100 pages: " + smallDuration + "ms, 1000 pages: "
+                + bigDuration + "ms", bigDuration < smallDuration * 40);
+    }
+
+    protected long addPageNumbers(Blob inBlob) throws Exception {
+
+        long start = System.currentTimeMillis();
+        PDFPageNumbering pn = new PDFPageNumbering(inBlob);
+        Blob result = pn.addPageNumbers(1, 1, null, 0, "#ff0000",
+                PAGE_NUMBER_POSITION.BOTTOM_RIGHT);
+        long duration = System.currentTimeMillis() - start;
+
+        if (result instanceof FileBlob) {
+            utils.track(((FileBlob) result).getFile());
+        }
+        return duration;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.PDFFontMetrics;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class, CoreFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class PDFFontMetricsTest {
+
+    protected static final String[] TEXTS = { "1", "12345", "9999",
+            "CONFIDENTIAL", "Draft - Not for distribution", "\u00c9t\u00e9 \u00e0 No\u00ebl", "" };
+
+    @Test
+    public void testSameWidthsAsTheFont() throws Exception {
+
+        for (String fontName : new String[] { "Helvetica", "Times-Bold",
+                "Courier" }) {
+            PDFFontMetrics metrics = PDFFontMetrics.get(fontName);
+            PDFont font = PDType1Font.getStandardFont(fontName);
+            assertEquals(fontName, metrics.getFontName());
+
+            for (String text : TEXTS) {
+                assertEquals(fontName + ": " + text, font.getStringWidth(text)
+                        * 16f / 1000f, metrics.getStringWidth(text, 16f),
+                        0.001);
+            }
+
+            float expectedHeight = font.getFontDescriptor().getFontBoundingBox().getHeight() * 16f / 1000f;
+            assertEquals(expectedHeight, metrics.getHeight(16f), 0.001);
+        }
+    }
+
+    @Test
+    public void testShared() throws Exception {
+
+        assertSame(PDFFontMetrics.get("Helvetica"),
+                PDFFontMetrics.get("Helvetica"));
+        assertSame(PDFFontMetrics.get(null), PDFFontMetrics.get("Helvetica"));
+        assertSame(PDFFontMetrics.get(""), PDFFontMetrics.get("Helvetica"));
+    }
+
+    @Test
+    public void testFontsAreNotShared() throws Exception {
+
+        // One font dictionary per document
+        PDFFontMetrics metrics = PDFFontMetrics.get("Times-Bold");
+        PDFont font = metrics.newFont();
+        assertNotSame(PDType1Font.TIMES_BOLD, font);
+        assertNotSame(font.getCOSObject(), metrics.newFont().getCOSObject());
+        assertEquals("Times-Bold", font.getBaseFont());
+
+        // Unknown names are not kept
+        assertNotSame(PDFFontMetrics.get("NotAStandardFont"),
+                PDFFontMetrics.get("NotAStandardFont"));
+    }
+
+    @Test
+    public void testNotLatin1() throws Exception {
+
+        PDFFontMetrics metrics = PDFFontMetrics.get("Helvetica");
+        String text = "Page \u2116 1";
+        assertEquals(PDType1Font.HELVETICA.getStringWidth(text) * 10f / 1000f,
+                metrics.getStringWidth(text, 10f), 0.001);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.OperationChain;
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.test.EmbeddedAutomationServerFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.PDFGovernor;
+import org.nuxeo.pdf.PDFMetrics;
+import org.nuxeo.pdf.operations.WatermarkWithTextOp;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+
+import com.google.inject.Inject;
+
+/*
+ * The test contribution allows 10MB, with a memory factor of 1 and a timeout
+ * of 1s
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class, CoreFeature.class,
+        EmbeddedAutomationServerFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+@LocalDeploy({ "nuxeo-pdf-utils-plugin:OSGI-INF/test-pdf-governor-contrib.xml" })
+public class PDFGovernorTest {
+
+    private static final String THE_PDF = "files/13-pages-no-page-numbers.pdf";
+
+    private static final long MB = 1024 * 1024;
+
+    @Inject
+    CoreSession coreSession;
+
+    @Inject
+    AutomationService automationService;
+
+    protected PDFGovernor getGovernor() {
+        PDFGovernor governor = Framework.getLocalService(PDFGovernor.class);
+        assertNotNull(governor);
+        return governor;
+    }
+
+    @Test
+    public void testConfiguration() throws Exception {
+
+        PDFGovernor governor = getGovernor();
+        assertEquals(10, governor.getConfiguration().getMaxMemoryMB());
+
+        assertEquals(1, governor.getWeight(-1));
+        assertEquals(1, governor.getWeight(100));
+        assertEquals(3, governor.getWeight(3 * MB));
+        // Capped, so a big PDF can still run alone
+        assertEquals(10, governor.getWeight(100 * MB));
+    }
+
+    @Test
+    public void testWaitAndTimeout() throws Exception {
+
+        PDFGovernor governor = getGovernor();
+        long timeouts = PDFMetrics.getRegistry().counter(
+                PDFMetrics.name("governor", "timeouts")).getCount();
+
+        PDFGovernor.Permit first = governor.acquire("test", 6 * MB);
+        assertEquals(6, first.getWeight());
+
+        // 4MB left: Ok for 4, not for 5
+        PDFGovernor.Permit second = governor.acquire("test", 4 * MB);
+        second.release();
+        // Releasing twice does not give more room
+        second.release();
+
+        try {
+            governor.acquire("test", 5 * MB);
+            assertTrue("Acquiring should have timed out", false);
+        } catch (ClientException e) {
+            // We're good
+        }
+        assertEquals(timeouts + 1, PDFMetrics.getRegistry().counter(
+                PDFMetrics.name("governor", "timeouts")).getCount());
+
+        first.release();
+        PDFGovernor.Permit third = governor.acquire("test", 10 * MB);
+        third.release();
+    }
+
+    @Test
+    public void testOperationWaitsForItsTurn() throws Exception {
+
+        PDFGovernor governor = getGovernor();
+        File pdfFile = FileUtils.getResourceFileFromContext(THE_PDF);
+        FileBlob pdfFileBlob = new FileBlob(pdfFile);
+
+        OperationContext ctx = new OperationContext(coreSession);
+        ctx.setInput(pdfFileBlob);
+        OperationChain chain = new OperationChain("testChain");
+        chain.add(WatermarkWithTextOp.ID).set("watermark", "Governed");
+
+        PDFGovernor.Permit all = governor.acquire("test", 10 * MB);
+        try {
+            automationService.run(ctx, chain);
+            assertTrue("The operation should have timed out", false);
+        } catch (Exception e) {
+            // We're good
+        } finally {
+            all.release();
+        }
+
+        ctx = new OperationContext(coreSession);
+        ctx.setInput(pdfFileBlob);
+        Blob result = (Blob) automationService.run(ctx, chain);
+        assertNotNull(result);
+    }
+}
@@ -21,9 +21,12 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.UUID;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -34,13 +37,21 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.OperationChain;
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.core.util.Properties;
 import org.nuxeo.ecm.automation.test.EmbeddedAutomationServerFeature;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.test.CoreFeature;
 import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.PDFCache;
 import org.nuxeo.pdf.PDFInfo;
+import org.nuxeo.pdf.PDFInfoMapping;
+import org.nuxeo.pdf.operations.PDFInfoToFieldsOp;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
@@ -134,6 +145,205 @@ public class PDFInfoTest {
 
     }
 
+    @Test
+    public void testPDFInfoUsesTheCache() throws Exception {
+
+        PDFCache<String, PDFInfo> cache = PDFInfo.getCache();
+        assertTrue(cache.isEnabled());
+        long hits = cache.getHitCount();
+
+        // No digest => no caching
+        PDFInfo info = new PDFInfo(pdfFileBlob);
+        info.run();
+        info = new PDFInfo(pdfFileBlob);
+        info.run();
+        assertEquals(hits, cache.getHitCount());
+
+        FileBlob fb = new FileBlob(pdfFile);
+        fb.setDigest(UUID.randomUUID().toString());
+        info = new PDFInfo(fb);
+        info.run();
+        assertEquals(hits, cache.getHitCount());
+
+        info = new PDFInfo(fb);
+        info.run();
+        assertEquals(hits + 1, cache.getHitCount());
+        HashMap<String, String> values = info.toHashMap();
+        assertEquals("1.3", values.get("PDF version"));
+        assertEquals("13", values.get("Page count"));
+        assertEquals(pdfFile.getName(), values.get("File name"));
+
+        // Not the same key with XMP
+        info = new PDFInfo(fb);
+        info.setParseWithXMP(true);
+        info.run();
+        assertEquals(hits + 1, cache.getHitCount());
+
+        // Not the same key in lightweight mode
+        info = new PDFInfo(fb);
+        info.setLightweightMode(true);
+        info.run();
+        assertEquals(hits + 1, cache.getHitCount());
+        info = new PDFInfo(fb);
+        info.setLightweightMode(true);
+        info.run();
+        assertEquals(hits + 2, cache.getHitCount());
+    }
+
+    @Test
+    public void testPDFInfoCacheAndBadPassword() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(ENCRYPTED_PDF);
+        FileBlob fb = new FileBlob(f);
+        fb.setDigest(UUID.randomUUID().toString());
+
+        PDFInfo info = new PDFInfo(fb, ENCRYPTED_PDF_PWD);
+        info.run();
+        assertTrue(info.isEncrypted());
+
+        try {
+            info = new PDFInfo(fb, "toto");
+            info.run();
+            assertTrue(
+                    "Parsing the file with a wrong password should have failed",
+                    false);
+        } catch (Exception e) {
+            assertTrue(e.getMessage().indexOf(
+                    "The supplied password does not match") > -1);
+        }
+    }
+
+    @Test
+    public void testCacheLimits() throws Exception {
+
+        PDFCache<String, String> cache = new PDFCache<String, String>(2, 100,
+                0);
+        cache.put("a", "a", 10);
+        cache.put("b", "b", 10);
+        assertEquals("a", cache.get("a"));
+        // "b" is the least recently used
+        cache.put("c", "c", 10);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals("a", cache.get("a"));
+        assertEquals("c", cache.get("c"));
+
+        // Size limit
+        cache.put("d", "d", 95);
+        assertEquals(1, cache.size());
+        assertEquals(95, cache.getCurrentSize());
+        cache.put("e", "e", 101);
+        assertNull(cache.get("e"));
+
+        // TTL
+        cache = new PDFCache<String, String>(10, 100, 1);
+        cache.put("a", "a", 10);
+        Thread.sleep(10);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+
+        // Disabled
+        cache = new PDFCache<String, String>(0, 100, 0);
+        cache.put("a", "a", 10);
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testPDFInfoLightweightMode() throws Exception {
+
+        PDFInfo info = new PDFInfo(pdfFileBlob);
+        info.run();
+        HashMap<String, String> expected = info.toHashMap();
+
+        info = new PDFInfo(pdfFileBlob);
+        info.setLightweightMode(true);
+        info.run();
+        assertEquals(expected, info.toHashMap());
+
+        File f = FileUtils.getResourceFileFromContext(ENCRYPTED_PDF);
+        FileBlob fb = new FileBlob(f);
+        info = new PDFInfo(fb, ENCRYPTED_PDF_PWD);
+        info.run();
+        expected = info.toHashMap();
+
+        info = new PDFInfo(fb, ENCRYPTED_PDF_PWD);
+        info.setLightweightMode(true);
+        info.run();
+        assertEquals(expected, info.toHashMap());
+    }
+
+    @Test
+    public void testPDFInfoLightweightModeWithXMP() throws Exception {
+
+        FileBlob fb = new FileBlob(
+                FileUtils.getResourceFileFromContext(PDF_WITH_XMP));
+        PDFInfo info = new PDFInfo(fb);
+        info.setParseWithXMP(true);
+        info.run();
+        String expected = info.getXmp();
+        assertNotNull(expected);
+
+        info = new PDFInfo(fb);
+        info.setParseWithXMP(true);
+        info.setLightweightMode(true);
+        info.run();
+        assertEquals(expected, info.getXmp());
+    }
+
+    /*
+     * The object of the second page is garbage: Reading it would fail. The
+     * lightweight mode never reads it.
+     */
+    @Test
+    public void testPDFInfoLightweightModeDoesNotReadOtherPages()
+            throws Exception {
+
+        String[] objects = {
+                "<< /Type /Catalog /Pages 2 0 R >>",
+                "<< /Type /Pages /Kids [3 0 R 4 0 R] /Count 2 >>",
+                "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 300 400] >>",
+                null,
+                "<< /Title (Lightweight) >>" };
+
+        StringBuilder pdf = new StringBuilder("%PDF-1.4\n");
+        int[] offsets = new int[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            offsets[i] = pdf.length();
+            if (objects[i] == null) {
+                pdf.append("%%%% Not a PDF object %%%%\n");
+            } else {
+                pdf.append(i + 1).append(" 0 obj\n").append(objects[i]).append(
+                        "\nendobj\n");
+            }
+        }
+        int xref = pdf.length();
+        pdf.append("xref\n0 ").append(objects.length + 1).append(
+                "\n0000000000 65535 f \n");
+        for (int offset : offsets) {
+            pdf.append(String.format("%010d 00000 n \n", offset));
+        }
+        pdf.append("trailer\n<< /Size ").append(objects.length + 1).append(
+                " /Root 1 0 R /Info 5 0 R >>\nstartxref\n").append(xref).append(
+                "\n%%EOF\n");
+
+        File f = File.createTempFile("pdfutils-lightweight-", ".pdf");
+        f.deleteOnExit();
+        Files.write(f.toPath(),
+                pdf.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        PDFInfo info = new PDFInfo(new FileBlob(f));
+        info.setLightweightMode(true);
+        info.run();
+        assertEquals(2, info.getNumberOfPages());
+        assertEquals("Lightweight", info.getTitle());
+        assertEquals(300f, info.getMediaBoxWidthInPoints(), 0.01f);
+        assertEquals(400f, info.getMediaBoxHeightInPoints(), 0.01f);
+        // No crop box: Same as the media box
+        assertEquals(300f, info.getCropBoxWidthInPoints(), 0.01f);
+
+        f.delete();
+    }
+
     @Test
     public void testPDFInfoShouldFailOnNonPDFBlob() throws Exception {
 
@@ -270,4 +480,100 @@ public class PDFInfoTest {
         assertEquals(expectedDate, cal);
 
     }
+
+    @Test
+    public void testInfoToFieldsOnDocumentList() throws Exception {
+
+        DocumentModelList docs = new DocumentModelListImpl();
+        for (int i = 0; i < 5; i++) {
+            DocumentModel doc = coreSession.createDocumentModel(
+                    testDocsFolder.getPathAsString(), "pdf-" + i, "File");
+            doc.setPropertyValue("file:content", pdfFileBlob);
+            docs.add(coreSession.createDocument(doc));
+        }
+        // No blob: The fields are cleared
+        DocumentModel noBlob = coreSession.createDocumentModel(
+                testDocsFolder.getPathAsString(), "no-blob", "File");
+        noBlob.setPropertyValue("dc:format", "Something");
+        noBlob = coreSession.createDocument(noBlob);
+        docs.add(2, noBlob);
+        coreSession.save();
+
+        Properties props = new Properties();
+        props.put("dc:coverage", "PDF version");
+        props.put("dc:description", "Page count");
+        props.put("dc:format", "Page layout");
+
+        OperationContext ctx = new OperationContext(coreSession);
+        ctx.setInput(docs);
+        OperationChain chain = new OperationChain("testChain");
+        chain.add(PDFInfoToFieldsOp.ID).set("properties", props).set(
+                "batchSize", 4).set("parallelism", 2);
+        DocumentModelList result = (DocumentModelList) automationService.run(
+                ctx, chain);
+
+        assertEquals(6, result.size());
+        for (int i = 0; i < docs.size(); i++) {
+            assertEquals(docs.get(i).getId(), result.get(i).getId());
+            DocumentModel doc = coreSession.getDocument(docs.get(i).getRef());
+            if (i == 2) {
+                assertEquals("", doc.getPropertyValue("dc:format"));
+            } else {
+                assertEquals("1.3", doc.getPropertyValue("dc:coverage"));
+                assertEquals("13", doc.getPropertyValue("dc:description"));
+                assertEquals("SinglePage", doc.getPropertyValue("dc:format"));
+            }
+        }
+    }
+
+    @Test
+    public void testInfoToFieldsWithCompiledMapping() throws Exception {
+
+        HashMap<String, String> mapping = new HashMap<String, String>();
+        mapping.put("dc:description", "Page count");
+        mapping.put("dc:expired", "Creation date");
+        mapping.put("common:size", "File size");
+        mapping.put("dc:format", "Not a label");
+
+        PDFInfoMapping compiled = PDFInfoMapping.get(mapping);
+        assertSame(compiled, PDFInfoMapping.get(new HashMap<String, String>(
+                mapping)));
+        assertEquals(4, compiled.size());
+        for (int i = 0; i < compiled.size(); i++) {
+            String xpath = compiled.getXPath(i);
+            if ("dc:description".equals(xpath)) {
+                // String field: The string value is set
+                assertEquals(PDFInfoMapping.FIELD.PAGE_COUNT,
+                        compiled.getField(i));
+                assertNull(compiled.getTargetKind(i));
+            } else if ("dc:expired".equals(xpath)) {
+                assertEquals(PDFInfoMapping.KIND.DATE,
+                        compiled.getTargetKind(i));
+            } else if ("common:size".equals(xpath)) {
+                assertEquals(PDFInfoMapping.KIND.LONG,
+                        compiled.getTargetKind(i));
+            } else {
+                assertNull(compiled.getField(i));
+            }
+        }
+
+        PDFInfo info = new PDFInfo(pdfDocModel);
+        DocumentModel result = info.toFields(pdfDocModel, compiled, false,
+                null);
+
+        assertEquals("13", result.getPropertyValue("dc:description"));
+        assertEquals(Long.valueOf(67122),
+                result.getPropertyValue("common:size"));
+        assertNull(result.getPropertyValue("dc:format"));
+        // Same value as when going through the string
+        assertEquals(new GregorianCalendar(2014, 9, 22, 20, 0, 0),
+                result.getPropertyValue("dc:expired"));
+
+        // Same strings as before
+        HashMap<String, String> values = info.toHashMap();
+        assertEquals(PDFInfoMapping.FIELD.values().length, values.size());
+        assertEquals("2014-10-22 20:00:00", values.get("Creation date"));
+        assertEquals("13", values.get("Page count"));
+        assertEquals("false", values.get("Encrypted"));
+    }
 }
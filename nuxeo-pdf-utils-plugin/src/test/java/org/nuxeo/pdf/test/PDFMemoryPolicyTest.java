@@ -0,0 +1,288 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.StandardDecryptionMaterial;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.automation.test.EmbeddedAutomationServerFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.PDFMemoryPolicy;
+import org.nuxeo.pdf.PDFMemoryPolicy.MODE;
+import org.nuxeo.pdf.PDFMetrics;
+import org.nuxeo.pdf.PDFPageExtractor;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import com.codahale.metrics.Counter;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class, CoreFeature.class,
+        EmbeddedAutomationServerFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class PDFMemoryPolicyTest {
+
+    private static final String THE_PDF = "files/13-pages-no-page-numbers.pdf";
+
+    private static final String ENCRYPTED_PDF = "files/13-pages-no-page-numbers-encrypted-pwd-nuxeo.pdf";
+
+    protected File pdfFile;
+
+    protected FileBlob pdfFileBlob;
+
+    protected TestUtils utils;
+
+    @Before
+    public void setup() {
+
+        utils = new TestUtils();
+
+        pdfFile = FileUtils.getResourceFileFromContext(THE_PDF);
+        pdfFileBlob = new FileBlob(pdfFile);
+    }
+
+    @After
+    public void cleanup() {
+
+        Framework.getProperties().remove(PDFMemoryPolicy.MODE_PROPERTY);
+        Framework.getProperties().remove(
+                PDFMemoryPolicy.HEAP_THRESHOLD_PROPERTY);
+        Framework.getProperties().remove(
+                PDFMemoryPolicy.DIRECT_FILE_ACCESS_PROPERTY);
+
+        utils.cleanup();
+    }
+
+    @Test
+    public void testUseScratchFile() throws Exception {
+
+        PDFMemoryPolicy policy;
+
+        policy = new PDFMemoryPolicy(MODE.HEAP_ONLY);
+        assertFalse(policy.useScratchFile(-1));
+        assertFalse(policy.useScratchFile(Long.MAX_VALUE));
+
+        policy = new PDFMemoryPolicy(MODE.SCRATCH_FILE);
+        assertTrue(policy.useScratchFile(-1));
+        assertTrue(policy.useScratchFile(10));
+
+        policy = new PDFMemoryPolicy(MODE.HYBRID, 1000);
+        assertTrue(policy.useScratchFile(-1));
+        assertFalse(policy.useScratchFile(1000));
+        assertTrue(policy.useScratchFile(1001));
+    }
+
+    @Test
+    public void testGetDefault() throws Exception {
+
+        assertEquals(MODE.HEAP_ONLY, PDFMemoryPolicy.getDefault().getMode());
+
+        Framework.getProperties().setProperty(PDFMemoryPolicy.MODE_PROPERTY,
+                "hybrid");
+        Framework.getProperties().setProperty(
+                PDFMemoryPolicy.HEAP_THRESHOLD_PROPERTY, "1234");
+        PDFMemoryPolicy policy = PDFMemoryPolicy.getDefault();
+        assertEquals(MODE.HYBRID, policy.getMode());
+        assertEquals(1234, policy.getHeapThreshold());
+    }
+
+    @Test
+    public void testLoadWithScratchFile() throws Exception {
+
+        PDFMemoryPolicy policy = new PDFMemoryPolicy(MODE.SCRATCH_FILE);
+
+        PDDocument doc = policy.load(pdfFileBlob);
+        utils.track(doc);
+        assertEquals(13, doc.getNumberOfPages());
+        String txt = utils.extractText(doc, 1, 1);
+        assertEquals(0, txt.indexOf("Creative Brief"));
+        doc.close();
+        utils.untrack(doc);
+
+        doc = policy.load(pdfFile);
+        utils.track(doc);
+        assertEquals(13, doc.getNumberOfPages());
+        doc.close();
+        utils.untrack(doc);
+    }
+
+    @Test
+    public void testDirectFileAccess() throws Exception {
+
+        assertFalse(PDFMemoryPolicy.getDefault().isDirectFileAccess());
+        Framework.getProperties().setProperty(
+                PDFMemoryPolicy.DIRECT_FILE_ACCESS_PROPERTY, "true");
+        assertTrue(PDFMemoryPolicy.getDefault().isDirectFileAccess());
+
+        for (MODE mode : MODE.values()) {
+            for (boolean direct : new boolean[] { true, false }) {
+                PDFMemoryPolicy policy = new PDFMemoryPolicy(mode);
+                policy.setDirectFileAccess(direct);
+
+                PDDocument doc = policy.load(pdfFileBlob);
+                utils.track(doc);
+                assertEquals(13, doc.getNumberOfPages());
+                String txt = utils.extractText(doc, 13, 13);
+                assertTrue(txt.length() > 0);
+                doc.close();
+                utils.untrack(doc);
+            }
+        }
+    }
+
+    /*
+     * Write a one page PDF by hand. With inIncrementalUpdate, the info
+     * dictionary is replaced by an incremental update (title "Updated"
+     * instead of "Original"). With inBrokenXref, the startxref offset of the
+     * original part is wrong.
+     */
+    protected File writeHandMadePDF(boolean inIncrementalUpdate,
+            boolean inBrokenXref) throws IOException {
+
+        String content = "BT /F1 24 Tf 72 700 Td (Hand made) Tj ET";
+        String[] objects = {
+                "<< /Type /Catalog /Pages 2 0 R >>",
+                "<< /Type /Pages /Kids [3 0 R] /Count 1 >>",
+                "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] /Contents 4 0 R /Resources << /Font << /F1 6 0 R >> >> >>",
+                "<< /Length " + content.length() + " >>\nstream\n" + content
+                        + "\nendstream",
+                "<< /Title (Original) >>",
+                "<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>" };
+
+        StringBuilder pdf = new StringBuilder("%PDF-1.4\n");
+        int[] offsets = new int[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            offsets[i] = pdf.length();
+            pdf.append(i + 1).append(" 0 obj\n").append(objects[i]).append(
+                    "\nendobj\n");
+        }
+        int xref = pdf.length();
+        pdf.append("xref\n0 ").append(objects.length + 1).append(
+                "\n0000000000 65535 f \n");
+        for (int offset : offsets) {
+            pdf.append(String.format("%010d 00000 n \n", offset));
+        }
+        pdf.append("trailer\n<< /Size ").append(objects.length + 1).append(
+                " /Root 1 0 R /Info 5 0 R >>\nstartxref\n").append(
+                inBrokenXref ? xref + 7 : xref).append("\n%%EOF\n");
+
+        if (inIncrementalUpdate) {
+            int infoOffset = pdf.length();
+            pdf.append("5 0 obj\n<< /Title (Updated) >>\nendobj\n");
+            int updateXref = pdf.length();
+            pdf.append("xref\n0 1\n0000000000 65535 f \n5 1\n");
+            pdf.append(String.format("%010d 00000 n \n", infoOffset));
+            pdf.append("trailer\n<< /Size ").append(objects.length + 1).append(
+                    " /Root 1 0 R /Info 5 0 R /Prev ").append(xref).append(
+                    " >>\nstartxref\n").append(updateXref).append("\n%%EOF\n");
+        }
+
+        File f = File.createTempFile("pdfutils-handmade-", ".pdf");
+        utils.track(f);
+        Files.write(f.toPath(), pdf.toString().getBytes(
+                StandardCharsets.ISO_8859_1));
+        return f;
+    }
+
+    protected void checkHandMadePDF(File inFile, String inExpectedTitle)
+            throws Exception {
+
+        for (boolean direct : new boolean[] { true, false }) {
+            PDFMemoryPolicy policy = new PDFMemoryPolicy(MODE.HEAP_ONLY);
+            policy.setDirectFileAccess(direct);
+
+            PDDocument doc = policy.load(new FileBlob(inFile));
+            utils.track(doc);
+            assertEquals(1, doc.getNumberOfPages());
+            assertEquals("directFileAccess: " + direct, inExpectedTitle,
+                    doc.getDocumentInformation().getTitle());
+            assertTrue(utils.extractText(doc, 1, 1).indexOf("Hand made") > -1);
+            doc.close();
+            utils.untrack(doc);
+        }
+    }
+
+    @Test
+    public void testDirectFileAccessIncrementalUpdate() throws Exception {
+
+        checkHandMadePDF(writeHandMadePDF(false, false), "Original");
+        checkHandMadePDF(writeHandMadePDF(true, false), "Updated");
+    }
+
+    @Test
+    public void testDirectFileAccessBrokenXref() throws Exception {
+
+        checkHandMadePDF(writeHandMadePDF(false, true), "Original");
+    }
+
+    @Test
+    public void testDirectFileAccessEncrypted() throws Exception {
+
+        PDFMemoryPolicy policy = new PDFMemoryPolicy(MODE.HEAP_ONLY);
+        policy.setDirectFileAccess(true);
+        Counter fallbacks = PDFMetrics.getRegistry().counter(
+                PDFMetrics.name(PDFMemoryPolicy.DIRECT_FILE_ACCESS_METRICS,
+                        "fallbacks"));
+        long fallbackCount = fallbacks.getCount();
+
+        // Loaded with the sequential parser: Not decrypted yet
+        PDDocument doc = policy.load(new FileBlob(
+                FileUtils.getResourceFileFromContext(ENCRYPTED_PDF)));
+        utils.track(doc);
+        assertTrue(doc.isEncrypted());
+        // Parsed twice, and it shows
+        assertEquals(fallbackCount + 1, fallbacks.getCount());
+        doc.openProtection(new StandardDecryptionMaterial("nuxeo"));
+        assertEquals(13, doc.getNumberOfPages());
+        doc.close();
+        utils.untrack(doc);
+    }
+
+    @Test
+    public void testExtractPagesWithScratchFilePolicy() throws Exception {
+
+        Framework.getProperties().setProperty(PDFMemoryPolicy.MODE_PROPERTY,
+                "scratch");
+
+        PDFPageExtractor pe = new PDFPageExtractor(pdfFileBlob);
+        Blob extracted = pe.extract(1, 3);
+        assertNotNull(extracted);
+
+        PDDocument doc = PDDocument.load(extracted.getStream());
+        utils.track(doc);
+        assertEquals(3, doc.getNumberOfPages());
+        doc.close();
+        utils.untrack(doc);
+    }
+}
@@ -21,6 +21,7 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -35,6 +36,7 @@ import org.nuxeo.ecm.automation.OperationContext;
 import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.automation.test.EmbeddedAutomationServerFeature;
 import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
 import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
@@ -205,6 +207,141 @@ public class PDFMergeTest {
 
     }
 
+    @Test
+    public void testMergePDFs_StreamingMode() throws Exception {
+
+        BlobList bl = new BlobList();
+
+        bl.add(new FileBlob(FileUtils.getResourceFileFromContext(MERGEPDF_1)));
+        bl.add(new FileBlob(FileUtils.getResourceFileFromContext(MERGEPDF_2)));
+        bl.add(new FileBlob(FileUtils.getResourceFileFromContext(MERGEPDF_3)));
+
+        PDFMerge pdfm = new PDFMerge(bl);
+        pdfm.setStreamingMode(true);
+
+        Blob result = pdfm.merge("merged-streaming.pdf", "The Title",
+                "The Subject", "The Author");
+        assertNotNull(result);
+        assertEquals("merged-streaming.pdf", result.getFilename());
+
+        checkMergedPDF(result, false);
+
+        PDDocument doc = PDDocument.load(result.getStream());
+        utils.track(doc);
+        assertEquals("The Title", doc.getDocumentInformation().getTitle());
+        assertEquals("The Author", doc.getDocumentInformation().getAuthor());
+        doc.close();
+        utils.untrack(doc);
+    }
+
+    @Test
+    public void testMergePDFs_StreamingModePrefetch() throws Exception {
+
+        BlobList bl = new BlobList();
+        // More sources than the prefetch count
+        for (int i = 0; i < 3; i++) {
+            bl.add(new FileBlob(FileUtils.getResourceFileFromContext(MERGEPDF_1)));
+            bl.add(new FileBlob(FileUtils.getResourceFileFromContext(MERGEPDF_2)));
+            bl.add(new FileBlob(FileUtils.getResourceFileFromContext(MERGEPDF_3)));
+        }
+
+        // 0: no prefetch, 1: one source ahead, 20: more than the sources
+        for (int prefetch : new int[] { 0, 1, 20 }) {
+            PDFMerge pdfm = new PDFMerge(bl);
+            pdfm.setStreamingMode(true);
+            pdfm.setPrefetchCount(prefetch);
+
+            Blob result = pdfm.merge("merged-prefetch.pdf");
+            assertNotNull(result);
+
+            File tempFile = File.createTempFile("testmergepdf", ".pdf");
+            utils.track(tempFile);
+            result.transferTo(tempFile);
+            PDDocument doc = PDDocument.load(tempFile);
+            utils.track(doc);
+            // 3 x (2 + 3 + 1)
+            assertEquals(18, doc.getNumberOfPages());
+            String txt = utils.extractText(doc, 18, 18);
+            assertTrue(txt.indexOf(MERGEPDF_CHECK_PREFIX + "3") > -1);
+            doc.close();
+            utils.untrack(doc);
+        }
+    }
+
+    @Test
+    public void testMergePDFs_StreamingModeInvalidSource() throws Exception {
+
+        BlobList bl = new BlobList();
+        bl.add(new FileBlob(FileUtils.getResourceFileFromContext(MERGEPDF_1)));
+        bl.add(new FileBlob(FileUtils.getResourceFileFromContext(MERGEPDF_2)));
+        bl.add(new FileBlob(FileUtils.getResourceFileFromContext("files/Travel-3.jpg")));
+        bl.add(new FileBlob(FileUtils.getResourceFileFromContext(MERGEPDF_3)));
+
+        PDFMerge pdfm = new PDFMerge(bl);
+        pdfm.setStreamingMode(true);
+        try {
+            pdfm.merge("merged-invalid.pdf");
+            fail("Merging a JPEG must fail");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /*
+     * A FileBlob slow to read, so the next sources are still queued in the
+     * prefetch thread when the merge fails
+     */
+    protected static class SlowFileBlob extends FileBlob {
+
+        private static final long serialVersionUID = 1L;
+
+        public SlowFileBlob(File inFile) {
+            super(inFile);
+        }
+
+        protected void pause() {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public File getFile() {
+            pause();
+            return super.getFile();
+        }
+
+        @Override
+        public InputStream getStream() throws IOException {
+            pause();
+            return super.getStream();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testMergePDFs_StreamingModeFailureWithQueuedSources()
+            throws Exception {
+
+        BlobList bl = new BlobList();
+        bl.add(new FileBlob(FileUtils.getResourceFileFromContext(MERGEPDF_1)));
+        bl.add(new FileBlob(FileUtils.getResourceFileFromContext("files/Travel-3.jpg")));
+        for (int i = 0; i < 5; i++) {
+            bl.add(new SlowFileBlob(FileUtils.getResourceFileFromContext(MERGEPDF_2)));
+        }
+
+        PDFMerge pdfm = new PDFMerge(bl);
+        pdfm.setStreamingMode(true);
+        pdfm.setPrefetchCount(20);
+        try {
+            pdfm.merge("merged-invalid.pdf");
+            fail("Merging a JPEG must fail");
+        } catch (IOException e) {
+            // Expected, and the merge must not wait for the queued sources
+        }
+    }
+
     @Test
     public void testMergePDFs_ConstructorSimpleDoc() throws Exception {
 
@@ -252,6 +389,78 @@ public class PDFMergeTest {
         checkMergedPDF(result, false);
     }
 
+    @Test
+    public void testMergePDFs_WithDocIDsInSeveralBatches() throws Exception {
+
+        DocumentModel[] docs = { docMergePDF1, docMergePDF2, docMergePDF3 };
+        int count = PDFMerge.FETCH_BATCH_SIZE * 2 + 1;
+        String[] docIDs = new String[count];
+        for (int i = 0; i < count; i++) {
+            docIDs[i] = docs[i % 3].getId();
+        }
+
+        PDFMerge pdfm = new PDFMerge(docIDs, null, coreSession);
+
+        // Same order as the IDs
+        BlobList blobs = pdfm.getBlobs();
+        assertEquals(count, blobs.size());
+        for (int i = 0; i < count; i++) {
+            Blob expected = (Blob) docs[i % 3].getPropertyValue("file:content");
+            assertEquals(expected.getFilename(), blobs.get(i).getFilename());
+        }
+    }
+
+    @Test
+    public void testMergePDFs_WithDocIDsNotInCreationOrder() throws Exception {
+
+        // Created as 1, 2, 3: the blobs must follow the IDs, not the query
+        String[] docIDs = { docMergePDF3.getId(), docMergePDF1.getId(),
+                docMergePDF2.getId() };
+
+        PDFMerge pdfm = new PDFMerge(docIDs, null, coreSession);
+
+        BlobList blobs = pdfm.getBlobs();
+        assertEquals(3, blobs.size());
+        assertEquals("pdf-3-1page.pdf", blobs.get(0).getFilename());
+        assertEquals("pdf-1-2pages.pdf", blobs.get(1).getFilename());
+        assertEquals("pdf-2-3pages.pdf", blobs.get(2).getFilename());
+
+        Blob result = pdfm.merge("merged-reordered.pdf");
+        assertNotNull(result);
+
+        File tempFile = File.createTempFile("testmergepdf", ".pdf");
+        utils.track(tempFile);
+        result.transferTo(tempFile);
+
+        PDDocument doc = PDDocument.load(tempFile);
+        utils.track(doc);
+
+        // 1 + 2 + 3
+        assertEquals(6, doc.getNumberOfPages());
+        assertTrue(utils.extractText(doc, 1, 1).indexOf(
+                MERGEPDF_CHECK_PREFIX + "3") > -1);
+        assertTrue(utils.extractText(doc, 2, 2).indexOf(
+                MERGEPDF_CHECK_PREFIX + "1") > -1);
+        assertTrue(utils.extractText(doc, 4, 4).indexOf(
+                MERGEPDF_CHECK_PREFIX + "2") > -1);
+
+        doc.close();
+        utils.untrack(doc);
+    }
+
+    @Test
+    public void testMergePDFs_WithUnknownDocID() throws Exception {
+
+        String[] docIDs = { docMergePDF1.getId(),
+                "00000000-0000-0000-0000-000000000000" };
+        try {
+            new PDFMerge(docIDs, null, coreSession);
+            fail("An unknown document ID must fail");
+        } catch (ClientException e) {
+            assertTrue(e.getMessage().indexOf("Document not found") > -1);
+        }
+    }
+
     @Test
     public void testMergePDFsBlobOperation_blobInput() throws Exception {
 
@@ -407,4 +616,27 @@ public class PDFMergeTest {
         assertEquals(theFileName, result.getFilename());
 
     }
+
+    @Test
+    public void testMergePDFsDocsOperation_streamingMerge() throws Exception {
+
+        OperationChain chain;
+        OperationContext ctx = new OperationContext(coreSession);
+        assertNotNull(ctx);
+
+        ctx.setInput(docMergePDF1);
+        chain = new OperationChain("testChain");
+
+        String[] docIDs = new String[2];
+        docIDs[0] = docMergePDF2.getId();
+        docIDs[1] = docMergePDF3.getId();
+
+        ctx.put("varOfDocIDs", docIDs);
+        chain.add(MergePDFsWithDocsInputOp.ID).set("toAppendDocIDsVarName",
+                "varOfDocIDs").set("streamingMerge", true);
+
+        Blob result = (Blob) automationService.run(ctx, chain);
+        assertNotNull(result);
+        checkMergedPDF(result, false);
+    }
 }
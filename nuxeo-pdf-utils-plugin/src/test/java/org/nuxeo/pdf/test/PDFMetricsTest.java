@@ -0,0 +1,125 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.PDFMetrics;
+import org.nuxeo.pdf.PDFMetrics.PHASE;
+import org.nuxeo.pdf.PDFWatermarking;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import com.codahale.metrics.MetricRegistry;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class, CoreFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class PDFMetricsTest {
+
+    private static final String THE_PDF = "files/13-pages-no-page-numbers.pdf";
+
+    protected FileBlob pdfFileBlob;
+
+    protected TestUtils utils;
+
+    @Before
+    public void setup() {
+
+        utils = new TestUtils();
+
+        File pdfFile = FileUtils.getResourceFileFromContext(THE_PDF);
+        pdfFileBlob = new FileBlob(pdfFile);
+    }
+
+    @After
+    public void cleanup() {
+
+        utils.cleanup();
+    }
+
+    protected long timerCount(String inOperation, String inMetric) {
+        return PDFMetrics.getRegistry().timer(
+                PDFMetrics.name(inOperation, inMetric)).getCount();
+    }
+
+    @Test
+    public void testWatermarkRecordsEachPhase() throws Exception {
+
+        String op = PDFMetrics.OP_WATERMARK_WITH_TEXT;
+        MetricRegistry registry = PDFMetrics.getRegistry();
+        long loadCount = timerCount(op, "load");
+        long processCount = timerCount(op, "process");
+        long saveCount = timerCount(op, "save");
+        long totalCount = timerCount(op, "total");
+        long pagesCount = registry.histogram(PDFMetrics.name(op, "pages")).getCount();
+
+        PDFWatermarking pdfw = new PDFWatermarking(pdfFileBlob);
+        pdfw.setText("Metrics");
+        Blob result = pdfw.watermark();
+        assertNotNull(result);
+        if (result instanceof FileBlob) {
+            utils.track(((FileBlob) result).getFile());
+        }
+
+        assertEquals(loadCount + 1, timerCount(op, "load"));
+        assertEquals(processCount + 1, timerCount(op, "process"));
+        assertEquals(saveCount + 1, timerCount(op, "save"));
+        assertEquals(totalCount + 1, timerCount(op, "total"));
+        assertEquals(pagesCount + 1,
+                registry.histogram(PDFMetrics.name(op, "pages")).getCount());
+        assertEquals(
+                13,
+                registry.histogram(PDFMetrics.name(op, "pages")).getSnapshot().getMax());
+        assertTrue(registry.histogram(PDFMetrics.name(op, "outputBytes")).getSnapshot().getMax() > 0);
+    }
+
+    @Test
+    public void testErrorsAndSingleStop() throws Exception {
+
+        String op = "test-" + java.util.UUID.randomUUID().toString();
+        MetricRegistry registry = PDFMetrics.getRegistry();
+
+        PDFMetrics metrics = PDFMetrics.start(op);
+        metrics.phase(PHASE.LOAD);
+        metrics.stop();
+        metrics.stop();
+
+        assertEquals(1, timerCount(op, "load"));
+        assertEquals(0, timerCount(op, "save"));
+        assertEquals(1, timerCount(op, "total"));
+        assertEquals(1, registry.counter(PDFMetrics.name(op, "errors")).getCount());
+
+        metrics = PDFMetrics.start(op);
+        metrics.succeeded().stop();
+        assertEquals(2, timerCount(op, "total"));
+        assertEquals(1, registry.counter(PDFMetrics.name(op, "errors")).getCount());
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.blob.binary.Binary;
+import org.nuxeo.ecm.core.blob.binary.BinaryManager;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.PDFMerge;
+import org.nuxeo.pdf.PDFOutputSink;
+import org.nuxeo.pdf.PDFPageNumbering;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import com.google.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class, CoreFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class PDFOutputSinkTest {
+
+    protected static final String THIRTEEN_PAGES_PDF = "files/13-pages-no-page-numbers.pdf";
+
+    protected static final String PDF_1 = "files/pdf-1-2pages.pdf";
+
+    protected static final String PDF_2 = "files/pdf-2-3pages.pdf";
+
+    protected TestUtils utils;
+
+    @Inject
+    CoreSession coreSession;
+
+    @Before
+    public void setup() {
+
+        utils = new TestUtils();
+    }
+
+    @After
+    public void cleanup() {
+
+        utils.cleanup();
+    }
+
+    protected FileBlob resourceBlob(String inPath) {
+        return new FileBlob(FileUtils.getResourceFileFromContext(inPath));
+    }
+
+    protected PDDocument load(byte[] inBytes) throws Exception {
+
+        PDDocument doc = PDDocument.load(new ByteArrayInputStream(inBytes));
+        utils.track(doc);
+        return doc;
+    }
+
+    @Test
+    public void testPageNumberingToStream() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PDFPageNumbering pn = new PDFPageNumbering(
+                resourceBlob(THIRTEEN_PAGES_PDF));
+        pn.setOutputSink(PDFOutputSink.toStream(out));
+
+        Blob result = pn.addPageNumbers(1, 1, null, 0, "#ff0000",
+                PAGE_NUMBER_POSITION.BOTTOM_RIGHT);
+        assertNull(result);
+
+        PDDocument doc = load(out.toByteArray());
+        assertEquals(13, doc.getNumberOfPages());
+        assertTrue(utils.extractText(doc, 13, 13).indexOf("13") > -1);
+    }
+
+    @Test
+    public void testMergeToStream() throws Exception {
+
+        BlobList bl = new BlobList();
+        bl.add(resourceBlob(PDF_1));
+        bl.add(resourceBlob(PDF_2));
+
+        // Not streaming: the sink switches to streaming mode
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PDFMerge pdfm = new PDFMerge(bl);
+        pdfm.setOutputSink(PDFOutputSink.toStream(out));
+        assertNull(pdfm.merge("merged.pdf", "The Title", null, null));
+
+        PDDocument doc = load(out.toByteArray());
+        assertEquals(5, doc.getNumberOfPages());
+        assertEquals("The Title", doc.getDocumentInformation().getTitle());
+    }
+
+    @Test
+    public void testBinaryStore() throws Exception {
+
+        PDDocument source = PDDocument.load(FileUtils.getResourceFileFromContext(PDF_2));
+        utils.track(source);
+
+        Blob result = PDFOutputSink.toBinaryStore(
+                coreSession.getRepositoryName()).save(source);
+        assertNotNull(result);
+        assertNotNull(result.getDigest());
+        assertEquals("application/pdf", result.getMimeType());
+        assertTrue(result.getLength() > 0);
+
+        File f = File.createTempFile("testoutputsink", ".pdf");
+        utils.track(f);
+        result.transferTo(f);
+        assertEquals(result.getLength(), f.length());
+        PDDocument doc = PDDocument.load(f);
+        utils.track(doc);
+        assertEquals(3, doc.getNumberOfPages());
+
+        // Can be stored in a document
+        result.setFilename("stored.pdf");
+        DocumentModel fileDoc = coreSession.createDocumentModel("/",
+                "test-output-sink", "File");
+        fileDoc.setPropertyValue("file:content", (Serializable) result);
+        fileDoc = coreSession.createDocument(fileDoc);
+        Blob stored = (Blob) fileDoc.getPropertyValue("file:content");
+        assertEquals(result.getDigest(), stored.getDigest());
+
+        coreSession.removeDocument(fileDoc.getRef());
+        coreSession.save();
+    }
+
+    /*
+     * Reads the whole PDF (or at most inMaxBytes bytes, then fails), but does
+     * not store it.
+     */
+    protected static class TestBinaryStoreSink extends
+            PDFOutputSink.BinaryStoreSink {
+
+        protected long maxBytes;
+
+        protected volatile long bytesRead = 0;
+
+        protected volatile IOException readFailure;
+
+        protected TestBinaryStoreSink(String inRepositoryName, long inMaxBytes) {
+            super(inRepositoryName);
+            maxBytes = inMaxBytes;
+        }
+
+        @Override
+        protected Binary store(BinaryManager inBinaryManager, Blob inBlob)
+                throws IOException {
+
+            InputStream in = inBlob.getStream();
+            byte[] buffer = new byte[4096];
+            try {
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    bytesRead += count;
+                    if (bytesRead > maxBytes) {
+                        throw new IOException("Store failure");
+                    }
+                }
+            } catch (IOException e) {
+                readFailure = e;
+                throw e;
+            }
+            throw new IOException("The end of the stream was read");
+        }
+    }
+
+    protected static boolean hasCause(Throwable inError, String inMessage) {
+
+        for (Throwable t = inError; t != null; t = t.getCause()) {
+            if (inMessage.equals(t.getMessage())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testBinaryStoreWriteFailure() throws Exception {
+
+        PDDocument failing = new PDDocument() {
+            @Override
+            public void save(OutputStream inOutput) throws IOException {
+                // More than the pipe buffer
+                inOutput.write(new byte[200 * 1024]);
+                throw new IOException("Write failure");
+            }
+        };
+        utils.track(failing);
+
+        TestBinaryStoreSink sink = new TestBinaryStoreSink(
+                coreSession.getRepositoryName(), Long.MAX_VALUE);
+        try {
+            sink.save(failing);
+            fail("The write failure must be reported");
+        } catch (IOException e) {
+            assertEquals("Write failure", e.getMessage());
+        }
+
+        // The binary manager got an error, not the end of the stream
+        assertNotNull(sink.readFailure);
+        assertTrue(hasCause(sink.readFailure, "Write failure"));
+    }
+
+    @Test
+    public void testBinaryStoreReaderFailure() throws Exception {
+
+        PDDocument source = PDDocument.load(FileUtils.getResourceFileFromContext(THIRTEEN_PAGES_PDF));
+        utils.track(source);
+
+        TestBinaryStoreSink sink = new TestBinaryStoreSink(
+                coreSession.getRepositoryName(), 1024);
+        try {
+            sink.save(source);
+            fail("The failure of the binary manager must be reported");
+        } catch (IOException e) {
+            // Not just "Pipe closed"
+            assertTrue(hasCause(e, "Store failure"));
+        }
+    }
+}
@@ -21,8 +21,13 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectImage;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -31,6 +36,7 @@ import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.OperationChain;
 import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.automation.test.EmbeddedAutomationServerFeature;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.DocumentModel;
@@ -40,6 +46,7 @@ import org.nuxeo.ecm.core.test.CoreFeature;
 import org.nuxeo.ecm.platform.test.PlatformFeature;
 import org.nuxeo.pdf.PDFPageExtractor;
 import org.nuxeo.pdf.operations.ExtractPDFPagesOp;
+import org.nuxeo.pdf.operations.SplitPDFPagesOp;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
@@ -222,4 +229,113 @@ public class PDFPageExtractorTest {
             // We're good
         }
     }
+
+    @Test
+    public void testParseRanges() throws Exception {
+
+        List<int[]> ranges = PDFPageExtractor.parseRanges("1-3, 5 ,6-13");
+        assertEquals(3, ranges.size());
+        assertArrayEquals(new int[] { 1, 3 }, ranges.get(0));
+        assertArrayEquals(new int[] { 5, 5 }, ranges.get(1));
+        assertArrayEquals(new int[] { 6, 13 }, ranges.get(2));
+    }
+
+    @Test
+    public void testSplitPages() throws Exception {
+
+        String originalName = pdfFileBlob.getFilename().replace(".pdf", "");
+        PDFPageExtractor pe = new PDFPageExtractor(pdfFileBlob);
+
+        BlobList blobs = pe.split(PDFPageExtractor.parseRanges("1-3,5-9"),
+                "One Upon a Time", null, null);
+        assertEquals(2, blobs.size());
+
+        checkExtractedPdf(blobs.get(0), 3,
+                "Creative Brief\nDo this\nLorem ipsum dolor sit amet");
+        assertEquals(originalName + "-1-3.pdf", blobs.get(0).getFilename());
+        checkExtractedPdf(blobs.get(1), 5,
+                "ipsum\nBut Avoid this\nAt vero eos et accusamus");
+        assertEquals(originalName + "-5-9.pdf", blobs.get(1).getFilename());
+
+        PDDocument doc = PDDocument.load(blobs.get(1).getStream());
+        utils.track(doc);
+        assertEquals("One Upon a Time", doc.getDocumentInformation().getTitle());
+        doc.close();
+        utils.untrack(doc);
+    }
+
+    @Test
+    public void testSplitEvery() throws Exception {
+
+        String originalName = pdfFileBlob.getFilename().replace(".pdf", "");
+        PDFPageExtractor pe = new PDFPageExtractor(pdfFileBlob);
+
+        // 13 pages => 5 + 5 + 3
+        BlobList blobs = pe.splitEvery(5, null, null, null);
+        assertEquals(3, blobs.size());
+        checkExtractedPdf(blobs.get(0), 5, "Creative Brief");
+        checkExtractedPdf(blobs.get(1), 5, "");
+        assertEquals(originalName + "-6-10.pdf", blobs.get(1).getFilename());
+        checkExtractedPdf(blobs.get(2), 3, "");
+        assertEquals(originalName + "-11-13.pdf", blobs.get(2).getFilename());
+    }
+
+    @Test
+    public void testSplitWithSharedResources() throws Exception {
+
+        // All pages use the same images, and the fonts are shared every 3
+        // pages: Every resulting PDF must be complete and readable
+        FileBlob blob = new PDFFixtureGenerator(7).setPageCount(12).setLinesPerPage(
+                2).setFontCount(3).setImagesPerPage(2).setSharedImages(true).generateBlob();
+        utils.track(blob.getFile());
+
+        PDFPageExtractor pe = new PDFPageExtractor(blob);
+        BlobList blobs = pe.split(PDFPageExtractor.parseRanges("1-4,5-8,9-12"),
+                null, null, null);
+        assertEquals(3, blobs.size());
+
+        int pageNumber = 1;
+        for (Blob b : blobs) {
+            PDDocument doc = PDDocument.load(b.getStream());
+            utils.track(doc);
+            assertEquals(4, doc.getNumberOfPages());
+
+            @SuppressWarnings("unchecked")
+            List<PDPage> pages = doc.getDocumentCatalog().getAllPages();
+            for (int i = 1; i <= pages.size(); i++) {
+                String txt = utils.extractText(doc, i, i);
+                assertEquals(0, txt.indexOf("Page " + pageNumber));
+                pageNumber += 1;
+
+                Map<String, PDXObjectImage> images = pages.get(i - 1).findResources().getImages();
+                assertEquals(2, images.size());
+                for (PDXObjectImage image : images.values()) {
+                    assertNotNull(image.getRGBImage());
+                }
+            }
+
+            doc.close();
+            utils.untrack(doc);
+        }
+    }
+
+    @Test
+    public void testSplitPagesOperation() throws Exception {
+
+        OperationChain chain;
+        OperationContext ctx = new OperationContext(coreSession);
+        assertNotNull(ctx);
+
+        ctx.setInput(pdfFileBlob);
+        chain = new OperationChain("testChain");
+
+        chain.add(SplitPDFPagesOp.ID).set("pagesPerFile", 1);
+        BlobList blobs = (BlobList) automationService.run(ctx, chain);
+        assertNotNull(blobs);
+        assertEquals(13, blobs.size());
+        for (Blob b : blobs) {
+            assertEquals("application/pdf", b.getMimeType());
+        }
+        checkExtractedPdf(blobs.get(0), 1, "Creative Brief");
+    }
 }
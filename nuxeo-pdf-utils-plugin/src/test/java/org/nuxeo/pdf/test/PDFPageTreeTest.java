@@ -0,0 +1,142 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.PDFPageNumbering;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+import org.nuxeo.pdf.PDFPageTree;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class, CoreFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class PDFPageTreeTest {
+
+    protected TestUtils utils;
+
+    @Before
+    public void setup() {
+
+        utils = new TestUtils();
+    }
+
+    @After
+    public void cleanup() {
+
+        utils.cleanup();
+    }
+
+    protected PDDocument generate(int inPageCount, int inFanOut)
+            throws Exception {
+
+        PDDocument doc = new PDFFixtureGenerator(5).setPageCount(inPageCount).setLinesPerPage(
+                1).setPageTreeFanOut(inFanOut).generate();
+        utils.track(doc);
+        return doc;
+    }
+
+    @Test
+    public void testSameOrderAsGetAllPages() throws Exception {
+
+        // 0: flat tree
+        for (int fanOut : new int[] { 0, 3, 10 }) {
+            PDDocument doc = generate(47, fanOut);
+            @SuppressWarnings("unchecked")
+            List<PDPage> allPages = doc.getDocumentCatalog().getAllPages();
+
+            PDFPageTree tree = new PDFPageTree(doc);
+            assertEquals(47, tree.getCount());
+
+            int i = 0;
+            for (PDPage page : tree) {
+                assertSame(allPages.get(i).getCOSDictionary(),
+                        page.getCOSDictionary());
+                i += 1;
+            }
+            assertEquals(47, i);
+
+            for (int pageNum = 1; pageNum <= 47; pageNum++) {
+                assertSame(allPages.get(pageNum - 1).getCOSDictionary(),
+                        tree.getPage(pageNum).getCOSDictionary());
+            }
+        }
+    }
+
+    @Test
+    public void testIteratorFromStartPage() throws Exception {
+
+        PDDocument doc = generate(30, 4);
+        PDFPageTree tree = new PDFPageTree(doc);
+
+        Iterator<PDPage> it = tree.iterator(28);
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count += 1;
+        }
+        assertEquals(3, count);
+
+        assertFalse(tree.iterator(31).hasNext());
+        assertNull(tree.getPage(0));
+        assertNull(tree.getPage(31));
+    }
+
+    @Test
+    public void testPageNumberingStartingLate() throws Exception {
+
+        FileBlob blob = new PDFFixtureGenerator(6).setPageCount(60).setLinesPerPage(
+                1).setPageTreeFanOut(5).generateBlob();
+        utils.track(blob.getFile());
+
+        PDFPageNumbering pn = new PDFPageNumbering(blob);
+        Blob result = pn.addPageNumbers(55, 1, null, 0, "#ff0000",
+                PAGE_NUMBER_POSITION.BOTTOM_RIGHT);
+        utils.track(((FileBlob) result).getFile());
+
+        PDDocument original = PDDocument.load(blob.getFile());
+        utils.track(original);
+        PDDocument doc = PDDocument.load(result.getStream());
+        utils.track(doc);
+        assertEquals(60, doc.getNumberOfPages());
+
+        // Pages before 55 are unchanged, the next ones have a number
+        assertEquals(utils.extractText(original, 54, 54),
+                utils.extractText(doc, 54, 54));
+        assertFalse(utils.extractText(original, 55, 55).equals(
+                utils.extractText(doc, 55, 55)));
+        assertFalse(utils.extractText(original, 60, 60).equals(
+                utils.extractText(doc, 60, 60)));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.OperationChain;
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.test.EmbeddedAutomationServerFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+import org.nuxeo.pdf.PDFPipeline;
+import org.nuxeo.pdf.PDFWatermarking;
+import org.nuxeo.pdf.operations.PDFPipelineOp;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import com.google.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class, CoreFeature.class,
+        EmbeddedAutomationServerFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class PDFPipelineTest {
+
+    private static final String THE_PDF = "files/13-pages-no-page-numbers.pdf";
+
+    protected File pdfFile;
+
+    protected FileBlob pdfFileBlob;
+
+    protected TestUtils utils;
+
+    @Inject
+    CoreSession coreSession;
+
+    @Inject
+    AutomationService automationService;
+
+    @Before
+    public void setup() {
+
+        utils = new TestUtils();
+
+        assertNotNull(coreSession);
+        assertNotNull(automationService);
+
+        pdfFile = FileUtils.getResourceFileFromContext(THE_PDF);
+        pdfFileBlob = new FileBlob(pdfFile);
+    }
+
+    @After
+    public void cleanup() {
+
+        utils.cleanup();
+    }
+
+    /*
+     * Every page has the watermark. Page 2 has the number 1, page 13 has the
+     * number 12
+     */
+    protected void checkPipelineResult(Blob inBlob, String inWatermark,
+            String inTitle) throws Exception {
+
+        PDDocument doc = PDDocument.load(inBlob.getStream());
+        utils.track(doc);
+
+        assertEquals(13, doc.getNumberOfPages());
+        for (int i = 1; i <= 13; i++) {
+            String txt = utils.extractText(doc, i, i);
+            assertTrue("Page " + i + " has no watermark",
+                    txt.indexOf(inWatermark) > -1);
+        }
+        assertTrue(utils.extractText(doc, 2, 2).indexOf("1") > -1);
+        assertTrue(utils.extractText(doc, 13, 13).indexOf("12") > -1);
+
+        PDDocumentInformation docInfo = doc.getDocumentInformation();
+        assertEquals(inTitle, docInfo.getTitle());
+
+        doc.close();
+        utils.untrack(doc);
+    }
+
+    @Test
+    public void testPipeline() throws Exception {
+
+        String watermark = java.util.UUID.randomUUID().toString();
+
+        PDFWatermarking pdfw = new PDFWatermarking();
+        pdfw.setText(watermark);
+
+        PDFPipeline pipeline = new PDFPipeline(pdfFileBlob);
+        pipeline.addTextWatermark(pdfw).addPageNumbers(2, 1, null, 0,
+                "#ff0000", PAGE_NUMBER_POSITION.BOTTOM_CENTER).setInfos(
+                "The Title", null, null);
+        assertEquals(3, pipeline.getStageCount());
+
+        Blob result = pipeline.run();
+        assertNotNull(result);
+        assertEquals(pdfFileBlob.getFilename(), result.getFilename());
+        assertEquals("application/pdf", result.getMimeType());
+
+        checkPipelineResult(result, watermark, "The Title");
+    }
+
+    @Test
+    public void testPipelineOperation() throws Exception {
+
+        String watermark = java.util.UUID.randomUUID().toString();
+
+        OperationChain chain;
+        OperationContext ctx = new OperationContext(coreSession);
+        assertNotNull(ctx);
+
+        ctx.setInput(pdfFileBlob);
+        chain = new OperationChain("testChain");
+        chain.add(PDFPipelineOp.ID).set("stages",
+                "WatermarkWithText, AddPageNumbers, SetInfos").set(
+                "watermark", watermark).set("startAtPage", 2).set(
+                "pdfTitle", "Pipeline");
+
+        Blob result = (Blob) automationService.run(ctx, chain);
+        assertNotNull(result);
+
+        checkPipelineResult(result, watermark, "Pipeline");
+    }
+
+    @Test
+    public void testPipelineOperationShouldFailOnUnknownStage()
+            throws Exception {
+
+        OperationChain chain;
+        OperationContext ctx = new OperationContext(coreSession);
+        assertNotNull(ctx);
+
+        ctx.setInput(pdfFileBlob);
+        chain = new OperationChain("testChain");
+        chain.add(PDFPipelineOp.ID).set("stages", "DoSomethingUnknown");
+
+        try {
+            automationService.run(ctx, chain);
+            assertTrue("Running the chain should have failed", false);
+        } catch (Exception e) {
+            // We're good
+        }
+    }
+}
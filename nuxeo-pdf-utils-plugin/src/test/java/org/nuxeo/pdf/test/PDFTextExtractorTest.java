@@ -21,6 +21,11 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.junit.After;
@@ -32,12 +37,16 @@ import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.OperationChain;
 import org.nuxeo.ecm.automation.OperationContext;
 import org.nuxeo.ecm.automation.test.EmbeddedAutomationServerFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.impl.blob.ByteArrayBlob;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.test.CoreFeature;
 import org.nuxeo.ecm.platform.test.PlatformFeature;
 import org.nuxeo.pdf.PDFTextExtractor;
+import org.nuxeo.pdf.PDFTextExtractor.PageTextHandler;
 import org.nuxeo.pdf.operations.ExtractTextFromPDFOp;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
@@ -132,6 +141,136 @@ public class PDFTextExtractorTest {
         assertEquals("123456789", extractedLine);
     }
 
+    @Test
+    public void testExtractLineWithoutExtractingAll() throws IOException {
+        PDFTextExtractor textExtractor = new PDFTextExtractor(pdfFileBlob);
+        String extractedLine = textExtractor.extractLineOf("Contract Number: ");
+        assertEquals("Contract Number: 123456789", extractedLine);
+        extractedLine = textExtractor.extractLastPartOfLine("Contract Number: ");
+        assertEquals("123456789", extractedLine);
+        extractedLine = textExtractor.extractLineOf("Toto");
+        assertNull(extractedLine);
+        extractedLine = textExtractor.extractLineOf("13.1");
+        assertNotNull(extractedLine);
+    }
+
+    @Test
+    public void testExtractPageByPage() throws IOException {
+        PDFTextExtractor textExtractor = new PDFTextExtractor(pdfFileBlob);
+
+        final List<Integer> pages = new ArrayList<Integer>();
+        boolean completed = textExtractor.extractPageByPage(new PageTextHandler() {
+            @Override
+            public boolean handlePage(int inPageNumber, String inText) {
+                pages.add(inPageNumber);
+                return true;
+            }
+        });
+        assertTrue(completed);
+        assertEquals(6, pages.size());
+        assertEquals(1, pages.get(0).intValue());
+        assertEquals(6, pages.get(5).intValue());
+
+        // Stop after page 2
+        pages.clear();
+        completed = textExtractor.extractPageByPage(new PageTextHandler() {
+            @Override
+            public boolean handlePage(int inPageNumber, String inText) {
+                pages.add(inPageNumber);
+                return inPageNumber < 2;
+            }
+        });
+        assertFalse(completed);
+        assertEquals(2, pages.size());
+    }
+
+    @Test
+    public void testExtractPageByPageHandlerFailure() throws IOException {
+        PDFTextExtractor textExtractor = new PDFTextExtractor(pdfFileBlob);
+
+        final IOException failure = new IOException("Handler failure");
+        try {
+            textExtractor.extractPageByPage(new PageTextHandler() {
+                @Override
+                public boolean handlePage(int inPageNumber, String inText)
+                        throws IOException {
+                    throw failure;
+                }
+            });
+            fail("The handler exception must be thrown");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+
+        // Same for the writer
+        final IOException writeFailure = new IOException("Writer failure");
+        try {
+            textExtractor.writeAllExtractedLines(new Writer() {
+                @Override
+                public void write(char[] inBuffer, int inOffset, int inLength)
+                        throws IOException {
+                    throw writeFailure;
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            fail("The writer exception must be thrown");
+        } catch (IOException e) {
+            assertSame(writeFailure, e);
+        }
+
+        // Not a PDF: Wrapped, like in the other methods
+        Blob notAPdf = new ByteArrayBlob("Not a PDF".getBytes(), "application/pdf");
+        try {
+            new PDFTextExtractor(notAPdf).writeAllExtractedLines(new StringWriter());
+            fail("Loading the PDF must fail");
+        } catch (ClientException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testWriteAllExtractedLines() throws IOException {
+        PDFTextExtractor textExtractor = new PDFTextExtractor(pdfFileBlob);
+        StringWriter writer = new StringWriter();
+        textExtractor.writeAllExtractedLines(writer);
+
+        String all = new PDFTextExtractor(pdfFileBlob).getAllExtractedLines();
+        assertEquals(all, writer.toString());
+    }
+
+    @Test
+    public void testExtractTextInParallel() throws IOException {
+
+        // 13 pages => 2 ranges at least
+        File f = FileUtils.getResourceFileFromContext("files/13-pages-no-page-numbers.pdf");
+        FileBlob fb = new FileBlob(f);
+
+        String expected = new PDFTextExtractor(fb).getAllExtractedLines();
+
+        PDFTextExtractor textExtractor = new PDFTextExtractor(fb);
+        textExtractor.setParallelism(4);
+        assertEquals(4, textExtractor.getParallelism());
+        assertEquals(expected, textExtractor.getAllExtractedLines());
+
+        // 50 pages, 3 threads => 3 ranges. Not a file: copied first
+        FileBlob generated = new PDFFixtureGenerator(3).setPageCount(50).generateBlob();
+        utils.track(generated.getFile());
+        expected = new PDFTextExtractor(generated).getAllExtractedLines();
+
+        Blob inMemory = new ByteArrayBlob(Files.readAllBytes(generated.getFile().toPath()),
+                "application/pdf");
+        textExtractor = new PDFTextExtractor(inMemory);
+        textExtractor.setParallelism(3);
+        assertEquals(expected, textExtractor.getAllExtractedLines());
+    }
+
     @Test
     public void testExtractTextOperation() throws Exception {
 
@@ -21,12 +21,20 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDStream;
 import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObject;
 import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectImage;
 import org.apache.pdfbox.util.PDFTextStripper;
@@ -46,6 +54,7 @@ import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.test.CoreFeature;
 import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.PDFEncodedImage;
 import org.nuxeo.pdf.PDFWatermarking;
 import org.nuxeo.pdf.operations.WatermarkWithImageOp;
 import org.nuxeo.pdf.operations.WatermarkWithPDFOp;
@@ -185,6 +194,35 @@ public class PDFWatermarkingTest {
         }
     }
 
+    @Test
+    public void testTextWatermarkIsOneSharedFormXObject() throws Exception {
+
+        PDFWatermarking pdfw = new PDFWatermarking(pdfFileBlob);
+
+        String watermark = java.util.UUID.randomUUID().toString();
+        pdfw.setText(watermark).setInvertY(true).setYPosition(100);
+        Blob result = pdfw.watermark();
+
+        checkHasWatermarkOnAllPages(result, watermark);
+
+        PDDocument doc = PDDocument.load(result.getStream());
+        utils.track(doc);
+
+        int forms = 0;
+        COSName form = COSName.getPDFName("Form");
+        for (COSObject obj : doc.getDocument().getObjectsByType(COSName.XOBJECT)) {
+            COSBase base = obj.getObject();
+            if (base instanceof COSDictionary
+                    && form.equals(((COSDictionary) base).getDictionaryObject(COSName.SUBTYPE))) {
+                forms += 1;
+            }
+        }
+        assertEquals(1, forms);
+
+        doc.close();
+        utils.untrack(doc);
+    }
+
     @Test
     public void testAddWatermarkWithDefaultValues_PDFWithImages()
             throws Exception {
@@ -348,6 +386,30 @@ public class PDFWatermarkingTest {
 
     }
 
+    @Test
+    public void testWatermarkWithImageUsesTheEncodedImageCache()
+            throws Exception {
+
+        File overlayPictureFile = FileUtils.getResourceFileFromContext(IMAGE_FOR_WATERMARK_PNG);
+        FileBlob overlayPictureBlob = new FileBlob(overlayPictureFile);
+        overlayPictureBlob.setDigest(java.util.UUID.randomUUID().toString());
+
+        long hits = PDFEncodedImage.getCache().getHitCount();
+
+        PDFWatermarking pdfw = new PDFWatermarking(pdfFileBlob);
+        Blob result = pdfw.watermarkWithImage(overlayPictureBlob, 200, 200,
+                0.5f);
+        checkHasImage(result, IMAGE_FOR_WATERMARK_PNG_WIDTH,
+                IMAGE_FOR_WATERMARK_PNG_HEIGHT);
+        assertEquals(hits, PDFEncodedImage.getCache().getHitCount());
+
+        pdfw = new PDFWatermarking(pdfFileWithImagesBlob);
+        result = pdfw.watermarkWithImage(overlayPictureBlob, 100, 100, 2f);
+        checkHasImage(result, IMAGE_FOR_WATERMARK_PNG_WIDTH,
+                IMAGE_FOR_WATERMARK_PNG_HEIGHT);
+        assertEquals(hits + 1, PDFEncodedImage.getCache().getHitCount());
+    }
+
     @Test
     public void testWatermarkWithImagePNG_2() throws Exception {
 
@@ -495,4 +557,39 @@ public class PDFWatermarkingTest {
                     "test-images-withOverlayPNG-operation.pdf");
         }
     }
+
+    @Test
+    public void testWatermarkManyPages() throws Exception {
+
+        PDDocument doc = new PDFFixtureGenerator(5).setPageCount(600).setLinesPerPage(
+                1).setPageTreeFanOut(10).generate();
+        utils.track(doc);
+
+        PDFWatermarking pdfw = new PDFWatermarking();
+        pdfw.setText("Many Pages").setTextRotation(45).setInvertY(true).setYPosition(
+                100);
+        pdfw.watermark(doc);
+
+        // Same geometry => same commands on every page
+        @SuppressWarnings("unchecked")
+        List<PDPage> pages = doc.getDocumentCatalog().getAllPages();
+        assertEquals(600, pages.size());
+        String expected = getLastContent(pages.get(0));
+        assertTrue(expected.startsWith("Q q "));
+        for (int i = 1; i < pages.size(); i++) {
+            assertEquals("Page " + (i + 1), expected,
+                    getLastContent(pages.get(i)));
+        }
+
+        assertTrue(utils.extractText(doc, 599, 599).indexOf("Many Pages") > -1);
+    }
+
+    protected String getLastContent(PDPage inPage) throws IOException {
+
+        COSArray contents = (COSArray) inPage.getCOSDictionary().getDictionaryObject(
+                COSName.CONTENTS);
+        COSStream last = (COSStream) contents.getObject(contents.size() - 1);
+        return new String(new PDStream(last).getByteArray(),
+                StandardCharsets.ISO_8859_1);
+    }
 }
@@ -0,0 +1,310 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.OperationChain;
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.OperationParameters;
+import org.nuxeo.ecm.automation.test.EmbeddedAutomationServerFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.pdf.operations.MergePDFsAsyncOp;
+import org.nuxeo.pdf.operations.SplitPDFPagesAsyncOp;
+import org.nuxeo.pdf.operations.WatermarkWithTextAsyncOp;
+import org.nuxeo.pdf.work.PDFWork;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import com.google.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class, CoreFeature.class,
+        EmbeddedAutomationServerFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class PDFWorkTest {
+
+    protected static final String PDF_1 = "files/pdf-1-2pages.pdf";
+
+    protected static final String PDF_2 = "files/pdf-2-3pages.pdf";
+
+    protected static final String PDF_13_PAGES = "files/13-pages-no-page-numbers.pdf";
+
+    protected TestUtils utils;
+
+    protected DocumentModel testDocsFolder;
+
+    @Inject
+    CoreSession coreSession;
+
+    @Inject
+    AutomationService automationService;
+
+    @Inject
+    WorkManager workManager;
+
+    @Before
+    public void setup() {
+
+        utils = new TestUtils();
+
+        testDocsFolder = coreSession.createDocumentModel("/", "test-pdf-work",
+                "Folder");
+        testDocsFolder.setPropertyValue("dc:title", "test-pdfutils-work");
+        testDocsFolder = coreSession.createDocument(testDocsFolder);
+        testDocsFolder = coreSession.saveDocument(testDocsFolder);
+    }
+
+    @After
+    public void cleanup() {
+
+        coreSession.removeDocument(testDocsFolder.getRef());
+        coreSession.save();
+
+        utils.cleanup();
+    }
+
+    protected DocumentModel createDocument(String inPath) {
+        return utils.createDocumentFromFile(coreSession, testDocsFolder,
+                "File", inPath);
+    }
+
+    /*
+     * The works are scheduled after commit: Commit the transaction of the
+     * test, wait for the works and start a new transaction to read their
+     * result.
+     */
+    protected void runAndWait(OperationContext inCtx, OperationChain inChain)
+            throws Exception {
+
+        automationService.run(inCtx, inChain);
+
+        coreSession.save();
+        TransactionHelper.commitOrRollbackTransaction();
+        assertTrue(workManager.awaitCompletion(PDFWork.CATEGORY, 20,
+                TimeUnit.SECONDS));
+        TransactionHelper.startTransaction();
+    }
+
+    protected PDDocument load(Blob inBlob) throws Exception {
+
+        File f = File.createTempFile("testpdfwork", ".pdf");
+        utils.track(f);
+        inBlob.transferTo(f);
+
+        PDDocument doc = PDDocument.load(f);
+        utils.track(doc);
+        return doc;
+    }
+
+    @Test
+    public void testMergeAsync() throws Exception {
+
+        DocumentModel doc1 = createDocument(PDF_1);
+        DocumentModel doc2 = createDocument(PDF_2);
+        DocumentModel target = coreSession.createDocumentModel(
+                testDocsFolder.getPathAsString(), "merged", "File");
+        target = coreSession.createDocument(target);
+
+        DocumentModelList docs = new DocumentModelListImpl();
+        docs.add(doc1);
+        docs.add(doc2);
+
+        OperationContext ctx = new OperationContext(coreSession);
+        ctx.setInput(docs);
+        OperationChain chain = new OperationChain("testChain");
+        chain.add(MergePDFsAsyncOp.ID).set("targetDocId", target.getId()).set(
+                "fileName", "merged.pdf").set("workIdVarName", "workId");
+        runAndWait(ctx, chain);
+
+        assertNotNull(ctx.get("workId"));
+
+        target = coreSession.getDocument(target.getRef());
+        @SuppressWarnings("unchecked")
+        List<Map<String, Serializable>> files = (List<Map<String, Serializable>>) target.getPropertyValue("files:files");
+        assertEquals(1, files.size());
+        Blob result = (Blob) files.get(0).get("file");
+        assertNotNull(result);
+        assertEquals("merged.pdf", result.getFilename());
+        // 2 + 3 pages
+        assertEquals(5, load(result).getNumberOfPages());
+
+        // The sources are unchanged
+        doc1 = coreSession.getDocument(doc1.getRef());
+        Blob original = (Blob) doc1.getPropertyValue("file:content");
+        assertEquals(2, load(original).getNumberOfPages());
+    }
+
+    @Test
+    public void testSplitAsync() throws Exception {
+
+        DocumentModel doc = createDocument(PDF_13_PAGES);
+
+        OperationContext ctx = new OperationContext(coreSession);
+        ctx.setInput(doc);
+        OperationChain chain = new OperationChain("testChain");
+        chain.add(SplitPDFPagesAsyncOp.ID).set("pagesPerFile", 5);
+        runAndWait(ctx, chain);
+
+        doc = coreSession.getDocument(doc.getRef());
+        @SuppressWarnings("unchecked")
+        List<Map<String, Serializable>> files = (List<Map<String, Serializable>>) doc.getPropertyValue("files:files");
+        // 1-5, 6-10, 11-13
+        assertEquals(3, files.size());
+        assertEquals(5,
+                load((Blob) files.get(0).get("file")).getNumberOfPages());
+        assertEquals(3,
+                load((Blob) files.get(2).get("file")).getNumberOfPages());
+        assertNotNull(files.get(0).get("filename"));
+    }
+
+    @Test
+    public void testWatermarkAsync() throws Exception {
+
+        DocumentModel doc = createDocument(PDF_1);
+
+        OperationContext ctx = new OperationContext(coreSession);
+        ctx.setInput(doc);
+        OperationChain chain = new OperationChain("testChain");
+        chain.add(WatermarkWithTextAsyncOp.ID).set("watermark",
+                "Async watermark");
+        runAndWait(ctx, chain);
+
+        doc = coreSession.getDocument(doc.getRef());
+        Blob result = (Blob) doc.getPropertyValue("file:content");
+        PDDocument pdfDoc = load(result);
+        assertEquals(2, pdfDoc.getNumberOfPages());
+        assertTrue(utils.extractText(pdfDoc, 1, 1).indexOf("Async watermark") > -1);
+    }
+
+    @Test
+    public void testMergeAsyncDefaultsDoNotOverwriteSources() throws Exception {
+
+        DocumentModel doc1 = createDocument(PDF_1);
+        DocumentModel doc2 = createDocument(PDF_2);
+
+        DocumentModelList docs = new DocumentModelListImpl();
+        docs.add(doc1);
+        docs.add(doc2);
+
+        OperationContext ctx = new OperationContext(coreSession);
+        ctx.setInput(docs);
+        OperationChain chain = new OperationChain("testChain");
+        chain.add(MergePDFsAsyncOp.ID);
+        runAndWait(ctx, chain);
+
+        // The merged PDF is added to the files of the first document, its
+        // file:content is unchanged
+        doc1 = coreSession.getDocument(doc1.getRef());
+        Blob original = (Blob) doc1.getPropertyValue("file:content");
+        assertEquals(2, load(original).getNumberOfPages());
+        @SuppressWarnings("unchecked")
+        List<Map<String, Serializable>> files = (List<Map<String, Serializable>>) doc1.getPropertyValue("files:files");
+        assertEquals(1, files.size());
+        assertEquals(5,
+                load((Blob) files.get(0).get("file")).getNumberOfPages());
+    }
+
+    @Test
+    public void testMergeAsyncWithoutBlobSavesNothing() throws Exception {
+
+        DocumentModel noBlob = coreSession.createDocumentModel(
+                testDocsFolder.getPathAsString(), "no-blob", "File");
+        noBlob = coreSession.createDocument(noBlob);
+        DocumentModel target = coreSession.createDocumentModel(
+                testDocsFolder.getPathAsString(), "merged", "File");
+        target = coreSession.createDocument(target);
+
+        OperationContext ctx = new OperationContext(coreSession);
+        ctx.setInput(noBlob);
+        OperationChain chain = new OperationChain("testChain");
+        chain.add(MergePDFsAsyncOp.ID).set("targetDocId", target.getId()).set(
+                "targetXPath", "file:content");
+        runAndWait(ctx, chain);
+
+        target = coreSession.getDocument(target.getRef());
+        assertNull(target.getPropertyValue("file:content"));
+    }
+
+    @Test
+    public void testSplitAsyncChecksItsParameters() throws Exception {
+
+        DocumentModel doc = createDocument(PDF_13_PAGES);
+
+        // A list of PDFs cannot go in a single blob field
+        checkFailsBeforeScheduling(doc, "pagesPerFile", 5, "targetXPath",
+                "file:content");
+        // Bad ranges, no ranges nor pagesPerFile
+        checkFailsBeforeScheduling(doc, "ranges", "1-5,x", null, null);
+        checkFailsBeforeScheduling(doc, "ranges", "5-1", null, null);
+        checkFailsBeforeScheduling(doc, "pagesPerFile", 0, null, null);
+
+        // Nothing was scheduled
+        coreSession.save();
+        TransactionHelper.commitOrRollbackTransaction();
+        assertTrue(workManager.awaitCompletion(PDFWork.CATEGORY, 20,
+                TimeUnit.SECONDS));
+        TransactionHelper.startTransaction();
+        doc = coreSession.getDocument(doc.getRef());
+        @SuppressWarnings("unchecked")
+        List<Map<String, Serializable>> files = (List<Map<String, Serializable>>) doc.getPropertyValue("files:files");
+        assertTrue(files == null || files.isEmpty());
+        assertEquals(13,
+                load((Blob) doc.getPropertyValue("file:content")).getNumberOfPages());
+    }
+
+    protected void checkFailsBeforeScheduling(DocumentModel inDoc,
+            String inParam1, Object inValue1, String inParam2, Object inValue2) {
+
+        OperationContext ctx = new OperationContext(coreSession);
+        ctx.setInput(inDoc);
+        OperationChain chain = new OperationChain("testChain");
+        OperationParameters params = chain.add(SplitPDFPagesAsyncOp.ID).set(
+                inParam1, inValue1);
+        if (inParam2 != null) {
+            params.set(inParam2, inValue2);
+        }
+        try {
+            automationService.run(ctx, chain);
+            fail("Must fail with " + inParam1 + "=" + inValue1);
+        } catch (Exception e) {
+            // Expected
+        }
+    }
+}